@@ -0,0 +1,137 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative long values, e.g. latencies in nanoseconds or
+ * episode lengths in steps.
+ * <p>
+ * Values are counted in log-linear buckets: each power of two is split into
+ * four buckets, so a percentile is reported with a relative error of at most
+ * 25%. Recording a value is lock-free and does not allocate, so it can be done
+ * from the hot paths of learning and acting, and from several threads.
+ * </p>
+ */
+public final class Histogram {
+
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a value. Negative values are recorded as 0.
+   *
+   * @param value the value
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+
+    counts.incrementAndGet(bucketOf(value));
+    count.increment();
+    sum.add(value);
+
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * Returns the number of recorded values
+   *
+   * @return the number of values
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Returns the mean of the recorded values
+   *
+   * @return the mean, or 0 if no value has been recorded
+   */
+  public double getMean() {
+    long n = count.sum();
+    return n == 0 ? 0 : (double) sum.sum() / n;
+  }
+
+  /**
+   * Returns the largest recorded value
+   *
+   * @return the largest value, or 0 if no value has been recorded
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns an upper bound of the given percentile of the recorded values
+   *
+   * @param percentile the percentile, in the range [0,100]
+   * @return the upper bound of the bucket of the percentile, or 0 if no value
+   * has been recorded
+   */
+  public long getPercentile(double percentile) {
+    long n = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      n += counts.get(i);
+    }
+    if (n == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Removes all the recorded values. Values that are recorded concurrently may
+   * be lost.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.reset();
+    sum.reset();
+    max.set(0);
+  }
+
+  /* values below SUB_BUCKETS have their own bucket, larger values share a
+   * bucket with the values that have the same exponent and leading bits */
+  private static int bucketOf(long value) {
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    if (exponent < SUB_BUCKET_BITS) {
+      return (int) value;
+    }
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  private static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long subBucket = bucket % SUB_BUCKETS;
+    long lowerBound = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    return lowerBound + width - 1;
+  }
+}
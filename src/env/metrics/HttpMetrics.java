@@ -0,0 +1,131 @@
+package metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latencies of the HTTP requests that are issued for the affordances of
+ * Things, e.g. by a lab environment or by ThingArtifacts.
+ * <p>
+ * There is one instance per JVM (see {@link #getInstance()}), which is
+ * registered as the MBean "metrics:type=HttpMetrics,name=http". Recording a
+ * request only allocates the first time an affordance is seen.
+ * </p>
+ */
+public final class HttpMetrics implements HttpMetricsMXBean {
+
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  private static final HttpMetrics INSTANCE = new HttpMetrics();
+
+  static {
+    Metrics.register(INSTANCE, "HttpMetrics", "http");
+  }
+
+  private final ConcurrentHashMap<String, Histogram> latencies = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+  private HttpMetrics() {
+  }
+
+  /**
+   * Returns the HTTP metrics of the JVM
+   *
+   * @return the HTTP metrics
+   */
+  public static HttpMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Records a completed request
+   *
+   * @param affordance the affordance the request was issued for, e.g. its semantic type
+   * @param nanos the latency of the request in nanoseconds
+   */
+  public void recordRequest(String affordance, long nanos) {
+    Histogram histogram = latencies.get(affordance);
+    if (histogram == null) {
+      histogram = latencies.computeIfAbsent(affordance, key -> new Histogram());
+    }
+    histogram.record(nanos);
+  }
+
+  /**
+   * Records a request that failed without a response
+   *
+   * @param affordance the affordance the request was issued for, e.g. its semantic type
+   */
+  public void recordFailure(String affordance) {
+    LongAdder counter = failures.get(affordance);
+    if (counter == null) {
+      counter = failures.computeIfAbsent(affordance, key -> new LongAdder());
+    }
+    counter.increment();
+  }
+
+  /**
+   * Returns the latency histogram of an affordance
+   *
+   * @param affordance the affordance
+   * @return the histogram, or null if no request has been recorded for the affordance
+   */
+  public Histogram getLatencies(String affordance) {
+    return latencies.get(affordance);
+  }
+
+  @Override
+  public Map<String, Long> getRequestCounts() {
+    Map<String, Long> counts = new TreeMap<>();
+    latencies.forEach((affordance, histogram) -> counts.put(affordance, histogram.getCount()));
+    return counts;
+  }
+
+  @Override
+  public Map<String, Long> getFailureCounts() {
+    Map<String, Long> counts = new TreeMap<>();
+    failures.forEach((affordance, counter) -> counts.put(affordance, counter.sum()));
+    return counts;
+  }
+
+  @Override
+  public Map<String, Double> getMeanLatencyMillis() {
+    Map<String, Double> values = new TreeMap<>();
+    latencies.forEach((affordance, histogram) ->
+      values.put(affordance, histogram.getMean() / NANOS_PER_MILLI));
+    return values;
+  }
+
+  @Override
+  public Map<String, Double> getP50LatencyMillis() {
+    return percentileMillis(50);
+  }
+
+  @Override
+  public Map<String, Double> getP99LatencyMillis() {
+    return percentileMillis(99);
+  }
+
+  @Override
+  public Map<String, Double> getMaxLatencyMillis() {
+    Map<String, Double> values = new TreeMap<>();
+    latencies.forEach((affordance, histogram) ->
+      values.put(affordance, histogram.getMax() / NANOS_PER_MILLI));
+    return values;
+  }
+
+  @Override
+  public void reset() {
+    latencies.clear();
+    failures.clear();
+  }
+
+  private Map<String, Double> percentileMillis(double percentile) {
+    Map<String, Double> values = new TreeMap<>();
+    latencies.forEach((affordance, histogram) ->
+      values.put(affordance, histogram.getPercentile(percentile) / NANOS_PER_MILLI));
+    return values;
+  }
+}
@@ -0,0 +1,23 @@
+package metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link HttpMetrics}. Each map is keyed by affordance.
+ */
+public interface HttpMetricsMXBean {
+
+  Map<String, Long> getRequestCounts();
+
+  Map<String, Long> getFailureCounts();
+
+  Map<String, Double> getMeanLatencyMillis();
+
+  Map<String, Double> getP50LatencyMillis();
+
+  Map<String, Double> getP99LatencyMillis();
+
+  Map<String, Double> getMaxLatencyMillis();
+
+  void reset();
+}
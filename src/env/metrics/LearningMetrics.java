@@ -0,0 +1,176 @@
+package metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of learning Q matrices: the steps taken in the environment, the
+ * lengths of the episodes, how much the Q values changed per episode, how often
+ * actions were explored, and how often Q matrices were found in memory.
+ * <p>
+ * Recording is lock-free and does not allocate, so it can be done from the
+ * learning loops, and from several learning threads.
+ * </p>
+ */
+public final class LearningMetrics implements LearningMetricsMXBean {
+
+  private final LongAdder steps = new LongAdder();
+  private final LongAdder explorationSteps = new LongAdder();
+  private final LongAdder trainingNanos = new LongAdder();
+  private final Histogram episodeLengths = new Histogram();
+  private final DoubleAdder episodeQDeltas = new DoubleAdder();
+  private volatile double lastEpisodeQDelta;
+  private final LongAdder qTableHits = new LongAdder();
+  private final LongAdder qTableMisses = new LongAdder();
+  private volatile long startupNanos;
+
+  /**
+   * Records a step in the environment
+   *
+   * @param explored true if the action was chosen randomly, false if it was
+   * chosen greedily
+   */
+  public void recordStep(boolean explored) {
+    steps.increment();
+    if (explored) {
+      explorationSteps.increment();
+    }
+  }
+
+  /**
+   * Records a completed episode
+   *
+   * @param length the number of steps of the episode
+   * @param qDelta the sum of the absolute changes of the Q values in the episode
+   */
+  public void recordEpisode(int length, double qDelta) {
+    episodeLengths.record(length);
+    episodeQDeltas.add(qDelta);
+    lastEpisodeQDelta = qDelta;
+  }
+
+  /**
+   * Records the time spent learning by a thread, which is used for computing the
+   * steps per second
+   *
+   * @param nanos the time in nanoseconds
+   */
+  public void recordTrainingTime(long nanos) {
+    trainingNanos.add(nanos);
+  }
+
+  /**
+   * Records how long the learner took to become available
+   *
+   * @param nanos the time in nanoseconds
+   */
+  public void recordStartupTime(long nanos) {
+    startupNanos = nanos;
+  }
+
+  /**
+   * Records a Q matrix that was requested and found in memory
+   */
+  public void recordQTableHit() {
+    qTableHits.increment();
+  }
+
+  /**
+   * Records a Q matrix that was requested and not found in memory, i.e. that was
+   * loaded from a file or has not been learnt yet
+   */
+  public void recordQTableMiss() {
+    qTableMisses.increment();
+  }
+
+  @Override
+  public long getSteps() {
+    return steps.sum();
+  }
+
+  @Override
+  public long getEpisodes() {
+    return episodeLengths.getCount();
+  }
+
+  /**
+   * Returns the steps per second of learning time. When several threads learn
+   * at the same time, this is the mean rate of a thread.
+   */
+  @Override
+  public double getStepsPerSecond() {
+    long nanos = trainingNanos.sum();
+    return nanos == 0 ? 0 : steps.sum() * 1e9 / nanos;
+  }
+
+  @Override
+  public double getMeanEpisodeLength() {
+    return episodeLengths.getMean();
+  }
+
+  @Override
+  public long getP50EpisodeLength() {
+    return episodeLengths.getPercentile(50);
+  }
+
+  @Override
+  public long getP99EpisodeLength() {
+    return episodeLengths.getPercentile(99);
+  }
+
+  @Override
+  public long getMaxEpisodeLength() {
+    return episodeLengths.getMax();
+  }
+
+  @Override
+  public double getLastEpisodeQDelta() {
+    return lastEpisodeQDelta;
+  }
+
+  @Override
+  public double getMeanEpisodeQDelta() {
+    long episodes = episodeLengths.getCount();
+    return episodes == 0 ? 0 : episodeQDeltas.sum() / episodes;
+  }
+
+  @Override
+  public double getExplorationRatio() {
+    long n = steps.sum();
+    return n == 0 ? 0 : (double) explorationSteps.sum() / n;
+  }
+
+  @Override
+  public long getQTableCacheHits() {
+    return qTableHits.sum();
+  }
+
+  @Override
+  public long getQTableCacheMisses() {
+    return qTableMisses.sum();
+  }
+
+  @Override
+  public double getQTableCacheHitRate() {
+    long hits = qTableHits.sum();
+    long requests = hits + qTableMisses.sum();
+    return requests == 0 ? 0 : (double) hits / requests;
+  }
+
+  @Override
+  public double getStartupMillis() {
+    return startupNanos / 1e6;
+  }
+
+  @Override
+  public void reset() {
+    steps.reset();
+    explorationSteps.reset();
+    trainingNanos.reset();
+    episodeLengths.reset();
+    episodeQDeltas.reset();
+    lastEpisodeQDelta = 0;
+    qTableHits.reset();
+    qTableMisses.reset();
+  }
+}
@@ -0,0 +1,37 @@
+package metrics;
+
+/**
+ * The JMX view of {@link LearningMetrics}
+ */
+public interface LearningMetricsMXBean {
+
+  long getSteps();
+
+  long getEpisodes();
+
+  double getStepsPerSecond();
+
+  double getMeanEpisodeLength();
+
+  long getP50EpisodeLength();
+
+  long getP99EpisodeLength();
+
+  long getMaxEpisodeLength();
+
+  double getLastEpisodeQDelta();
+
+  double getMeanEpisodeQDelta();
+
+  double getExplorationRatio();
+
+  long getQTableCacheHits();
+
+  long getQTableCacheMisses();
+
+  double getQTableCacheHitRate();
+
+  double getStartupMillis();
+
+  void reset();
+}
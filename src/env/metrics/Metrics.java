@@ -0,0 +1,68 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers metrics as MBeans of the platform MBean server, so that they can be
+ * inspected with JMX clients such as JConsole or VisualVM.
+ */
+public final class Metrics {
+
+  /**
+   * The JMX domain of the metrics
+   */
+  public static final String DOMAIN = "metrics";
+
+  private static final Logger LOGGER = Logger.getLogger(Metrics.class.getName());
+
+  private Metrics() {
+  }
+
+  /**
+   * Registers an MBean with the name "metrics:type=&lt;type&gt;,name=&lt;name&gt;".
+   * An MBean that is registered with the same name is replaced. Failures are
+   * logged, since metrics are not essential.
+   *
+   * @param bean the MBean
+   * @param type the type of the metrics
+   * @param name the name of the instance
+   * @return the registered name, or null if the MBean could not be registered
+   */
+  public static ObjectName register(Object bean, String type, String name) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name="
+        + ObjectName.quote(name));
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+      server.registerMBean(bean, objectName);
+      return objectName;
+    } catch (JMException e) {
+      LOGGER.warning("Unable to register the " + type + " metrics: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Unregisters an MBean
+   *
+   * @param objectName the registered name, or null
+   */
+  public static void unregister(ObjectName objectName) {
+    if (objectName == null) {
+      return;
+    }
+
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (JMException e) {
+      LOGGER.warning("Unable to unregister " + objectName + ": " + e.getMessage());
+    }
+  }
+}
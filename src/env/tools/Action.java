@@ -1,6 +1,7 @@
 package tools;
 
 import java.util.Arrays;
+import ch.unisg.ics.interactions.wot.td.affordances.Form;
 import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
 
 public class Action {
@@ -9,16 +10,27 @@ public class Action {
   private final Object[] payloadTags;
   private final Object[] payload;
   private final TDHttpRequest request;
+  private final Form form;
 
   private int applicableOnStateAxis;
   private int applicableOnStateValue;
 
   public Action(String actionTag, Object[] payloadTags,
     Object[] payload, TDHttpRequest request) {
+      this(actionTag, payloadTags, payload, request, null);
+    }
+
+  /**
+   * An action whose request is issued with the form of its action affordance
+   * (see {@link wot.TDHttpClient})
+   */
+  public Action(String actionTag, Object[] payloadTags,
+    Object[] payload, TDHttpRequest request, Form form) {
       this.actionTag = actionTag;
       this.payloadTags = payloadTags;
       this.payload = payload;
       this.request = request;
+      this.form = form;
     }
 
   @Override
@@ -44,6 +56,10 @@ public class Action {
     return this.request;
   }
 
+  public Form getForm() {
+    return this.form;
+  }
+
   public int getApplicableOnStateAxis() {
     return this.applicableOnStateAxis;
   }
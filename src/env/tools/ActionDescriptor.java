@@ -0,0 +1,86 @@
+package tools;
+
+import java.util.*;
+
+/**
+ * An immutable description of an action of a learning environment, as returned
+ * to agents so that they can invoke the action with a ThingArtifact: the
+ * semantic annotation of the action, e.g. "http://example.org/was#SetZ1Light",
+ * the annotations of its payload, e.g. [Z1Light], and its payload, e.g. [true].
+ * <p>
+ * The descriptors of an environment are built once from its action space, so
+ * that describing an action does not allocate. The returned arrays are shared
+ * and must not be modified.
+ * </p>
+ */
+public final class ActionDescriptor {
+
+  private final String actionTag;
+  private final Object[] payloadTags;
+  private final Object[] payload;
+
+  private ActionDescriptor(String actionTag, Object[] payloadTags, Object[] payload) {
+    this.actionTag = actionTag;
+    this.payloadTags = payloadTags.clone();
+    this.payload = payload.clone();
+  }
+
+  /**
+   * Creates the descriptor of an action
+   *
+   * @param action the action
+   * @return the descriptor
+   */
+  public static ActionDescriptor of(Action action) {
+    return new ActionDescriptor(action.getActionTag(), action.getPayloadTags(), action.getPayload());
+  }
+
+  /**
+   * Creates the descriptors of all the actions of an environment, indexed by
+   * the keys of the actions
+   *
+   * @param environment the environment
+   * @return the descriptors
+   */
+  public static ActionDescriptor[] describe(LearningEnvironment environment) {
+    ActionDescriptor[] descriptors = new ActionDescriptor[environment.getActionCount()];
+    for (int action = 0; action < descriptors.length; action++) {
+      descriptors[action] = of(environment.getAction(action));
+    }
+    return descriptors;
+  }
+
+  /**
+   * Returns the semantic annotation of the action
+   *
+   * @return the action tag
+   */
+  public String getActionTag() {
+    return actionTag;
+  }
+
+  /**
+   * Returns the semantic annotations of the payload of the action
+   *
+   * @return the shared payload tags
+   */
+  public Object[] getPayloadTags() {
+    return payloadTags;
+  }
+
+  /**
+   * Returns the payload of the action
+   *
+   * @return the shared payload
+   */
+  public Object[] getPayload() {
+    return payload;
+  }
+
+  @Override
+  public String toString() {
+    return "Action Tag: " + actionTag
+      + ", Payload Tags: " + Arrays.toString(payloadTags)
+      + ", Payload: " + Arrays.toString(payload);
+  }
+}
@@ -0,0 +1,126 @@
+package tools;
+
+import java.util.*;
+
+/**
+ * The greedy policy of a goal, compiled from its Q matrix: the action with the
+ * highest Q value among the applicable actions of each state, so that selecting
+ * an action is a single array read.
+ * <p>
+ * Ties are broken deterministically in favour of the action with the lowest
+ * key. A compiled policy is a snapshot, and must be compiled again when the Q
+ * matrix changes.
+ * </p>
+ * <p>
+ * For large state spaces, only the actions of the states whose rows are
+ * stored are compiled (see {@link #compileVisited}), in an open-addressing
+ * hash map, and the actions of the other states are computed from the store.
+ * </p>
+ */
+public final class CompiledPolicy {
+
+  private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L; // Fibonacci hashing
+
+  /**
+   * The action of each state, or, for a policy of the visited states, the
+   * actions of the states in {@link #states}
+   */
+  private final int[] actions;
+
+  /**
+   * The states of the hash map of a policy of the visited states (-1 for an
+   * empty slot), or null for a dense policy
+   */
+  private final int[] states;
+  private final int shift;
+
+  private final QTableStore store;
+  private final int goal;
+  private final LearningEnvironment environment;
+
+  private CompiledPolicy(int[] actions, int[] states, int shift, QTableStore store, int goal,
+      LearningEnvironment environment) {
+    this.actions = actions;
+    this.states = states;
+    this.shift = shift;
+    this.store = store;
+    this.goal = goal;
+    this.environment = environment;
+  }
+
+  /**
+   * Compiles the greedy policy of a goal for every state
+   *
+   * @param store the store of the Q matrix, which must exist for the goal
+   * @param goal the goal
+   * @param environment the environment that provides the applicable actions
+   * @return the policy
+   */
+  public static CompiledPolicy compile(QTableStore store, int goal, LearningEnvironment environment) {
+    int[] actions = new int[environment.getStateCount()];
+    for (int state = 0; state < actions.length; state++) {
+      actions[state] = store.rowArgmax(goal, state, environment.getApplicableActionArray(state));
+    }
+    return new CompiledPolicy(actions, null, 0, store, goal, environment);
+  }
+
+  /**
+   * Compiles the greedy policy of a goal for the states whose rows are stored
+   * (see {@link QTableStore#rows(int)}). The action of any other state is the
+   * greedy action of its row in the store, which must not change while the
+   * policy is used.
+   *
+   * @param store the store of the Q matrix, which must exist for the goal
+   * @param goal the goal
+   * @param environment the environment that provides the applicable actions
+   * @return the policy
+   */
+  public static CompiledPolicy compileVisited(QTableStore store, int goal,
+      LearningEnvironment environment) {
+    List<Integer> visited = new ArrayList<>();
+    QTableStore.RowCursor rows = store.rows(goal);
+    while (rows.next()) {
+      visited.add(rows.getState());
+    }
+
+    int capacity = Integer.highestOneBit(Math.max(2, visited.size() * 2 - 1)) << 1;
+    int shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    int[] states = new int[capacity];
+    int[] actions = new int[capacity];
+    Arrays.fill(states, -1);
+
+    for (int state : visited) {
+      int slot = slotOf(state, shift);
+      while (states[slot] >= 0) {
+        slot = (slot + 1) & (capacity - 1);
+      }
+      states[slot] = state;
+      actions[slot] = store.rowArgmax(goal, state, environment.getApplicableActionArray(state));
+    }
+    return new CompiledPolicy(actions, states, shift, store, goal, environment);
+  }
+
+  /**
+   * Returns the action of the policy in a state
+   *
+   * @param state the state
+   * @return the key of the action, or -1 if no action is applicable
+   */
+  public int actionFor(int state) {
+    if (states == null) {
+      return actions[state];
+    }
+
+    int mask = states.length - 1;
+    for (int slot = slotOf(state, shift); states[slot] >= 0; slot = (slot + 1) & mask) {
+      if (states[slot] == state) {
+        return actions[slot];
+      }
+    }
+    return store.rowArgmax(goal, state, environment.getApplicableActionArray(state));
+  }
+
+  private static int slotOf(int state, int shift) {
+    return (int) ((state * HASH_MULTIPLIER) >>> shift);
+  }
+}
@@ -0,0 +1,81 @@
+package tools;
+
+import java.util.*;
+
+/**
+ * Maps the values of a numeric property, e.g. an illuminance in lux, to the
+ * levels of an axis of the state, given the thresholds between the levels.
+ * <p>
+ * E.g., with the thresholds [50,200,400], the values below 50 have the level 0,
+ * the values in [50,200) have the level 1, the values in [200,400) have the
+ * level 2, and the values of at least 400 (or NaN) have the level 3.
+ * </p>
+ */
+public final class Discretizer {
+
+  private final double[] thresholds;
+
+  /**
+   * Creates a discretizer with the given thresholds between the levels
+   *
+   * @param thresholds the thresholds, in increasing order
+   */
+  public Discretizer(double... thresholds) {
+    for (int i = 1; i < thresholds.length; i++) {
+      if (!(thresholds[i - 1] < thresholds[i])) {
+        throw new IllegalArgumentException("The thresholds must be increasing: "
+          + Arrays.toString(thresholds));
+      }
+    }
+    this.thresholds = thresholds.clone();
+  }
+
+  /**
+   * Creates a discretizer from a comma-separated list of thresholds, e.g.
+   * "50,200,400"
+   *
+   * @param thresholds the thresholds, in increasing order
+   * @return the discretizer
+   */
+  public static Discretizer parse(String thresholds) {
+    String[] values = thresholds.split(",");
+    double[] parsed = new double[values.length];
+    for (int i = 0; i < values.length; i++) {
+      try {
+        parsed[i] = Double.parseDouble(values[i].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Illegal threshold: " + values[i]);
+      }
+    }
+    return new Discretizer(parsed);
+  }
+
+  /**
+   * Returns the number of levels, i.e. the radix of the axis
+   *
+   * @return the number of levels
+   */
+  public int getLevelCount() {
+    return thresholds.length + 1;
+  }
+
+  /**
+   * Returns the level of a value
+   *
+   * @param value the value
+   * @return the level, in the range [0, levelCount)
+   */
+  public int discretize(double value) {
+    for (int level = 0; level < thresholds.length; level++) {
+      if (value < thresholds[level]) {
+        return level;
+      }
+    }
+    return thresholds.length;
+  }
+
+  @Override
+  public String toString() {
+    return "Discretizer" + Arrays.toString(thresholds);
+  }
+}
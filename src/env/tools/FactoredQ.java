@@ -0,0 +1,272 @@
+package tools;
+
+/**
+ * The Q function of a {@link ZonedEnvironment}, factored into one Q component
+ * per zone, so that the memory and the samples that are needed grow linearly
+ * with the number of zones instead of exponentially.
+ * <p>
+ * The component of a zone is a Q matrix over the local states of the zone,
+ * formed by the level and the devices of the zone, the shared axes, and a
+ * summary of the neighbouring zones: for each device of a zone, whether the
+ * device is set in any neighbouring zone. The columns of the matrix are the
+ * actions of the zone, and one column for all the actions of the other zones.
+ * The zone has one such matrix per target level, so that a component is
+ * learnt once for all the goals that have the same level for the zone.
+ * </p>
+ * <p>
+ * The Q value of a state and an action is the sum of the Q values of the
+ * components. Each component is learnt with its own reward: a share of the
+ * reward when the goal is reached, which ends an episode, and a cost of 1 for
+ * every step that ends with its zone away from its target level, so that a
+ * zone is not rewarded for staying at its target while the other zones are
+ * not. The components are learnt towards their Q values of the joint greedy
+ * action in the next state, so that the zones are coordinated.
+ * </p>
+ */
+public final class FactoredQ {
+
+  private final LearningEnvironment environment;
+  private final int zoneCount;
+
+  private final int[] levelAxes;
+  private final int[][] deviceAxes;
+  private final int[][] neighbours;
+  private final int[] sharedAxes;
+
+  /**
+   * The target level of each zone, indexed by goal and zone
+   */
+  private final int[][] targets;
+
+  private final StateCodec[] localCodecs;
+  private final int[][] localActions;
+  private final QTableStore[] components;
+
+  /**
+   * Creates the components of an environment, where all the Q values are 0
+   *
+   * @param environment the environment, which must be a {@link ZonedEnvironment}
+   * @param goals the goals of the environment
+   * @throws IllegalArgumentException if the environment is not divided into
+   * zones, or if the level of a zone is not a goal axis
+   */
+  public FactoredQ(LearningEnvironment environment, GoalSpace goals) {
+    if (!(environment instanceof ZonedEnvironment)
+        || ((ZonedEnvironment) environment).getZoneCount() == 0) {
+      throw new IllegalArgumentException("The environment is not divided into zones");
+    }
+
+    ZonedEnvironment zones = (ZonedEnvironment) environment;
+    StateCodec codec = environment.getStateCodec();
+    int[] goalAxes = environment.getGoalAxes();
+
+    this.environment = environment;
+    this.zoneCount = zones.getZoneCount();
+    this.levelAxes = new int[zoneCount];
+    this.deviceAxes = new int[zoneCount][];
+    this.neighbours = new int[zoneCount][];
+    this.sharedAxes = zones.getSharedAxes();
+    this.targets = new int[goals.size()][zoneCount];
+
+    int deviceCount = 0;
+    for (int zone = 0; zone < zoneCount; zone++) {
+      levelAxes[zone] = zones.getLevelAxis(zone);
+      deviceAxes[zone] = zones.getDeviceAxes(zone);
+      neighbours[zone] = zones.getNeighbours(zone);
+      deviceCount = Math.max(deviceCount, deviceAxes[zone].length);
+
+      int position = -1;
+      for (int i = 0; i < goalAxes.length; i++) {
+        if (goalAxes[i] == levelAxes[zone]) {
+          position = i;
+        }
+      }
+      if (position < 0) {
+        throw new IllegalArgumentException("The level of zone " + zone + " is not a goal axis");
+      }
+      for (int goal = 0; goal < goals.size(); goal++) {
+        targets[goal][zone] = goals.describe(goal).get(position);
+      }
+    }
+
+    this.localCodecs = new StateCodec[zoneCount];
+    this.localActions = new int[zoneCount][environment.getActionCount()];
+    this.components = new QTableStore[zoneCount];
+
+    for (int zone = 0; zone < zoneCount; zone++) {
+      // the level, the devices, the shared axes, and the devices of the neighbours
+      int[] radices = new int[1 + deviceAxes[zone].length + sharedAxes.length + deviceCount];
+      int i = 0;
+      radices[i++] = codec.getRadix(levelAxes[zone]);
+      for (int axis : deviceAxes[zone]) {
+        radices[i++] = codec.getRadix(axis);
+      }
+      for (int axis : sharedAxes) {
+        radices[i++] = codec.getRadix(axis);
+      }
+      while (i < radices.length) {
+        radices[i++] = 2;
+      }
+      localCodecs[zone] = new StateCodec(radices);
+
+      // the actions of the zone, and the actions of the other zones as the last one
+      int localActionCount = 0;
+      for (int action = 0; action < environment.getActionCount(); action++) {
+        if (contains(deviceAxes[zone], environment.getAction(action).getApplicableOnStateAxis())) {
+          localActions[zone][action] = localActionCount++;
+        }
+      }
+      for (int action = 0; action < environment.getActionCount(); action++) {
+        if (!contains(deviceAxes[zone], environment.getAction(action).getApplicableOnStateAxis())) {
+          localActions[zone][action] = localActionCount;
+        }
+      }
+
+      int levels = codec.getRadix(levelAxes[zone]);
+      components[zone] = new FlatQTableStore(levels, localCodecs[zone].size(), localActionCount + 1);
+      for (int level = 0; level < levels; level++) {
+        components[zone].create(level);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of Q values of all the components
+   *
+   * @return the number of Q values
+   */
+  public long getSize() {
+    long size = 0;
+    for (QTableStore component : components) {
+      size += (long) component.getGoalCount() * component.getStateCount() * component.getActionCount();
+    }
+    return size;
+  }
+
+  /**
+   * Returns the Q value of a state and an action for a goal, i.e. the sum of
+   * the Q values of the components
+   *
+   * @param goal the goal
+   * @param state the state
+   * @param action the action
+   * @return the Q value
+   */
+  public double get(int goal, int state, int action) {
+    double value = 0;
+    for (int zone = 0; zone < zoneCount; zone++) {
+      value += components[zone].get(targets[goal][zone], localState(zone, state),
+        localActions[zone][action]);
+    }
+    return value;
+  }
+
+  /**
+   * Returns the action with the maximum Q value of a state over the given
+   * actions. Ties are broken in favor of the action that comes first.
+   *
+   * @param goal the goal
+   * @param state the state
+   * @param actions the actions to consider
+   * @return the action, or -1 if no action is given
+   */
+  public int argmax(int goal, int state, int[] actions) {
+    if (actions.length == 0) {
+      return -1;
+    }
+
+    int argmax = actions[0];
+    double max = Double.NEGATIVE_INFINITY;
+    for (int action : actions) {
+      double value = get(goal, state, action);
+      if (value > max) {
+        max = value;
+        argmax = action;
+      }
+    }
+    return argmax;
+  }
+
+  /**
+   * Updates the components with an observed transition. The component of each
+   * zone is moved towards its reward plus gamma times its Q value of the joint
+   * greedy action in the next state, unless the next state is the goal.
+   *
+   * @param goal the goal
+   * @param state the state in which the action was performed
+   * @param action the action
+   * @param nextState the observed next state
+   * @param reward the reward assigned when reaching the goal state, which is
+   * shared by the zones
+   * @param alpha the learning rate
+   * @param gamma the discount factor
+   * @return the absolute change of the Q value of the state and the action
+   */
+  public double update(int goal, int state, int action, int nextState, double reward, double alpha,
+      double gamma) {
+    StateCodec codec = environment.getStateCodec();
+    boolean reached = true;
+    for (int zone = 0; zone < zoneCount; zone++) {
+      reached &= codec.valueAt(nextState, levelAxes[zone]) == targets[goal][zone];
+    }
+    int nextAction = reached ? -1
+      : argmax(goal, nextState, environment.getApplicableActionArray(nextState));
+
+    double delta = 0;
+    for (int zone = 0; zone < zoneCount; zone++) {
+      int target = targets[goal][zone];
+      int localState = localState(zone, state);
+      int localAction = localActions[zone][action];
+
+      double zoneReward;
+      if (reached) {
+        zoneReward = reward / zoneCount;
+      } else if (codec.valueAt(nextState, levelAxes[zone]) != target) {
+        zoneReward = -1;
+      } else {
+        zoneReward = 0;
+      }
+      double next = nextAction < 0 ? 0
+        : components[zone].get(target, localState(zone, nextState), localActions[zone][nextAction]);
+
+      double current = components[zone].get(target, localState, localAction);
+      delta += components[zone].update(target, localState, localAction, zoneReward + gamma * next, alpha)
+        - current;
+    }
+    return Math.abs(delta);
+  }
+
+  /**
+   * Returns the local state of a zone in a state of the environment
+   */
+  private int localState(int zone, int state) {
+    StateCodec codec = environment.getStateCodec();
+    StateCodec local = localCodecs[zone];
+    int i = 0;
+    int localState = local.withValue(0, i++, codec.valueAt(state, levelAxes[zone]));
+    for (int axis : deviceAxes[zone]) {
+      localState = local.withValue(localState, i++, codec.valueAt(state, axis));
+    }
+    for (int axis : sharedAxes) {
+      localState = local.withValue(localState, i++, codec.valueAt(state, axis));
+    }
+    for (int device = 0; i < local.getAxisCount(); device++, i++) {
+      for (int neighbour : neighbours[zone]) {
+        if (device < deviceAxes[neighbour].length && codec.valueAt(state, deviceAxes[neighbour][device]) != 0) {
+          localState = local.withValue(localState, i, 1);
+          break;
+        }
+      }
+    }
+    return localState;
+  }
+
+  private static boolean contains(int[] values, int value) {
+    for (int v : values) {
+      if (v == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
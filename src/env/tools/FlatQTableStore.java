@@ -0,0 +1,227 @@
+package tools;
+
+import java.util.*;
+
+/**
+ * A {@link QTableStore} that keeps the Q matrices of all the goals in a single
+ * contiguous array of primitive values.
+ * <p>
+ * The array is goal-major: the Q matrix of a goal occupies stateCount *
+ * actionCount consecutive values in row-major order, so the values of a state
+ * are adjacent in memory, and copying a Q matrix is a single array copy.
+ * </p>
+ */
+public class FlatQTableStore implements QTableStore {
+
+  private final int firstGoal;
+  private final int goalCount;
+  private final int stateCount;
+  private final int actionCount;
+  private final int tableSize;
+
+  private final double[] values;
+  private final boolean[] created;
+
+  /**
+   * Creates a store for the Q matrices of the given number of goals
+   *
+   * @param goalCount the number of goals
+   * @param stateCount the number of states of the learning environment
+   * @param actionCount the number of actions of the learning environment
+   */
+  public FlatQTableStore(int goalCount, int stateCount, int actionCount) {
+    this(0, goalCount, stateCount, actionCount);
+  }
+
+  /**
+   * Creates a store for the Q matrices of a range of goals, e.g. of a single
+   * goal that is learnt by a worker thread. Only the goals in the range can be
+   * addressed.
+   *
+   * @param firstGoal the first goal of the range
+   * @param goalCount the number of goals of the range
+   * @param stateCount the number of states of the learning environment
+   * @param actionCount the number of actions of the learning environment
+   */
+  public FlatQTableStore(int firstGoal, int goalCount, int stateCount, int actionCount) {
+    long size = (long) goalCount * stateCount * actionCount;
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The Q matrices are too large for a flat store: "
+        + goalCount + "x" + stateCount + "x" + actionCount);
+    }
+
+    this.firstGoal = firstGoal;
+    this.goalCount = goalCount;
+    this.stateCount = stateCount;
+    this.actionCount = actionCount;
+    this.tableSize = stateCount * actionCount;
+    this.values = new double[(int) size];
+    this.created = new boolean[goalCount];
+  }
+
+  @Override
+  public int getGoalCount() {
+    return goalCount;
+  }
+
+  @Override
+  public int getStateCount() {
+    return stateCount;
+  }
+
+  @Override
+  public int getActionCount() {
+    return actionCount;
+  }
+
+  @Override
+  public boolean contains(int goal) {
+    return created[goal - firstGoal];
+  }
+
+  @Override
+  public void create(int goal) {
+    int table = (goal - firstGoal) * tableSize;
+    Arrays.fill(values, table, table + tableSize, 0.0);
+    created[goal - firstGoal] = true;
+  }
+
+  @Override
+  public void remove(int goal) {
+    created[goal - firstGoal] = false;
+  }
+
+  @Override
+  public double get(int goal, int state, int action) {
+    return values[offset(goal, state) + action];
+  }
+
+  @Override
+  public void set(int goal, int state, int action, double value) {
+    values[offset(goal, state) + action] = value;
+  }
+
+  @Override
+  public double update(int goal, int state, int action, double target, double alpha) {
+    int i = offset(goal, state) + action;
+    values[i] += alpha * (target - values[i]);
+    return values[i];
+  }
+
+  @Override
+  public double rowMax(int goal, int state, int[] actions) {
+    if (actions.length == 0) {
+      return 0.0;
+    }
+
+    int row = offset(goal, state);
+    double max = values[row + actions[0]];
+    for (int i = 1; i < actions.length; i++) {
+      double value = values[row + actions[i]];
+      if (value > max) {
+        max = value;
+      }
+    }
+    return max;
+  }
+
+  @Override
+  public int rowArgmax(int goal, int state, int[] actions) {
+    if (actions.length == 0) {
+      return -1;
+    }
+
+    int row = offset(goal, state);
+    int argmax = actions[0];
+    double max = values[row + argmax];
+    for (int i = 1; i < actions.length; i++) {
+      double value = values[row + actions[i]];
+      if (value > max) {
+        max = value;
+        argmax = actions[i];
+      }
+    }
+    return argmax;
+  }
+
+  /**
+   * Updates all the goals in a single pass over the array: for each goal, the
+   * row of the next state and the value of the state are at the same offsets
+   * within the Q matrix of the goal.
+   */
+  @Override
+  public void updateAllGoals(int state, int action, int nextState, int[] nextActions,
+      int rewardedGoal, double reward, double alpha, double gamma) {
+    int stateOffset = state * actionCount + action;
+    int nextRowOffset = nextState * actionCount;
+
+    for (int goal = 0, table = 0; goal < goalCount; goal++, table += tableSize) {
+      if (!created[goal]) {
+        continue;
+      }
+
+      int nextRow = table + nextRowOffset;
+      double max = 0.0;
+      for (int i = 0; i < nextActions.length; i++) {
+        double value = values[nextRow + nextActions[i]];
+        if (value > max) {
+          max = value;
+        }
+      }
+
+      int i = table + stateOffset;
+      double target = (firstGoal + goal == rewardedGoal ? reward : 0.0) + gamma * max;
+      values[i] += alpha * (target - values[i]);
+    }
+  }
+
+  @Override
+  public void copyTable(int goal, double[] destination) {
+    System.arraycopy(values, (goal - firstGoal) * tableSize, destination, 0, tableSize);
+  }
+
+  @Override
+  public void loadTable(int goal, double[] source) {
+    System.arraycopy(source, 0, values, (goal - firstGoal) * tableSize, tableSize);
+    created[goal - firstGoal] = true;
+  }
+
+  /**
+   * Visits the rows that have a non-zero value, in the order of the states
+   */
+  @Override
+  public RowCursor rows(int goal) {
+    int table = (goal - firstGoal) * tableSize;
+    return new RowCursor() {
+      private int state = -1;
+      private int row;
+
+      @Override
+      public boolean next() {
+        while (++state < stateCount) {
+          row = table + state * actionCount;
+          for (int action = 0; action < actionCount; action++) {
+            if (values[row + action] != 0.0) {
+              return true;
+            }
+          }
+        }
+        return false;
+      }
+
+      @Override
+      public int getState() {
+        return state;
+      }
+
+      @Override
+      public double get(int action) {
+        return values[row + action];
+      }
+    };
+  }
+
+  private int offset(int goal, int state) {
+    return (goal - firstGoal) * tableSize + state * actionCount;
+  }
+}
@@ -0,0 +1,94 @@
+package tools;
+
+import java.util.*;
+
+/**
+ * The space of the goals that can be learnt in a learning environment.
+ * <p>
+ * A goal describes the desired values of some axes of the state, e.g. the goal
+ * [2,3] describes the desired light levels [z1Level, z2Level] of the lab. Each
+ * goal is addressed by a dense integer index in the range [0, G), where G is the
+ * number of goals, so that goals can index arrays without collisions.
+ * </p>
+ */
+public final class GoalSpace {
+
+  private final StateCodec stateCodec;
+  private final int[] goalAxes;
+  private final StateCodec goalCodec;
+
+  /**
+   * Creates the goal space of a learning environment
+   *
+   * @param stateCodec the codec of the states of the environment
+   * @param goalAxes the axes of the state that a goal describes
+   */
+  public GoalSpace(StateCodec stateCodec, int[] goalAxes) {
+    this.stateCodec = stateCodec;
+    this.goalAxes = goalAxes.clone();
+
+    int[] radices = new int[goalAxes.length];
+    for (int i = 0; i < goalAxes.length; i++) {
+      radices[i] = stateCodec.getRadix(goalAxes[i]);
+    }
+    this.goalCodec = new StateCodec(radices);
+  }
+
+  /**
+   * Returns the number of goals
+   *
+   * @return the number of goals
+   */
+  public int size() {
+    return goalCodec.size();
+  }
+
+  /**
+   * Returns the index of the goal with the given description, e.g. [2,3]
+   *
+   * @param goalDescription the values of the goal axes
+   * @return the index of the goal
+   * @throws IllegalArgumentException if the description is not a valid goal
+   */
+  public int indexOf(Object[] goalDescription) {
+    if (goalDescription.length != goalAxes.length) {
+      throw new IllegalArgumentException("A goal is described by " + goalAxes.length
+        + " values: " + Arrays.toString(goalDescription));
+    }
+
+    int[] values = new int[goalAxes.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = Integer.valueOf(goalDescription[i].toString());
+    }
+
+    int goal = goalCodec.encode(values);
+    if (goal < 0) {
+      throw new IllegalArgumentException("Unknown goal: " + Arrays.toString(goalDescription));
+    }
+    return goal;
+  }
+
+  /**
+   * Returns the goal that is reached in a given state
+   *
+   * @param state the index of the state
+   * @return the index of the goal
+   */
+  public int goalOf(int state) {
+    int goal = 0;
+    for (int i = 0; i < goalAxes.length; i++) {
+      goal = goal * goalCodec.getRadix(i) + stateCodec.valueAt(state, goalAxes[i]);
+    }
+    return goal;
+  }
+
+  /**
+   * Returns the values of the goal axes of a goal, e.g. [2,3]
+   *
+   * @param goal the index of the goal
+   * @return the values of the goal axes
+   */
+  public List<Integer> describe(int goal) {
+    return goalCodec.decode(goal);
+  }
+}
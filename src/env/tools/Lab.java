@@ -2,28 +2,30 @@ package tools;
 
 import java.io.IOException;
 
-import org.apache.xalan.lib.sql.ObjectArray;
-import org.gradle.internal.impldep.com.google.common.collect.ImmutableSet;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.*;
-import java.util.stream.IntStream;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
 
 import cartago.OPERATION;
 import cartago.OpFeedbackParam;
 import ch.unisg.ics.interactions.wot.td.ThingDescription;
-import ch.unisg.ics.interactions.wot.td.ThingDescription.TDFormat;
 import ch.unisg.ics.interactions.wot.td.affordances.ActionAffordance;
 import ch.unisg.ics.interactions.wot.td.affordances.Form;
 import ch.unisg.ics.interactions.wot.td.affordances.PropertyAffordance;
 import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
 import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
-import ch.unisg.ics.interactions.wot.td.io.TDGraphReader;
 import ch.unisg.ics.interactions.wot.td.schemas.DataSchema;
 import ch.unisg.ics.interactions.wot.td.schemas.BooleanSchema;
 import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
 import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
+import metrics.HttpMetrics;
+import wot.TDCache;
+import wot.TDHttpClient;
 
 /**
 * An class that extends {@link LearningEnvironment} for representing a learning
@@ -35,7 +37,7 @@ import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
 * Description of the lab environment.
 * </p>
 */
-public class Lab extends LearningEnvironment {
+public class Lab extends LearningEnvironment implements ZonedEnvironment {
 
   /**
   * The W3C Web of Things Thing Description used for interacting with the
@@ -44,8 +46,10 @@ public class Lab extends LearningEnvironment {
   private ThingDescription td;
 
   /**
-  * The current state of the lab (and of every state of the lab) is formed as a
-  * a list of 7 integer values: [z1Level, z2Level, z1Light, z2Light, z1Blinds, z2Blinds, sunshine]:
+  * The current state of the lab, as last observed, or -1 if it has not been
+  * observed. The state is packed as its position in the state space (see
+  * {@link LearningEnvironment#stateCodec}); every state of the lab is formed by
+  * 7 integer values: [z1Level, z2Level, z1Light, z2Light, z1Blinds, z2Blinds, sunshine]:
   * <ul>
   * <li> z1Level: the level of light in Zone 1
   * <li> z2Level: the level of light in Zone 2
@@ -55,8 +59,50 @@ public class Lab extends LearningEnvironment {
   * <li> z2Blinds: the status of the blinds in Zone 2
   * <li> sunshine: the level of sunshine out of the lab
   * </ul>
+  * The observation fields are volatile since an asynchronous read updates
+  * them on an I/O thread of the HTTP client (see {@link #readCurrentStateAsync()}).
   */
-  protected List<Integer> currentState = Arrays.asList(new Integer[7]);
+  protected volatile int currentState = -1;
+
+  /**
+  * The raw values of the last observation of the lab, before discretization:
+  * the illuminance of Zone 1 and Zone 2, the sunshine out of the lab (in lux),
+  * the energy cost and the hour of the environment clock. A value is NaN if it
+  * was not observed.
+  */
+  protected volatile double z1Lux = Double.NaN;
+  protected volatile double z2Lux = Double.NaN;
+  protected volatile double sunshineLux = Double.NaN;
+  protected volatile double energyCost = Double.NaN;
+  protected volatile double hour = Double.NaN;
+
+  /**
+  * When the hour was last observed to change, and the estimated time between
+  * two environment ticks, in nanoseconds
+  */
+  private volatile long lastTickNanos = 0;
+  private volatile long tickPeriodNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TICK_MILLIS);
+
+  /**
+  * True if the status was read after the first tick that followed the last
+  * action, so that the next read can use it
+  */
+  private boolean settled = false;
+
+  /**
+  * The log that the transitions of the lab are recorded to, if any
+  */
+  private TransitionLog.Writer transitionLog;
+
+  /**
+  * The state of the last observation, and the action performed since then
+  * (NO_ACTION if none, MANY_ACTIONS if several were performed)
+  */
+  private int lastObservedState = -1;
+  private int pendingAction = NO_ACTION;
+
+  private static final int NO_ACTION = -1;
+  private static final int MANY_ACTIONS = -2;
 
   /**
   * The state of the lab depends on the values of
@@ -112,8 +158,84 @@ public class Lab extends LearningEnvironment {
   */
   private static final HashMap<Integer,Integer> sunshine = new HashMap<>();
 
+  /**
+  * Encodes the states of the lab as the positions of the states in the state
+  * space, i.e. in the cartesian product of the substates
+  * z1Level x z2Level x z1Light x z2Light x z1Blinds x z2Blinds x sunshine
+  */
+  protected static final StateCodec LAB_STATE_CODEC = new StateCodec(4, 4, 2, 2, 2, 2, 4);
+
+  /**
+  * The values of the axes of the state, in the order of the axes
+  */
+  private static final List<Map<Integer, ?>> AXIS_VALUES = Arrays.<Map<Integer, ?>>asList(
+    z1Level, z2Level, z1Light, z2Light, z1Blinds, z2Blinds, sunshine);
+
+  /**
+  * The axes of the state that goal descriptions refer to: z1Level, z2Level
+  */
+  protected static final int[] LAB_GOAL_AXES = {0, 1};
+
+  /**
+  * The device axes of the zones of the lab: z1Light and z1Blinds for Zone 1,
+  * z2Light and z2Blinds for Zone 2
+  */
+  private static final int[][] LAB_DEVICE_AXES = {{2, 4}, {3, 5}};
+
+  /**
+  * The semantic types of the action affordances of the lab. The order of the
+  * types defines the order of the actions in the action space.
+  */
+  protected static final List<String> LAB_AFFORDANCE_TYPES = Arrays.asList(
+    "http://example.org/was#SetZ1Light",
+    "http://example.org/was#SetZ2Light",
+    "http://example.org/was#SetZ1Blinds",
+    "http://example.org/was#SetZ2Blinds"
+    );
+
+  /**
+  * The number of actions of the lab: each affordance can set its device
+  * either to false or to true
+  */
+  protected static final int LAB_ACTION_COUNT = 2 * LAB_AFFORDANCE_TYPES.size();
+
+  /**
+  * The discretizers of the illuminance of the zones and of the sunshine
+  */
+  protected static final Discretizer LIGHT_LEVELS = new Discretizer(50, 200, 400);
+  protected static final Discretizer SUNSHINE_LEVELS = new Discretizer(50, 200, 700);
+
+  /**
+  * The semantic type of the property affordance for reading the status of the lab
+  */
+  private static final String STATUS_TYPE = "https://example.org/was#Status";
+
+  /**
+  * The hours that pass on the environment clock with each tick
+  */
+  protected static final double HOURS_PER_TICK = 0.1;
+
+  /**
+  * The time between two ticks of the environment that is assumed until it is
+  * observed: the lab recomputes its light levels every second
+  */
+  private static final long DEFAULT_TICK_MILLIS = 1000;
+
+  /**
+  * The shortest interval between two reads of the status while waiting for a
+  * tick
+  */
+  private static final long MIN_POLL_MILLIS = 5;
+
+  /**
+  * How long {@link #awaitSettled(long)} waits for a tick before giving up
+  */
+  private static final long TICK_TIMEOUT_MILLIS = 5 * DEFAULT_TICK_MILLIS;
+
   private static final Logger LOGGER = Logger.getLogger(Lab.class.getName());
 
+  private static final HttpMetrics HTTP_METRICS = HttpMetrics.getInstance();
+
   static {
 
     // possible substates for z1Level, z2Level, sunshine
@@ -151,15 +273,15 @@ public class Lab extends LearningEnvironment {
 
       try {
 
-        // Read the Thing Description from the URL
-        this.td = TDGraphReader.readFromURL(TDFormat.RDF_TURTLE, url);
+        // Read the Thing Description from the URL, or from the cache
+        this.td = TDCache.getInstance().get(url);
 
         // Create the state space
         createStateSpace();
         LOGGER.info("The lab has a state space of n="+ stateSpace.size());
 
         // Print the states of the state space
-        LOGGER.info(String.valueOf(stateSpace));
+        LOGGER.fine(() -> String.valueOf(stateSpace));
 
         // Create the action space
         createActionSpace();
@@ -172,90 +294,293 @@ public class Lab extends LearningEnvironment {
 
         // Read the current state
         readCurrentState();
-        LOGGER.info("The lab current state: " + this.currentState);
+        LOGGER.info("The lab current state: "
+          + (this.currentState < 0 ? "unknown" : stateCodec.decode(this.currentState)));
 
       } catch (IOException e) {
         LOGGER.severe(e.getMessage());
       }
     }
 
+    /**
+    * A {@link Lab} instance that is constructed based on the parsed W3C Web of
+    * Things Thing Description of a lab, without reading its current state
+    *
+    * @param td The W3C Web of Things Thing Description of the lab
+    */
+    Lab(ThingDescription td) {
+      this.td = td;
+      createStateSpace();
+      createActionSpace();
+    }
+
+    /**
+    * A {@link Lab} instance that is not backed by a W3C Web of Things Thing
+    * Description. Only the state space is created; subclasses are responsible for
+    * creating the action space and the current state.
+    */
+    protected Lab() {
+      createStateSpace();
+    }
+
     /**
     * @see {@link LearningEnvironment#getCompatibleStates(List)}
     */
     @Override
     public List<Integer> getCompatibleStates(List<Object> stateDescription) {
+      return Collections.unmodifiableList(Ints.asList(getCompatibleStateArray(stateDescription)));
+    }
 
-      List<Integer> compatibleStates = new ArrayList<>();
-      List<List<Integer>> stateList = new ArrayList<>(stateSpace);
+    /**
+    * @see {@link LearningEnvironment#getCompatibleStateArray(List)}
+    */
+    @Override
+    public int[] getCompatibleStateArray(List<Object> stateDescription) {
+      return getIndexedCompatibleStates(stateDescription);
+    }
 
-      for (int i=0; i<stateList.size(); i++) {
-        List<Integer> state = stateList.get(i);
+    /**
+    * @see {@link LearningEnvironment#readCurrentState()}
+    */
+    @Override
+    public int readCurrentState() {
+      if (settled) {
+        settled = false;
+      } else {
+        readStatus();
+      }
+      return recordState(this.currentState);
+    }
 
-        List<Object> substates = new ArrayList<>();
+    /**
+    * Reads the status of the lab with the asynchronous HTTP client. The state is
+    * updated on an I/O thread of the client when the response arrives, under
+    * the same lock as the transitions are recorded with, and the future
+    * completes afterwards with the state. A response that cannot be parsed is
+    * logged, and the future completes with the state as last observed.
+    *
+    * @see {@link LearningEnvironment#readCurrentStateAsync()}
+    */
+    @Override
+    public CompletableFuture<Integer> readCurrentStateAsync() {
+      if (settled) {
+        settled = false;
+        return CompletableFuture.completedFuture(recordState(this.currentState));
+      }
 
-        substates.add(Lab.z1Level.get(state.get(0)));
-        substates.add(Lab.z2Level.get(state.get(1)));
-        substates.add(Lab.z1Light.get(state.get(2)));
-        substates.add(Lab.z2Light.get(state.get(3)));
-        substates.add(Lab.z1Blinds.get(state.get(4)));
-        substates.add(Lab.z2Blinds.get(state.get(5)));
-        substates.add(Lab.sunshine.get(state.get(6)));
+      Optional<PropertyAffordance> p = this.td.getFirstPropertyBySemanticType(STATUS_TYPE);
+      Optional<Form> f = p.isPresent() ? p.get().getFirstFormForOperationType(TD.readProperty)
+        : Optional.empty();
 
-        if (Collections.indexOfSubList(substates, stateDescription) != -1){
-          compatibleStates.add(i);
-          System.out.println(state);
-        };
+      if (!f.isPresent()) {
+        return CompletableFuture.completedFuture(recordState(this.currentState));
       }
-      return compatibleStates;
+
+      TDHttpRequest request = new TDHttpRequest(f.get(), TD.readProperty);
+      long start = System.nanoTime();
+
+      return TDHttpClient.getInstance().executeAsync(f.get(), TD.readProperty, request)
+        .handle((response, error) -> {
+          if (error != null) {
+            HTTP_METRICS.recordFailure(STATUS_TYPE);
+            LOGGER.severe(error.getMessage());
+            return recordState(this.currentState);
+          }
+
+          HTTP_METRICS.recordRequest(STATUS_TYPE, System.nanoTime() - start);
+          try {
+            return recordState(updateCurrentState(
+              response.getPayloadAsObject((ObjectSchema) p.get().getDataSchema())));
+          } catch (RuntimeException e) {
+            LOGGER.severe("Unable to parse the status of the lab: " + e);
+            return recordState(this.currentState);
+          }
+        });
     }
 
     /**
-    * @see {@link LearningEnvironment#readCurrentState()}
+    * Waits for the next tick of the environment, i.e. until the status of the
+    * lab shows that the hour of its clock has advanced. The status is read
+    * right before the next tick is expected, and then with an interval that
+    * doubles up to a quarter of the time between ticks.
+    * <p>
+    * Once the tick is observed, the current state of the lab is up to date, and
+    * the next call of {@link #readCurrentState()} returns it without reading the
+    * status again.
+    * </p>
+    *
+    * @param timeoutMillis how long to wait at most
+    * @return true if a tick was observed, false if the status does not provide
+    * the hour, or if the timeout elapsed
+    */
+    public boolean awaitNextTick(long timeoutMillis) {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      long margin = tickPeriodNanos / 10;
+
+      // while the next tick is not due, the last observed hour is still current
+      if (Double.isNaN(hour) || lastTickNanos == 0
+          || System.nanoTime() >= lastTickNanos + tickPeriodNanos - margin) {
+        readStatus();
+      }
+      double previousHour = hour;
+      if (Double.isNaN(previousHour)) {
+        return false;
+      }
+
+      if (!sleepUntil(Math.min(lastTickNanos + tickPeriodNanos - margin, deadline))) {
+        return false;
+      }
+
+      long pollNanos = TimeUnit.MILLISECONDS.toNanos(MIN_POLL_MILLIS);
+      while (true) {
+        readStatus();
+        if (hour != previousHour) {
+          settled = true;
+          return true;
+        }
+
+        long now = System.nanoTime();
+        if (now >= deadline || !sleepUntil(Math.min(now + pollNanos, deadline))) {
+          return false;
+        }
+        pollNanos = Math.min(2 * pollNanos, Math.max(pollNanos, tickPeriodNanos / 4));
+      }
+    }
+
+    /**
+    * Waits for the next tick of the environment (see {@link #awaitNextTick(long)}),
+    * so that the effects of the last action are observed. If the status of the
+    * lab does not provide the hour, waits for the given delay instead.
+    *
+    * @see {@link LearningEnvironment#awaitSettled(long)}
     */
     @Override
-    public int readCurrentState() {
-      Optional<PropertyAffordance> p = this.td.getFirstPropertyBySemanticType("https://example.org/was#Status");
+    public void awaitSettled(long millis) {
+      if (Double.isNaN(hour)) {
+        super.awaitSettled(millis);
+      } else if (!awaitNextTick(TICK_TIMEOUT_MILLIS)) {
+        LOGGER.warning("No environment tick was observed within " + TICK_TIMEOUT_MILLIS + " ms");
+      }
+    }
+
+    /**
+    * Returns the hour of the environment clock, as last observed
+    */
+    public double getHour() {
+      return hour;
+    }
+
+    /**
+    * Reads the status of the lab, and updates the current state from it
+    */
+    private void readStatus() {
+      Optional<PropertyAffordance> p = this.td.getFirstPropertyBySemanticType(STATUS_TYPE);
 
       if (p.isPresent()) {
 
         Optional<Form> f = p.get().getFirstFormForOperationType(TD.readProperty);
-        DataSchema ds = p.get().getDataSchema();
 
         if (f.isPresent()) {
 
           TDHttpRequest request = new TDHttpRequest(f.get(), TD.readProperty);
 
           try {
-            TDHttpResponse response = request.execute();
-            Map<String, Object> status = response.getPayloadAsObject((ObjectSchema) ds);
+            long start = System.nanoTime();
+            TDHttpResponse response = TDHttpClient.getInstance().execute(f.get(), TD.readProperty, request);
+            HTTP_METRICS.recordRequest(STATUS_TYPE, System.nanoTime() - start);
+            updateCurrentState(response.getPayloadAsObject((ObjectSchema) p.get().getDataSchema()));
+          } catch (IOException e) {
+            HTTP_METRICS.recordFailure(STATUS_TYPE);
+            LOGGER.severe(e.getMessage());
+          }
+        }
+      }
+    }
+
+    /**
+    * Sleeps until the given time of {@link System#nanoTime()}
+    *
+    * @return false if the thread was interrupted
+    */
+    private static boolean sleepUntil(long nanoTime) {
+      long nanos = nanoTime - System.nanoTime();
+      if (nanos <= 0) {
+        return true;
+      }
+      try {
+        TimeUnit.NANOSECONDS.sleep(nanos);
+        return true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
 
-            int z1Level = discretizeLightLevel((Double) status.get("http://example.org/was#Z1Level"));
-            int z2Level = discretizeLightLevel((Double) status.get("http://example.org/was#Z2Level"));
+    /**
+    * Updates the current state of the lab from its status
+    *
+    * @param status the payload of the status property
+    * @return the current state
+    */
+    synchronized int updateCurrentState(Map<String, Object> status) {
+      this.z1Lux = (Double) status.get("http://example.org/was#Z1Level");
+      this.z2Lux = (Double) status.get("http://example.org/was#Z2Level");
+      this.sunshineLux = (Double) status.get("http://example.org/was#Sunshine");
+      Object cost = status.get("http://example.org/was#EnergyCost");
+      this.energyCost = cost instanceof Number ? ((Number) cost).doubleValue() : Double.NaN;
+      Object clock = status.get("http://example.org/was#Hour");
+      updateHour(clock instanceof Number ? ((Number) clock).doubleValue() : Double.NaN);
 
-            boolean z1Light = (Boolean) status.get("http://example.org/was#Z1Light");
-            boolean z2Light = (Boolean) status.get("http://example.org/was#Z2Light");
+      int z1Level = discretizeLightLevel(z1Lux);
+      int z2Level = discretizeLightLevel(z2Lux);
 
-            boolean z1Blinds = (Boolean) status.get("http://example.org/was#Z1Blinds");
-            boolean z2Blinds = (Boolean) status.get("http://example.org/was#Z2Blinds");
+      boolean z1Light = (Boolean) status.get("http://example.org/was#Z1Light");
+      boolean z2Light = (Boolean) status.get("http://example.org/was#Z2Light");
 
-            int sunshine = discretizeSunshine((Double) status.get("http://example.org/was#Sunshine"));
+      boolean z1Blinds = (Boolean) status.get("http://example.org/was#Z1Blinds");
+      boolean z2Blinds = (Boolean) status.get("http://example.org/was#Z2Blinds");
 
-            currentState.set(0, z1Level);
-            currentState.set(1, z2Level);
-            currentState.set(2, z1Light ? 1 : 0);
-            currentState.set(3, z2Light ? 1 : 0);
-            currentState.set(4, z1Blinds ? 1 : 0);
-            currentState.set(5, z2Blinds ? 1 : 0);
-            currentState.set(6, sunshine);
+      int sunshine = discretizeSunshine(sunshineLux);
 
-          } catch (IOException e) {
-            LOGGER.severe(e.getMessage());
-          }
+      this.currentState = encodeObservation(z1Level, z2Level, z1Light, z2Light, z1Blinds, z2Blinds,
+        sunshine);
+      return this.currentState;
+    }
+
+    /**
+    * Packs the discretized values of an observation as a state, without
+    * allocating
+    *
+    * @return the position of the state in the state space
+    */
+    protected int encodeObservation(int z1Level, int z2Level, boolean z1Light, boolean z2Light,
+        boolean z1Blinds, boolean z2Blinds, int sunshine) {
+      int state = stateCodec.withValue(0, 0, z1Level);
+      state = stateCodec.withValue(state, 1, z2Level);
+      state = stateCodec.withValue(state, 2, z1Light ? 1 : 0);
+      state = stateCodec.withValue(state, 3, z2Light ? 1 : 0);
+      state = stateCodec.withValue(state, 4, z1Blinds ? 1 : 0);
+      state = stateCodec.withValue(state, 5, z2Blinds ? 1 : 0);
+      return stateCodec.withValue(state, 6, sunshine);
+    }
+
+    /**
+    * Updates the hour of the environment clock, and the estimated time between
+    * ticks from the number of ticks since the previously observed tick
+    *
+    * @param hour the observed hour
+    */
+    private void updateHour(double hour) {
+      if (!Double.isNaN(hour) && hour != this.hour) {
+        long now = System.nanoTime();
+        if (!Double.isNaN(this.hour) && lastTickNanos != 0) {
+          double hours = hour > this.hour ? hour - this.hour : hour + 24 - this.hour;
+          long ticks = Math.max(1, Math.round(hours / HOURS_PER_TICK));
+          tickPeriodNanos = (3 * tickPeriodNanos + (now - lastTickNanos) / ticks) / 4;
         }
+        lastTickNanos = now;
       }
-
-      List<List<Integer>> stateList = new ArrayList<>(stateSpace);
-      return stateList.indexOf(this.currentState);
+      this.hour = hour;
     }
 
     /**
@@ -263,58 +588,92 @@ public class Lab extends LearningEnvironment {
      * @return value to check whether we have reached the desired state
      */
     public Integer[] getPossibleGoalDescription() {
-      int state1 = this.currentState.get(0);
-      int state2 = this.currentState.get(1);
-      Integer[] returner = new Integer[2];
-      returner[0] = state1;
-      returner[1] = state2;
+      Integer[] returner = new Integer[goalAxes.length];
+      for (int i = 0; i < goalAxes.length; i++) {
+        returner[i] = getCurrentValue(goalAxes[i]);
+      }
       return returner;
     }
 
-    
     /**
-     * selfmade
-     * @return value to check whether we have reached the desired state
-     */
-    public List<Integer> getFullCurrentState() {
+    * Returns the current state of the lab, as last observed, without reading it
+    *
+    * @return the position of the state in the state space, or -1 if the state
+    * has not been observed
+    */
+    public int getCurrentState() {
       return this.currentState;
     }
 
     /**
-     * selfmade
-     * @return state index given an observation
-     */
-    public Integer getStateIndex(List<Integer> observation) {
-      List<List<Integer>> stateList = new ArrayList<>(stateSpace);
-      return IntStream.range(0, stateList.size())
-                .filter(i -> stateList.get(i).equals(observation))
-                .findFirst()
-                .orElse(-1);
+    * Returns a value of the current state of the lab, as last observed, e.g.
+    * the light level of Zone 1 for the axis 0
+    *
+    * @param axis the axis of the state
+    * @return the value of the axis, or -1 if the state has not been observed
+    */
+    public int getCurrentValue(int axis) {
+      return this.currentState < 0 ? -1 : stateCodec.valueAt(this.currentState, axis);
     }
 
     /**
-    * @see {@link LearningEnvironment#getApplicableActions(int)}
+    * The lab has two zones, whose levels are the goal axes
+    *
+    * @see {@link ZonedEnvironment#getZoneCount()}
     */
     @Override
-    public List<Integer> getApplicableActions(int state) {
+    public int getZoneCount() {
+      return LAB_DEVICE_AXES.length;
+    }
 
-      List<Integer> applicableActions = new ArrayList<>();
-      List<List<Integer>> stateList = new ArrayList<>(stateSpace);
-      List<Integer> st = stateList.get(state);
+    /**
+    * @see {@link ZonedEnvironment#getLevelAxis(int)}
+    */
+    @Override
+    public int getLevelAxis(int zone) {
+      return LAB_GOAL_AXES[zone];
+    }
 
-      for (int action : actionSpace.keySet()) {
+    /**
+    * @see {@link ZonedEnvironment#getDeviceAxes(int)}
+    */
+    @Override
+    public int[] getDeviceAxes(int zone) {
+      return LAB_DEVICE_AXES[zone].clone();
+    }
 
-        Action a = actionSpace.get(action);
+    /**
+    * @see {@link ZonedEnvironment#getNeighbours(int)}
+    */
+    @Override
+    public int[] getNeighbours(int zone) {
+      return new int[]{1 - zone};
+    }
 
-        int stateAxis = a.getApplicableOnStateAxis();
-        int stateValue = a.getApplicableOnStateValue();
+    /**
+    * The sunshine affects both zones
+    *
+    * @see {@link ZonedEnvironment#getSharedAxes()}
+    */
+    @Override
+    public int[] getSharedAxes() {
+      return new int[]{6};
+    }
 
-        if (st.get(stateAxis) == stateValue) {
-          applicableActions.add(action);
-        }
-      }
+    /**
+     * selfmade
+     * @return state index given an observation
+     */
+    public Integer getStateIndex(List<Integer> observation) {
+      return stateCodec.encode(observation);
+    }
 
-      return applicableActions;
+    /**
+    * @see {@link LearningEnvironment#getApplicableActions(int)}
+    */
+    @Override
+    public List<Integer> getApplicableActions(int state) {
+      return getIndexedApplicableActions(state);
     }
 
     /**
@@ -323,27 +682,133 @@ public class Lab extends LearningEnvironment {
     @Override
     public void performAction(int action) {
       Action a = actionSpace.get(action);
+      recordAction(action);
+      settled = false;
 
       try {
-        a.getRequest().execute();
+        long start = System.nanoTime();
+        TDHttpClient.getInstance().execute(a.getForm(), TD.invokeAction, a.getRequest());
+        HTTP_METRICS.recordRequest(a.getActionTag(), System.nanoTime() - start);
         //LOGGER.info(a.getRequest().toString());
       } catch (IOException e) {
+        HTTP_METRICS.recordFailure(a.getActionTag());
         LOGGER.severe(e.getMessage());
       }
 
     }
 
+    /**
+    * Invokes the action with the asynchronous HTTP client. As with
+    * {@link #performAction(int)}, a failed request is logged and the future
+    * completes normally.
+    *
+    * @see {@link LearningEnvironment#performActionAsync(int)}
+    */
+    @Override
+    public CompletableFuture<Void> performActionAsync(int action) {
+      Action a = actionSpace.get(action);
+      recordAction(action);
+      settled = false;
+      long start = System.nanoTime();
+
+      return TDHttpClient.getInstance().executeAsync(a.getForm(), TD.invokeAction, a.getRequest())
+        .handle((response, error) -> {
+          if (error != null) {
+            HTTP_METRICS.recordFailure(a.getActionTag());
+            LOGGER.severe(error.getMessage());
+          } else {
+            HTTP_METRICS.recordRequest(a.getActionTag(), System.nanoTime() - start);
+          }
+          return null;
+        });
+    }
+
+    /**
+    * Records the transitions of the lab to a log, or stops recording if the log
+    * is null. A transition is recorded when the state is read after exactly one
+    * action was performed since the previous read. The log is not closed by the
+    * lab.
+    *
+    * @param log the log, or null
+    */
+    public synchronized void setTransitionLog(TransitionLog.Writer log) {
+      this.transitionLog = log;
+      this.lastObservedState = -1;
+      this.pendingAction = NO_ACTION;
+    }
+
+    /**
+    * Returns the illuminance of Zone 1 in lux, as last observed
+    */
+    public double getZ1Lux() {
+      return z1Lux;
+    }
+
+    /**
+    * Returns the illuminance of Zone 2 in lux, as last observed
+    */
+    public double getZ2Lux() {
+      return z2Lux;
+    }
+
+    /**
+    * Returns the sunshine out of the lab in lux, as last observed
+    */
+    public double getSunshineLux() {
+      return sunshineLux;
+    }
+
+    /**
+    * Returns the energy cost, as last observed
+    */
+    public double getEnergyCost() {
+      return energyCost;
+    }
+
+    /**
+    * Notes that an action is performed, so that it is recorded with the next
+    * observed state
+    *
+    * @param action the action
+    */
+    protected synchronized void recordAction(int action) {
+      if (transitionLog != null) {
+        pendingAction = pendingAction == NO_ACTION ? action : MANY_ACTIONS;
+      }
+    }
+
+    /**
+    * Records the transition from the previously observed state to a newly
+    * observed state, if a single action was performed in between
+    *
+    * @param state the observed state
+    * @return the observed state
+    */
+    protected synchronized int recordState(int state) {
+      if (transitionLog == null || state < 0) {
+        return state;
+      }
+
+      if (lastObservedState >= 0 && pendingAction >= 0) {
+        try {
+          transitionLog.append(System.currentTimeMillis(), lastObservedState, pendingAction, state,
+            z1Lux, z2Lux, sunshineLux, energyCost);
+        } catch (IOException e) {
+          LOGGER.severe("Stopped recording transitions: " + e.getMessage());
+          transitionLog = null;
+        }
+      }
+      lastObservedState = state;
+      pendingAction = NO_ACTION;
+      return state;
+    }
+
     /**
     * Creates the action space of the lab
     */
     private void createActionSpace() {
 
-      this.affordanceTypes = Arrays.asList(
-      "http://example.org/was#SetZ1Light",
-      "http://example.org/was#SetZ2Light",
-      "http://example.org/was#SetZ1Blinds",
-      "http://example.org/was#SetZ2Blinds"
-      );
+      this.affordanceTypes = LAB_AFFORDANCE_TYPES;
 
       for (String affType : affordanceTypes) {
 
@@ -368,7 +833,7 @@ public class Lab extends LearningEnvironment {
                   payload.put(propName, propValue);
                   TDHttpRequest request = new TDHttpRequest(f.get(), TD.invokeAction);
                   request.setObjectPayload((ObjectSchema) ds.get(), payload);
-                  Action action = new Action(affType, new Object[]{propName}, new Object[]{propValue}, request);
+                  Action action = new Action(affType, new Object[]{propName}, new Object[]{propValue}, request, f.get());
                   actionSpace.put(actionSpace.size(), action);
                 }
               }
@@ -386,15 +851,8 @@ public class Lab extends LearningEnvironment {
     * lux in [100,300) -> level 2
     * lux >= 300 -> level 3
     */
-    private int discretizeLightLevel(Double value) {
-      if (value < 50) {
-        return 0;
-      } else if (value < 200) {
-        return 1;
-      } else if (value < 400) {
-        return 2;
-      }
-      return 3;
+    protected static int discretizeLightLevel(double value) {
+      return LIGHT_LEVELS.discretize(value);
     }
 
     /**
@@ -404,21 +862,16 @@ public class Lab extends LearningEnvironment {
     * lux in [200,700) -> level 2
     * lux >= 700 -> level 3
     */
-    private int discretizeSunshine(Double value) {
-      if (value < 50) {
-        return 0;
-      } else if (value < 200) {
-        return 1;
-      } else if (value < 700) {
-        return 2;
-      }
-      return 3;
+    protected static int discretizeSunshine(double value) {
+      return SUNSHINE_LEVELS.discretize(value);
     }
 
     /**
     * Creates the state space of the lab
     */
     private void createStateSpace() {
+      this.stateCodec = LAB_STATE_CODEC;
+      this.goalAxes = LAB_GOAL_AXES.clone();
       this.stateSpace = Sets.cartesianProduct(
                     ImmutableSet.copyOf(z1Level.keySet()),
                     ImmutableSet.copyOf(z2Level.keySet()),
@@ -428,6 +881,7 @@ public class Lab extends LearningEnvironment {
                     ImmutableSet.copyOf(z2Blinds.keySet()),
                     ImmutableSet.copyOf(sunshine.keySet())
                     );
+      this.axisValues = AXIS_VALUES;
     }
 
 
@@ -445,7 +899,7 @@ public class Lab extends LearningEnvironment {
     /**
     * Set the applicable actions for each substate
     */
-    private void setApplicableActions() {
+    protected void setApplicableActions() {
 
       Action z1LightOnValidAction = getApplicableAction("http://example.org/was#SetZ1Light", true);
       Action z1LightOffValidAction = getApplicableAction("http://example.org/was#SetZ1Light", false);
@@ -465,5 +919,7 @@ public class Lab extends LearningEnvironment {
       z1BlindsDownValidAction.setApplicableOn(4, 1);
       z2BlindsUpValidAction.setApplicableOn(5, 0);
       z2BlindsDownValidAction.setApplicableOn(5, 1);
+
+      indexApplicableActions();
     }
 }
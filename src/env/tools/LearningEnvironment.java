@@ -1,6 +1,10 @@
 package tools;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.primitives.Ints;
 
 /**
  * An abstract class for representing a learning environment which can be used
@@ -18,6 +22,24 @@ public abstract class LearningEnvironment {
    */
   protected Set<List<Integer>> stateSpace = new HashSet<>();
 
+  /**
+   * Encodes the states of the state space as integer values that correspond to
+   * the positions of the states in the state space, and decodes them back.
+   */
+  protected StateCodec stateCodec;
+
+  /**
+   * The axes of the state that goal descriptions refer to, e.g., the light levels
+   * of the zones of a lab.
+   */
+  protected int[] goalAxes = new int[0];
+
+  /**
+   * The values of each axis of the state, indexed by axis and by the key of
+   * the value, e.g. false and true for the keys 0 and 1 of a boolean axis.
+   */
+  protected List<Map<Integer, ?>> axisValues = Collections.emptyList();
+
   /**
    * The action space of the learning environment.
    * <p>
@@ -34,13 +56,62 @@ public abstract class LearningEnvironment {
    */
   protected List<String> affordanceTypes = new ArrayList<>();
 
+  /**
+   * The applicable actions of each state, indexed by the state. The table is
+   * built once by {@link #indexApplicableActions()}, and states with the same
+   * applicable actions share the same array. Environments with large state
+   * spaces override {@link #getApplicableActionArray(int)} instead, and do not
+   * build the table (see {@link TDEnvironment}).
+   */
+  private int[][] applicableActionTable = new int[0][];
+
+  /**
+   * Immutable list views of the rows of {@link #applicableActionTable}
+   */
+  private List<List<Integer>> applicableActionLists = Collections.emptyList();
+
+  /**
+   * The states that have each value on each axis, as bitsets over the state
+   * space, indexed by axis and value. The bitsets are built by
+   * {@link #getIndexedCompatibleStates(List)} when first needed.
+   */
+  private long[][][] axisMasks;
+
+  /**
+   * The compatible states of the substate descriptions that were queried
+   */
+  private final Map<List<Object>, int[]> compatibleStates = new ConcurrentHashMap<>();
+
+  /**
+   * The number of substate descriptions whose compatible states are memoized
+   */
+  private static final int MAX_MEMOIZED_DESCRIPTIONS = 1024;
+
   /**
    * Returns the size of the state space
    *
    * @return the size
    */
   public int getStateCount() {
-    return stateSpace.size();
+    return stateCodec.size();
+  }
+
+  /**
+   * Returns the codec of the states of the state space
+   *
+   * @return the state codec
+   */
+  public StateCodec getStateCodec() {
+    return stateCodec;
+  }
+
+  /**
+   * Returns the axes of the state that goal descriptions refer to
+   *
+   * @return the goal axes
+   */
+  public int[] getGoalAxes() {
+    return goalAxes.clone();
   }
 
   /**
@@ -84,6 +155,185 @@ public abstract class LearningEnvironment {
    */
   public abstract List<Integer> getCompatibleStates(List<Object> stateDescription);
 
+  /**
+   * Returns the states that are compatible to a given substate description, as
+   * an array.
+   * <p>
+   * Environments that index their states return a shared array, which must
+   * not be modified.
+   * </p>
+   *
+   * @param stateDescription the description of the substate
+   * @return the compatible states, in increasing order
+   * @see #getCompatibleStates(List)
+   */
+  public int[] getCompatibleStateArray(List<Object> stateDescription) {
+    return Ints.toArray(getCompatibleStates(stateDescription));
+  }
+
+  /**
+   * Returns the states that contain the given substate description, at any
+   * position, e.g. the states described as [3,3,_,_,...,_] for [3,3], given the
+   * values of the axes (see {@link #axisValues}). The states are found by
+   * intersecting the bitsets of the states that have each value of the
+   * description on each axis, and they are memoized per description.
+   * <p>
+   * The returned array is shared and must not be modified.
+   * </p>
+   *
+   * @param stateDescription the description of the substate
+   * @return the compatible states, in increasing order
+   */
+  protected int[] getIndexedCompatibleStates(List<Object> stateDescription) {
+    int[] states = compatibleStates.get(stateDescription);
+    if (states == null) {
+      states = indexCompatibleStates(stateDescription);
+      if (compatibleStates.size() < MAX_MEMOIZED_DESCRIPTIONS) {
+        compatibleStates.put(Collections.unmodifiableList(new ArrayList<>(stateDescription)), states);
+      }
+    }
+    return states;
+  }
+
+  /**
+   * Finds the states that contain a substate description, by intersecting
+   * the bitsets of its values for each position of the description in the state
+   */
+  private int[] indexCompatibleStates(List<Object> stateDescription) {
+    long[][][] masks = getAxisMasks();
+    int words = (stateCodec.size() + 63) >>> 6;
+    long[] union = new long[words];
+
+    for (int offset = 0; offset + stateDescription.size() <= axisValues.size(); offset++) {
+      long[] match = allStates(words);
+      for (int i = 0; i < stateDescription.size() && match != null; i++) {
+        int value = valueIndex(offset + i, stateDescription.get(i));
+        if (value < 0) {
+          match = null;
+        } else {
+          long[] mask = masks[offset + i][value];
+          for (int w = 0; w < words; w++) {
+            match[w] &= mask[w];
+          }
+        }
+      }
+
+      if (match != null) {
+        for (int w = 0; w < words; w++) {
+          union[w] |= match[w];
+        }
+      }
+    }
+
+    int count = 0;
+    for (long word : union) {
+      count += Long.bitCount(word);
+    }
+    int[] states = new int[count];
+    int n = 0;
+    for (int w = 0; w < words; w++) {
+      for (long word = union[w]; word != 0; word &= word - 1) {
+        states[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+      }
+    }
+    return states;
+  }
+
+  private long[] allStates(int words) {
+    long[] states = new long[words];
+    Arrays.fill(states, -1L);
+    int tail = stateCodec.size() & 63;
+    if (tail != 0) {
+      states[words - 1] = (1L << tail) - 1;
+    }
+    return states;
+  }
+
+  /**
+   * Returns the key of a value of an axis, e.g. 1 for the value true of
+   * z1Light, or -1 if the axis does not have the value
+   */
+  private int valueIndex(int axis, Object value) {
+    for (Map.Entry<Integer, ?> entry : axisValues.get(axis).entrySet()) {
+      if (entry.getValue().equals(value)) {
+        return entry.getKey();
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the bitsets of the states that have each value on each axis,
+   * building them on the first call
+   */
+  private synchronized long[][][] getAxisMasks() {
+    if (axisMasks != null) {
+      return axisMasks;
+    }
+
+    int words = (stateCodec.size() + 63) >>> 6;
+    long[][][] masks = new long[stateCodec.getAxisCount()][][];
+    for (int axis = 0; axis < masks.length; axis++) {
+      masks[axis] = new long[stateCodec.getRadix(axis)][words];
+    }
+
+    for (int state = 0; state < stateCodec.size(); state++) {
+      for (int axis = 0; axis < masks.length; axis++) {
+        masks[axis][stateCodec.valueAt(state, axis)][state >>> 6] |= 1L << state;
+      }
+    }
+    this.axisMasks = masks;
+    return masks;
+  }
+
+  /**
+   * Returns the values of all the axes of a state, e.g.
+   * [2,2,true,false,true,true,2] (see {@link #axisValues})
+   *
+   * @param state the position of the state in the state space
+   * @return the values of the axes
+   * @see #encodeState(Object[])
+   */
+  public Object[] describeState(int state) {
+    Object[] values = new Object[axisValues.size()];
+    for (int axis = 0; axis < values.length; axis++) {
+      values[axis] = axisValues.get(axis).get(stateCodec.valueAt(state, axis));
+    }
+    return values;
+  }
+
+  /**
+   * Returns the state described by the given values of all the axes, e.g.
+   * [2,2,true,false,true,true,2]. Boolean values are encoded as 0 and 1.
+   *
+   * @param stateDescription the values of the axes
+   * @return the state, or -1 if a value is missing or out of range
+   */
+  public int encodeState(Object[] stateDescription) {
+    if (stateDescription.length != stateCodec.getAxisCount()) {
+      return -1;
+    }
+
+    int state = 0;
+    for (int axis = 0; axis < stateDescription.length; axis++) {
+      Object value = stateDescription[axis];
+      int axisValue;
+      if (value instanceof Number) {
+        axisValue = ((Number) value).intValue();
+      } else if (value instanceof Boolean) {
+        axisValue = (Boolean) value ? 1 : 0;
+      } else {
+        return -1;
+      }
+
+      if (axisValue < 0 || axisValue >= stateCodec.getRadix(axis)) {
+        return -1;
+      }
+      state = stateCodec.withValue(state, axis, axisValue);
+    }
+    return state;
+  }
+
   /**
    * Returns the current state of the environment.
    * <p>
@@ -96,6 +346,20 @@ public abstract class LearningEnvironment {
    */
   public abstract int readCurrentState();
 
+  /**
+   * Reads the current state of the environment without blocking the calling
+   * thread, if the environment supports it.
+   * <p>
+   * By default, the state is read synchronously. At most one read or action
+   * should be in progress at a time.
+   * </p>
+   *
+   * @return the current state, as returned by {@link #readCurrentState()}
+   */
+  public CompletableFuture<Integer> readCurrentStateAsync() {
+    return CompletableFuture.completedFuture(readCurrentState());
+  }
+
   /**
    * Returns the actions that are applicable in a given state.
    * <p>
@@ -110,6 +374,21 @@ public abstract class LearningEnvironment {
    */
   public abstract List<Integer> getApplicableActions(int state);
 
+  /**
+   * Returns the actions that are applicable in a given state, without
+   * allocating.
+   * <p>
+   * The returned array is shared and must not be modified.
+   * </p>
+   *
+   * @param state the state
+   * @return the applicable actions, in increasing order
+   * @see #getApplicableActions(int)
+   */
+  public int[] getApplicableActionArray(int state) {
+    return applicableActionTable[state];
+  }
+
   /**
    * Performs an action in the environment.
    * <p>
@@ -121,4 +400,94 @@ public abstract class LearningEnvironment {
    */
   public abstract void performAction(int action);
 
+  /**
+   * Performs an action in the environment without blocking the calling thread,
+   * if the environment supports it.
+   * <p>
+   * By default, the action is performed synchronously. At most one read or
+   * action should be in progress at a time.
+   * </p>
+   *
+   * @param action the action
+   * @return a future that completes when the action was performed
+   * @see #performAction(int)
+   */
+  public CompletableFuture<Void> performActionAsync(int action) {
+    performAction(action);
+    return CompletableFuture.completedFuture(null);
+  }
+
+  /**
+   * Builds the table of the applicable actions of each state. Must be called
+   * once the applicability of every {@link Action} in the action space is set
+   * (see {@link Action#setApplicableOn(int, int)}), unless
+   * {@link #getApplicableActionArray(int)} and
+   * {@link #getApplicableActions(int)} are overridden without the table, since
+   * the table has a row per state.
+   */
+  protected void indexApplicableActions() {
+    int stateCount = getStateCount();
+    int actionCount = getActionCount();
+
+    int[][] table = new int[stateCount][];
+    List<List<Integer>> lists = new ArrayList<>(stateCount);
+    Map<Long, Integer> rowsByMask = new HashMap<>();
+    int[] row = new int[actionCount];
+
+    for (int state = 0; state < stateCount; state++) {
+      int size = 0;
+      long mask = 0;
+
+      for (int action = 0; action < actionCount; action++) {
+        Action a = actionSpace.get(action);
+        if (stateCodec.valueAt(state, a.getApplicableOnStateAxis()) == a.getApplicableOnStateValue()) {
+          row[size++] = action;
+          mask |= 1L << action;
+        }
+      }
+
+      Integer sharedRow = actionCount <= Long.SIZE ? rowsByMask.get(mask) : null;
+      if (sharedRow != null) {
+        table[state] = table[sharedRow];
+        lists.add(lists.get(sharedRow));
+      } else {
+        table[state] = Arrays.copyOf(row, size);
+        lists.add(Collections.unmodifiableList(Ints.asList(table[state])));
+        rowsByMask.put(mask, state);
+      }
+    }
+
+    this.applicableActionTable = table;
+    this.applicableActionLists = Collections.unmodifiableList(lists);
+  }
+
+  /**
+   * Returns an immutable list of the actions that are applicable in a given
+   * state, as indexed by {@link #indexApplicableActions()}
+   *
+   * @param state the state
+   * @return the applicable actions
+   */
+  protected List<Integer> getIndexedApplicableActions(int state) {
+    return applicableActionLists.get(state);
+  }
+
+  /**
+   * Waits until the effects of the last performed action can be observed in the
+   * environment.
+   * <p>
+   * Environments that evolve in real time wait for the given delay, while
+   * simulated environments can advance their own clock instead.
+   * </p>
+   *
+   * @param millis the delay that a real-time environment needs to settle
+   */
+  public void awaitSettled(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
 }
@@ -1,38 +1,104 @@
 package tools;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.*;
+import javax.management.ObjectName;
 import cartago.Artifact;
 import cartago.OPERATION;
 import cartago.OpFeedbackParam;
+import metrics.LearningMetrics;
+import metrics.Metrics;
 
 public class QLearner extends Artifact {
 
   /**
-   *
+   * The number of random actions performed when the artifact is initialized,
+   * 0 by default since the episodes of learning randomize the environment
+   * themselves
+   */
+  private static final int WARMUP_ACTIONS = Integer.getInteger("tools.warmupActions", 0);
+  private static final long STARTUP_BUDGET_MILLIS = Long.getLong("tools.startupBudgetMillis", 2000); // warns when exceeded
+  /**
+   * The number of states above which the Q matrices are stored sparsely (see
+   * {@link SparseQTableStore}), and the maximum number of rows of a sparse
+   * store, 0 for no maximum
    */
-  private static final int ITERATIONS = 100;
-  private static final String FILENAME = "with_greedy.ser";
-  private Lab lab; // the lab environment that will be learnt
+  private static final int SPARSE_STATE_THRESHOLD = Integer.getInteger("tools.sparseStateThreshold", 1 << 16);
+  private static final int MAX_SPARSE_ROWS = Integer.getInteger("tools.maxSparseRows", 0);
+  private static final int MAX_EPISODE_STEPS = 10000; // some goals cannot be reached in the lab
+  private static final int MODEL_SAMPLES = 20; // samples per state and action of a simulated model
+  private static final String FILENAME = System.getProperty("tools.qtables", "qtables.qtb"); // e.g. for benchmarks
+  private static final String LEGACY_FILENAME = "with_greedy.ser";
+  private static final String ENVIRONMENT = System.getProperty("tools.environment"); // see TDEnvironment
+  private LearningEnvironment lab; // the lab environment that will be learnt
   private int stateCount; // the number of possible states in the lab environment
   private int actionCount; // the number of possible actions in the lab environment
-  private HashMap<String, double[][]> qTables = new HashMap<>(); // a map for storing the qTables computed for
-                                                                 // different goals
+  private GoalSpace goals; // the goals that can be learnt in the lab environment
+  private ActionDescriptor[] actionDescriptors; // the descriptions of the actions, returned to agents
+  private CompiledPolicy[] policies; // the greedy policies of the goals, compiled when first needed
+  private double inferenceEpsilon = 0; // the exploration probability when acting, greedy by default
+  private QTableStore qTables; // a store for the qTables computed for different goals, see qTables()
+  private QTableFile qTableFile; // the persisted qTables, loaded lazily into the store per goal
+  private TransitionModel transitionModel; // the transitions observed in the lab environment, created when first observed
+  private TransitionModel simulatedModel; // the transitions sampled from a simulated lab
+  private int replayCapacity = 0; // the capacity of the replay buffer, 0 disables experience replay
+  private int replayUpdates = 0; // the number of replayed transitions per environment step
+  private boolean prioritizedReplay = false; // prioritized instead of uniform sampling of transitions
+  private boolean pipelined = false; // overlaps performing the next action with the previous Q update
+  private FactoredQ factoredQ; // the per-zone Q components, in the factored mode
+  private final BitSet factoredGoals = new BitSet(); // the goals learnt in the factored mode
+  private TransitionLog.Writer transitionLog; // the log the transitions of the lab are recorded to
+  private final LearningMetrics metrics = new LearningMetrics(); // the metrics of learning, also exposed via JMX
+  private ObjectName metricsName; // the JMX name of the metrics
+  private boolean metricsPublished = false; // true once the metrics are defined as observable properties
+  private static final AtomicInteger INSTANCES = new AtomicInteger();
 
   private static final Logger LOGGER = Logger.getLogger(QLearner.class.getName());
   //remember to not take actions that reverses the action just previously taken
   List<Integer> lastActions = new ArrayList<>(2);
+  private final Random random = new Random();
 
   public void init(String environmentURL) {
+    init(environmentURL, false);
+  }
+
+  /**
+   * Initializes the artifact either against the lab described by the W3C Thing
+   * Description, or against an in-process simulation of the lab. If the system
+   * property tools.environment is set to a configuration file, the lab is
+   * learnt as a {@link TDEnvironment}, e.g. for labs with more zones.
+   *
+   * @param environmentURL the URL of the W3C Thing Description of the lab Thing
+   * @param simulated      when set to true, the lab is simulated in-process
+   *                       (see {@link SimulatedLab}) and the URL is not used
+   */
+  public void init(String environmentURL, boolean simulated) {
+    long start = System.nanoTime();
 
     // the URL of the W3C Thing Description of the lab Thing
-    this.lab = new Lab(environmentURL);
+    if (simulated) {
+      this.lab = new SimulatedLab();
+    } else if (ENVIRONMENT != null) {
+      try {
+        this.lab = TDEnvironment.load(environmentURL, Paths.get(ENVIRONMENT));
+      } catch (IOException | IllegalArgumentException e) {
+        failed("Unable to create the environment of " + environmentURL + " from " + ENVIRONMENT
+            + ": " + e.getMessage());
+        return;
+      }
+    } else {
+      this.lab = new Lab(environmentURL);
+    }
 
     lastActions.add(0, 0);
     lastActions.add(1, 0);
@@ -42,18 +108,34 @@ public class QLearner extends Artifact {
 
     this.actionCount = this.lab.getActionCount();
     LOGGER.info("Initialized with an action space of m=" + actionCount);
+    this.actionDescriptors = ActionDescriptor.describe(this.lab);
 
-    Integer currentState = this.lab.readCurrentState();
-    Random random = new Random();
-    for (int i = 0; i < ITERATIONS; i++) {
-      List<Integer> possibleActions = this.lab.getApplicableActions(currentState);
-      int randomAction = possibleActions.get(random.nextInt(possibleActions.size()));
-      this.lab.performAction(randomAction);
-    }
+    this.goals = new GoalSpace(this.lab.getStateCodec(), this.lab.getGoalAxes());
+    this.policies = new CompiledPolicy[goals.size()];
+    openQTableFile();
 
-    currentState = this.lab.readCurrentState();
-    System.out.println("current State: " + currentState);
+    this.metricsName = Metrics.register(metrics, "LearningMetrics", "qlearner-" + INSTANCES.incrementAndGet());
 
+    if (WARMUP_ACTIONS > 0) {
+      int currentState = this.lab.readCurrentState();
+      if (currentState < 0) {
+        LOGGER.warning("Skipping the warm-up, the state of the lab could not be read");
+      }
+      for (int i = 0; currentState >= 0 && i < WARMUP_ACTIONS; i++) {
+        int[] possibleActions = this.lab.getApplicableActionArray(currentState);
+        int randomAction = possibleActions[random.nextInt(possibleActions.length)];
+        this.lab.performAction(randomAction);
+      }
+      this.lab.awaitSettled(50);
+      LOGGER.fine("current State: " + this.lab.readCurrentState());
+    }
+
+    long startupNanos = System.nanoTime() - start;
+    metrics.recordStartupTime(startupNanos);
+    if (startupNanos > STARTUP_BUDGET_MILLIS * 1000000L) {
+      LOGGER.warning("Initialized in " + startupNanos / 1000000 + " ms, over the budget of "
+          + STARTUP_BUDGET_MILLIS + " ms");
+    }
   }
 
   /**
@@ -89,6 +171,7 @@ public class QLearner extends Artifact {
   @OPERATION
   public void calculateQ(Object[] goalDescription, Object episodesObj, Object alphaObj, Object gammaObj,
       Object epsilonObj, Object rewardObj) {
+    invalidatePolicies();
 
     // ensure that the right datatypes are used
     Integer episodes = Integer.valueOf(episodesObj.toString());
@@ -96,520 +179,1210 @@ public class QLearner extends Artifact {
     Double gamma = Double.valueOf(gammaObj.toString());
     Double epsilon = Double.valueOf(epsilonObj.toString());
     Integer reward = Integer.valueOf(rewardObj.toString());
-    Integer z1 = Integer.valueOf(goalDescription[0].toString());
-    Integer z2 = Integer.valueOf(goalDescription[1].toString());
-
-    this.qTables = readQTablesFromFile(FILENAME);
 
-    String newKey = z1.toString() + z2.toString();
+    int goal = this.goals.indexOf(goalDescription);
 
-    if (this.qTables.containsKey(newKey)) {
+    if (this.factoredQ != null) {
+      if (!learnFactoredQ(goal, episodes, alpha, gamma, epsilon, reward)) {
+        failed("The state of the lab could not be read");
+        return;
+      }
+      this.factoredGoals.set(goal);
+      LOGGER.info("-------------------------------- done -----------------------------------------");
+      publishMetrics();
+    } else if (loadQTable(goal)) {
       LOGGER
           .info("-------------------------------- oh, I already learnt this -----------------------------------------");
     } else {
-      this.qTables.put(newKey, initializeQTable());
-      double[][] thisVeryQTable = this.qTables.get(newKey);
-      Integer currentState = this.lab.readCurrentState();
-      Random random = new Random();
-      for (int i = 0; i < episodes; i++) {
-        LOGGER.info("-------------------------------- new Episode -----------------------------------------");
-        // intialize S
-        for (int j = 0; j < 1000; j++) {
-          List<Integer> possibleActions = this.lab.getApplicableActions(currentState);
-          int randomAction = possibleActions.get(random.nextInt(possibleActions.size()));
-          this.lab.performAction(randomAction);
-
-          try {
-            Thread.sleep(3); // Sleep for 1000 milliseconds (1 second)
-          } catch (InterruptedException e) {
-            // Handle the exception if needed
-          }
+      qTables().create(goal);
+      if (!learnQTable(this.lab, qTables(), goal, false, episodes, alpha, gamma, epsilon,
+          reward, random)) {
+        // a partially learnt Q matrix must not be taken for a learnt one
+        qTables().remove(goal);
+        failed("The state of the lab could not be read");
+        return;
+      }
+      LOGGER.info("-------------------------------- done -----------------------------------------");
+      publishMetrics();
+
+      try {
+        writeQTablesToFile();
+      } catch (IOException e) {
+        failed("Unable to write the qTables to " + FILENAME + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Computes the Q matrices of several goals in parallel. Each goal is learnt by
+   * its own worker thread against its own {@link SimulatedLab}, into a store
+   * that only holds the Q matrix of the goal, and the learnt Q matrices are
+   * merged into the qTables of the artifact once all the workers are done. Goals that have already been learnt are skipped.
+   *
+   * @param goalDescriptions the desired goals, e.g. [[2,3],[3,2]], or [] for all
+   *                         the possible goals
+   * @param episodesObj      the number of episodes used for calculating each Q
+   *                         matrix
+   * @param alphaObj         the learning rate with range [0,1].
+   * @param gammaObj         the discount factor [0,1]
+   * @param epsilonObj       the exploration probability [0,1]
+   * @param rewardObj        the reward assigned when reaching the goal state
+   **/
+  @OPERATION
+  public void calculateAllQ(Object[] goalDescriptions, Object episodesObj, Object alphaObj,
+      Object gammaObj, Object epsilonObj, Object rewardObj) {
+    invalidatePolicies();
+    if (!checkSimulatable()) {
+      return;
+    }
+
+    // ensure that the right datatypes are used
+    int episodes = Integer.valueOf(episodesObj.toString());
+    double alpha = Double.valueOf(alphaObj.toString());
+    double gamma = Double.valueOf(gammaObj.toString());
+    double epsilon = Double.valueOf(epsilonObj.toString());
+    int reward = Integer.valueOf(rewardObj.toString());
+
+    List<Integer> pendingGoals = new ArrayList<>();
+    if (goalDescriptions.length == 0) {
+      for (int goal = 0; goal < goals.size(); goal++) {
+        pendingGoals.add(goal);
+      }
+    } else {
+      for (Object goalDescription : goalDescriptions) {
+        pendingGoals.add(this.goals.indexOf((Object[]) goalDescription));
+      }
+    }
+    pendingGoals.removeIf(this::ensureLoaded);
+
+    if (pendingGoals.isEmpty()) {
+      LOGGER.info("-------------------------------- oh, I already learnt this -----------------------------------------");
+      return;
+    }
+
+    int threads = Math.min(pendingGoals.size(), Runtime.getRuntime().availableProcessors());
+    LOGGER.info("Learning " + pendingGoals.size() + " goals with " + threads + " threads");
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    Map<Integer, Future<QTableStore>> results = new LinkedHashMap<>();
+    long seed = random.nextLong();
+
+    for (int goal : pendingGoals) {
+      long workerSeed = seed + goal;
+      results.put(goal, executor.submit(() -> {
+        Random workerRandom = new Random(workerSeed);
+        SimulatedLab environment = new SimulatedLab(workerRandom.nextLong());
+        QTableStore store = new FlatQTableStore(goal, 1, stateCount, actionCount);
+        store.create(goal);
+        if (!learnQTable(environment, store, goal, false, episodes, alpha, gamma, epsilon, reward,
+            workerRandom)) {
+          throw new IllegalStateException("The state of the simulated lab could not be read");
         }
-        while (true) {
-          List<Integer> possibleActions = this.lab.getApplicableActions(currentState);
-          double randomNumber = random.nextDouble();
-          int chosenAction = possibleActions.get(random.nextInt(possibleActions.size()));
-          if (randomNumber > epsilon) {
-            chosenAction = getMaxValueIndex(currentState, thisVeryQTable[currentState]);
-          }
-          this.lab.performAction(chosenAction);
-          try {
-            Thread.sleep(50); // Sleep for 1000 milliseconds (1 second)
-          } catch (InterruptedException e) {
-            // Handle the exception if needed
-          }
-          int newState = this.lab.readCurrentState();
-          double maxqsda = getMaxQSA(newState, thisVeryQTable);
-          double currentQsa = thisVeryQTable[currentState][chosenAction];
-          int calculatedReward = checkforReward(goalDescription, reward, z1, z2);
-          double newValue = currentQsa
-              + alpha * ((calculatedReward + gamma * maxqsda) - currentQsa);
-          // LOGGER.info("newValue: " + newValue);
-          thisVeryQTable[currentState][chosenAction] = newValue;
-          currentState = newState;
-          if (calculatedReward == reward) {
-            break;
+        return store;
+      }));
+    }
+    executor.shutdown();
+
+    try {
+      for (Map.Entry<Integer, Future<QTableStore>> result : results.entrySet()) {
+        int goal = result.getKey();
+        QTableStore.RowCursor rows = result.getValue().get().rows(goal);
+        qTables().create(goal);
+        while (rows.next()) {
+          for (int action = 0; action < actionCount; action++) {
+            qTables().set(goal, rows.getState(), action, rows.get(action));
           }
         }
       }
-      LOGGER.info("-------------------------------- done -----------------------------------------");
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      failed("Interrupted while learning the goals");
+      return;
+    } catch (ExecutionException e) {
+      executor.shutdownNow();
+      failed("Unable to learn the goals: " + e.getCause());
+      return;
     }
+    LOGGER.info("-------------------------------- done -----------------------------------------");
+    publishMetrics();
 
-    writeQTablesToFile(qTables, FILENAME);
-    //this.qTables = qTables;
-
-    //double[][] usefulQTable = this.qTables.get(newKey);
-    // printQTable(usefulQTable);
-  }
-
-      /**
-     * selfmade
-     * @return value to check whether we have reached the desired state
-     */
-    @OPERATION
-    public void getCurrentState(OpFeedbackParam<Integer[]> currentStateTag) {
-      int state1 = this.lab.getFullCurrentState().get(0);
-      int state2 = this.lab.getFullCurrentState().get(1);
-      Integer[] returner = new Integer[2];
-      returner[0] = state1;
-      returner[1] = state2;
-      Integer currentState[] = returner;
-      currentStateTag.set(currentState);
-    }
-
-     /**
-     * selfmade
-     * @return value to check whether we have reached the desired state
-     */
-    @OPERATION
-    public void getCurrentFullState(OpFeedbackParam<Object[]> currentStateTag) {
-      int state1 = this.lab.getFullCurrentState().get(0);
-      int state2 = this.lab.getFullCurrentState().get(1);
-      boolean state3 = this.lab.getFullCurrentState().get(2).equals(1);
-      boolean state4 = this.lab.getFullCurrentState().get(3).equals(1);
-      boolean state5 = this.lab.getFullCurrentState().get(4).equals(1);
-      boolean state6 = this.lab.getFullCurrentState().get(5).equals(1);
-      int state7 = this.lab.getFullCurrentState().get(6);
-
-
-      Object[] returner = new Object[7];
-      returner[0] = state1;
-      returner[1] = state2;
-      returner[2] = state3;
-      returner[3] = state4;
-      returner[4] = state5;
-      returner[5] = state6;
-      returner[6] = state7;
-      Object currentState[] = returner;
-      currentStateTag.set(currentState);
+    try {
+      writeQTablesToFile();
+    } catch (IOException e) {
+      failed("Unable to write the qTables to " + FILENAME + ": " + e.getMessage());
     }
+  }
 
   /**
-   * selfmade
-   */
-  private static void writeQTablesToFile(HashMap<String, double[][]> qTables, String fileName) {
-    try (ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(fileName))) {
-      outputStream.writeObject(qTables);
-      System.out.println("QTables successfully written to file: " + fileName);
+   * Computes the Q matrices of all the possible goals in a single training run
+   * against the lab. Since the reward only depends on whether the next state
+   * matches a goal, every observed transition is used for updating the Q
+   * matrices of all the goals, with the reward relabelled per goal (see
+   * {@link QTableStore#updateAllGoals}). The goal that drives the exploration
+   * rotates from one episode to the next, so that the states around every goal
+   * are visited. Q matrices that have already been learnt are refined further.
+   *
+   * @param episodesObj the number of episodes used for calculating the Q
+   *                    matrices
+   * @param alphaObj    the learning rate with range [0,1].
+   * @param gammaObj    the discount factor [0,1]
+   * @param epsilonObj  the exploration probability [0,1]
+   * @param rewardObj   the reward assigned when reaching the goal state
+   **/
+  @OPERATION
+  public void calculateQAllGoals(Object episodesObj, Object alphaObj, Object gammaObj,
+      Object epsilonObj, Object rewardObj) {
+    invalidatePolicies();
+
+    // ensure that the right datatypes are used
+    int episodes = Integer.valueOf(episodesObj.toString());
+    double alpha = Double.valueOf(alphaObj.toString());
+    double gamma = Double.valueOf(gammaObj.toString());
+    double epsilon = Double.valueOf(epsilonObj.toString());
+    int reward = Integer.valueOf(rewardObj.toString());
+
+    for (int goal = 0; goal < goals.size(); goal++) {
+      if (!ensureLoaded(goal)) {
+        qTables().create(goal);
+      }
+    }
+
+    if (!learnQTable(this.lab, qTables(), 0, true, episodes, alpha, gamma, epsilon, reward,
+        random)) {
+      failed("The state of the lab could not be read");
+      return;
+    }
+    LOGGER.info("-------------------------------- done -----------------------------------------");
+    publishMetrics();
+
+    try {
+      writeQTablesToFile();
     } catch (IOException e) {
-      e.printStackTrace();
+      failed("Unable to write the qTables to " + FILENAME + ": " + e.getMessage());
     }
   }
 
-  private static HashMap<String, double[][]> readQTablesFromFile(String fileName) {
-    try (ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(fileName))) {
-      HashMap<String, double[][]> qTables = (HashMap<String, double[][]>) inputStream.readObject();
-      System.out.println("QTables successfully read from file: " + fileName);
-      return qTables;
-    } catch (IOException | ClassNotFoundException e) {
-
+  /**
+   * Configures experience replay for the operations that learn by interacting
+   * with an environment ({@link #calculateQ}, {@link #calculateAllQ}). Every
+   * observed transition is added to a replay buffer, and after every step a
+   * number of transitions is sampled from the buffer and replayed for additional
+   * Q updates. Experience replay is not supported in the factored mode (see
+   * {@link #configureFactoring}).
+   *
+   * @param capacityObj    the maximum number of transitions kept in the buffer,
+   *                       or 0 to disable experience replay
+   * @param updatesObj     the number of replayed transitions per step
+   * @param prioritizedObj true for sampling transitions in proportion to their
+   *                       last temporal-difference error, false for uniform
+   *                       sampling
+   **/
+  @OPERATION
+  public void configureReplay(Object capacityObj, Object updatesObj, Object prioritizedObj) {
+    int capacity = Integer.valueOf(capacityObj.toString());
+    if (capacity > 0 && this.factoredQ != null) {
+      failed("Experience replay is not supported in the factored mode");
+      return;
     }
-    return new HashMap<>();
+    this.replayCapacity = capacity;
+    this.replayUpdates = Integer.valueOf(updatesObj.toString());
+    this.prioritizedReplay = Boolean.valueOf(prioritizedObj.toString());
   }
 
   /**
-   * selfmade
-   */
-  private int checkforReward(Object[] goalDescription, int reward, Integer z1, Integer z2) {
-    Integer[] observedGoalDescription = this.lab.getPossibleGoalDescription();
-    if (z1 == observedGoalDescription[0] && z2 == observedGoalDescription[1]) {
-      LOGGER.info("++++++++++++++++++++++++++successful+++++++++++++++++++++++++++++");
-      return reward;
-    } else {
-      return 0;
+   * Configures whether learning with an environment ({@link #calculateQ},
+   * {@link #calculateAllQ}, {@link #calculateQAllGoals}) is pipelined. In the
+   * pipelined mode, each action is performed asynchronously (see
+   * {@link LearningEnvironment#performActionAsync(int)}) while the Q update of
+   * the previous step is computed, so that the latency of the environment
+   * overlaps with the computation. The action rather than the read of the next
+   * state is overlapped, since the lab reads its next state while waiting for
+   * the next tick of its clock (see {@link Lab#awaitSettled(long)}). The update
+   * of a step is deferred until the next action is performed, unless that
+   * action depends on it, so the learnt Q values are the same as in the
+   * sequential mode, unless experience replay is enabled (see
+   * {@link #configureReplay}): the replayed updates of a deferred step are
+   * then computed after the next action is chosen. Pipelining is not
+   * supported in the factored mode (see {@link #configureFactoring}).
+   *
+   * @param enabledObj true for pipelining, false for the sequential mode
+   **/
+  @OPERATION
+  public void configurePipelining(Object enabledObj) {
+    boolean enabled = Boolean.valueOf(enabledObj.toString());
+    if (enabled && this.factoredQ != null) {
+      failed("Pipelining is not supported in the factored mode");
+      return;
     }
+    this.pipelined = enabled;
   }
 
   /**
-   * selfmade
-   */
-  private double getMaxQSA(int currentState,  double[][] qTable) {
-    List<Integer> possibleActions = this.lab.getApplicableActions(currentState);
-    double max = 0.0;
-    for (int i = 0; i < possibleActions.size(); i++) {
-      Integer possAct = possibleActions.get(i);
-      double possibleMax = qTable[currentState][possAct];
-      if (possibleMax > max) {
-        max = possibleMax;
+   * Configures whether {@link #calculateQ} and {@link #getActionFromState} use
+   * a Q function that is factored per zone of the lab (see {@link FactoredQ}),
+   * instead of the Q matrix over the joint state space. The factored Q
+   * function needs memory and samples that grow linearly with the number of
+   * zones, and it is only kept in memory. Enabling the factored mode again
+   * discards the factored Q function.
+   * <p>
+   * The joint qTables, their compiled policies and the transition model are
+   * only allocated when they are first used, so they are not allocated as
+   * long as the lab is only learnt in the factored mode. Experience replay
+   * (see {@link #configureReplay}) and pipelining (see
+   * {@link #configurePipelining}) are not supported in the factored mode:
+   * they must be disabled before the factored mode is enabled, and cannot be
+   * enabled in the factored mode. The transitions of the lab are still
+   * recorded (see {@link #recordTransitions}).
+   * </p>
+   *
+   * @param enabledObj true for the factored mode, false for the joint mode
+   **/
+  @OPERATION
+  public void configureFactoring(Object enabledObj) {
+    boolean enabled = Boolean.valueOf(enabledObj.toString());
+    if (enabled && (this.replayCapacity > 0 || this.pipelined)) {
+      failed("Experience replay and pipelining must be disabled for the factored mode");
+      return;
+    }
+    this.factoredQ = null;
+    this.factoredGoals.clear();
+    if (enabled) {
+      try {
+        this.factoredQ = new FactoredQ(this.lab, this.goals);
+        LOGGER.info("Learning " + ((ZonedEnvironment) this.lab).getZoneCount() + " zones with "
+            + factoredQ.getSize() + " Q values instead of " + (long) stateCount * actionCount);
+      } catch (IllegalArgumentException e) {
+        failed("The lab cannot be learnt per zone: " + e.getMessage());
       }
     }
-    return max;
   }
 
   /**
-   * Returns information about the next best action based on a provided state and
-   * the QTable for
-   * a goal description. The returned information can be used by agents to invoke
-   * an action
-   * using a ThingArtifact.
+   * Configures the exploration of {@link #getActionFromState}, which follows
+   * the greedy policy of the goal by default
    *
-   * @param goalDescription           the desired goal against the which the Q
-   *                                  matrix is calculated (e.g., [2,3])
-   * @param currentStateDescription   the current state e.g.
-   *                                  [2,2,true,false,true,true,2]
-   * @param nextBestActionTag         the (returned) semantic annotation of the
-   *                                  next best action, e.g.
-   *                                  "http://example.org/was#SetZ1Light"
-   * @param nextBestActionPayloadTags the (returned) semantic annotations of the
-   *                                  payload of the next best action, e.g.
-   *                                  [Z1Light]
-   * @param nextBestActionPayload     the (returned) payload of the next best
-   *                                  action, e.g. true
+   * @param epsilonObj the probability of returning a random applicable action
+   *                   instead of the greedy one
    **/
   @OPERATION
-  public void getActionFromState(Object[] goalDescription, Object[] currentStateDescription,
-      OpFeedbackParam<String> nextBestActionTag, OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-      OpFeedbackParam<Object[]> nextBestActionPayload) {
+  public void configureExploration(Object epsilonObj) {
+    this.inferenceEpsilon = Double.valueOf(epsilonObj.toString());
+  }
+
+  /**
+   * Records the transitions of the lab to an append-only log (see
+   * {@link TransitionLog}), so that they can be used later for training Q
+   * matrices offline with {@link #trainFromLogs}. If the log exists, the
+   * transitions are appended to it.
+   *
+   * @param fileObj the location of the log, e.g. "transitions.tlog", or "" to
+   *                stop recording
+   **/
+  @OPERATION
+  public void recordTransitions(Object fileObj) {
+    closeTransitionLog();
+
+    String file = fileObj.toString();
+    if (file.isEmpty()) {
+      return;
+    }
+    if (!(this.lab instanceof Lab)) {
+      failed("Transitions can only be recorded from the lab");
+      return;
+    }
+
+    try {
+      this.transitionLog = TransitionLog.Writer.open(Paths.get(file));
+      ((Lab) this.lab).setTransitionLog(this.transitionLog);
+      LOGGER.info("Recording transitions to " + file + " (" + transitionLog.getCount()
+          + " transitions recorded so far)");
+    } catch (IOException e) {
+      failed("Unable to open the transition log " + file + ": " + e.getMessage());
+    }
+  }
 
-    Integer z1 = Integer.valueOf(goalDescription[0].toString());
-    Integer z2 = Integer.valueOf(goalDescription[1].toString());
-    String newKey = z1.toString() + z2.toString();
-
-    // remove the following upon implementing Task 2.3!
-    double[][] thisVeryQTable = this.qTables.get(newKey);
-    Integer currentIndex = this.lab.readCurrentState();
-    System.out.println("current Index: " + currentIndex);
-    Random random = new Random();
-    double randomNumber = random.nextDouble();
-    double epsilon = 0.9;
-    double[] possibleActions = thisVeryQTable[currentIndex];
-    List<Integer> applicableActions = this.lab.getApplicableActions(currentIndex);
-    
-    int nextAction = applicableActions.get(random.nextInt(applicableActions.size()));
-          if (randomNumber > epsilon) {
-            nextAction = getMaxValueIndex(currentIndex, possibleActions);
+  /**
+   * Computes the Q matrices of several goals offline, by replaying the
+   * transitions recorded in one or more logs (see {@link #recordTransitions})
+   * without interacting with the lab. The recorded transitions are also added to
+   * the transition model that is used by {@link #planQ}. Existing Q matrices of
+   * the goals are refined further.
+   *
+   * @param logFiles         the locations of the logs
+   * @param goalDescriptions the desired goals, e.g. [[2,3],[3,2]], or [] for all
+   *                         the possible goals
+   * @param passesObj        the number of passes over the logs
+   * @param alphaObj         the learning rate with range [0,1].
+   * @param gammaObj         the discount factor [0,1]
+   * @param rewardObj        the reward assigned when reaching the goal state
+   **/
+  @OPERATION
+  public void trainFromLogs(Object[] logFiles, Object[] goalDescriptions, Object passesObj,
+      Object alphaObj, Object gammaObj, Object rewardObj) {
+    invalidatePolicies();
+    int passes = Integer.valueOf(passesObj.toString());
+    double alpha = Double.valueOf(alphaObj.toString());
+    double gamma = Double.valueOf(gammaObj.toString());
+    int reward = Integer.valueOf(rewardObj.toString());
+
+    List<Integer> trainedGoals = new ArrayList<>();
+    if (goalDescriptions.length == 0) {
+      for (int goal = 0; goal < goals.size(); goal++) {
+        trainedGoals.add(goal);
+      }
+    } else {
+      for (Object goalDescription : goalDescriptions) {
+        trainedGoals.add(this.goals.indexOf((Object[]) goalDescription));
+      }
+    }
+    for (int goal : trainedGoals) {
+      if (!ensureLoaded(goal)) {
+        qTables().create(goal);
+      }
+    }
+
+    long transitions = 0;
+    for (Object logFile : logFiles) {
+      try (TransitionLog.Reader reader = TransitionLog.Reader.open(Paths.get(logFile.toString()))) {
+        for (int pass = 0; pass < passes; pass++) {
+          reader.rewind();
+          while (reader.next()) {
+            int state = reader.getState();
+            int action = reader.getAction();
+            int nextState = reader.getNextState();
+            if (state < 0 || state >= stateCount || nextState < 0 || nextState >= stateCount
+                || action < 0 || action >= actionCount) {
+              continue;
+            }
+            if (pass == 0) {
+              observeTransition(state, action, nextState);
+            }
+
+            int[] nextActions = this.lab.getApplicableActionArray(nextState);
+            int nextGoal = goals.goalOf(nextState);
+            for (int goal : trainedGoals) {
+              double maxqsda = getMaxQSA(qTables(), goal, nextState, nextActions);
+              int calculatedReward = nextGoal == goal ? reward : 0;
+              qTables().update(goal, state, action, calculatedReward + gamma * maxqsda, alpha);
+            }
+            transitions++;
           }
-    switch (nextAction) {
-      case 0:
-        // Perform action for value 0
-        // 0
-        setZ1LightFalse(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-        System.out.println("Performing action setZ1LightFalse");
-        break;
-      case 1:
-        // Perform action for value 1
-        // 1
-        setZ1LightTrue(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-        System.out.println("Performing action setZ1LightTrue");
-        break;
-      case 2:
-        // Perform action for value 2
-        // 2
-        setZ2LightFalse(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-        System.out.println("Performing action setZ2LightFalse");
-        break;
-      case 3:
-        // Perform action for value 3
-        // 3
-        setZ2LightTrue(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-        System.out.println("Performing action setZ2LightTrue");
-        break;
-      case 4:
-        // Perform action for value 4
-        // 4
-        setZ1BlindsFalse(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-        System.out.println("Performing action setZ1BlindsFalse");
-        break;
-      case 5:
-        // Perform action for value 5
-
-        // 5
-        setZ1BlindsTrue(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-        System.out.println("Performing action setZ1BlindsTrue");
-        break;
-      case 6:
-        // Perform action for value 6
-        // 6
-        setZ2BlindsFalse(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-        System.out.println("Performing action setZ2BlindsFalse");
-        break;
-      case 7:
-        // Perform action for value 7
-        // 7
-        setZ2BlindsTrue(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-        System.out.println("Performing action setZ2BlindsTrue");
-        break;
-      default:
-        // Invalid index, output an error message
-        System.err.println("Invalid next action index: " + nextAction);
-        break;
+        }
+      } catch (IOException e) {
+        failed("Unable to read the transition log " + logFile + ": " + e.getMessage());
+        return;
+      }
     }
+    LOGGER.info("Trained " + trainedGoals.size() + " goals with " + transitions + " transitions");
 
+    try {
+      writeQTablesToFile();
+    } catch (IOException e) {
+      failed("Unable to write the qTables to " + FILENAME + ": " + e.getMessage());
+    }
   }
 
   /**
-   * self-made
-   */
+   * Computes the Q matrices of several goals with value iteration on a model of
+   * the transitions of the lab, without interacting with the lab (see
+   * {@link ValueIteration}). For a simulated lab, the model is sampled from the
+   * simulation; otherwise the model contains the transitions that have been
+   * observed while calculating Q matrices with {@link #calculateQ}. The goals are
+   * computed in parallel, and existing Q matrices of the goals are replaced.
+   * Labs whose Q matrices are stored sparsely (see {@link SparseQTableStore})
+   * cannot be planned, since the planning is dense in the states.
+   *
+   * @param goalDescriptions the desired goals, e.g. [[2,3],[3,2]], or [] for all
+   *                         the possible goals
+   * @param gammaObj         the discount factor [0,1)
+   * @param rewardObj        the reward assigned when reaching the goal state
+   **/
+  @OPERATION
+  public void planQ(Object[] goalDescriptions, Object gammaObj, Object rewardObj) {
+    invalidatePolicies();
+    double gamma = Double.valueOf(gammaObj.toString());
+    int reward = Integer.valueOf(rewardObj.toString());
+
+    if (stateCount > SPARSE_STATE_THRESHOLD) {
+      failed("The lab has too many states for planning: " + stateCount);
+      return;
+    }
+    if (this.lab instanceof SimulatedLab && this.simulatedModel == null) {
+      this.simulatedModel = TransitionModel.sample(new SimulatedLab(random.nextLong()), MODEL_SAMPLES);
+    }
+    TransitionModel model = this.lab instanceof SimulatedLab ? simulatedModel : transitionModel;
 
-  private int getMaxValueIndex(Integer currentState, double[] possibleActions) {
-    List<Integer> applicableActions = this.lab.getApplicableActions(currentState);
-    Random random = new Random();
-    int maxIndex = 0;
+    if (model == null || model.getObservationCount() == 0) {
+      failed("No transitions of the lab have been observed yet");
+      return;
+    }
 
-    double maxValue = possibleActions[applicableActions.get(0)];
+    List<Integer> plannedGoals = new ArrayList<>();
+    if (goalDescriptions.length == 0) {
+      for (int goal = 0; goal < goals.size(); goal++) {
+        plannedGoals.add(goal);
+      }
+    } else {
+      for (Object goalDescription : goalDescriptions) {
+        plannedGoals.add(this.goals.indexOf((Object[]) goalDescription));
+      }
+    }
+
+    int threads = Math.min(plannedGoals.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    Map<Integer, Future<double[]>> results = new LinkedHashMap<>();
+
+    for (int goal : plannedGoals) {
+      results.put(goal, executor.submit(() -> ValueIteration.solve(model, this.lab,
+          goals, goal, reward, gamma, 1e-6, 10000)));
+    }
+    executor.shutdown();
 
-    for (int i = 0; i < applicableActions.size(); i++) {
-      double checkingValue = possibleActions[applicableActions.get(i)];
-      if (possibleActions[applicableActions.get(i)] > maxValue) {
-        maxValue = possibleActions[applicableActions.get(i)];
-        maxIndex = applicableActions.get(i);
+    try {
+      for (Map.Entry<Integer, Future<double[]>> result : results.entrySet()) {
+        qTables().loadTable(result.getKey(), result.getValue().get());
       }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      failed("Interrupted while planning the goals");
+      return;
+    } catch (ExecutionException e) {
+      executor.shutdownNow();
+      failed("Unable to plan the goals: " + e.getCause());
+      return;
     }
-    if (maxValue == 0.0) {
-      Integer maxIndexHelper = random.nextInt(applicableActions.size());
-      maxIndex = applicableActions.get(maxIndexHelper);
+    LOGGER.info("-------------------------------- done -----------------------------------------");
+
+    try {
+      writeQTablesToFile();
+    } catch (IOException e) {
+      failed("Unable to write the qTables to " + FILENAME + ": " + e.getMessage());
     }
-    return maxIndex;
   }
 
+  /**
+   * Computes a Q matrix for a goal against a batch of simulated labs that are
+   * stepped in lockstep (see {@link VectorSimulatedLab}). In every step, an
+   * action is selected epsilon-greedily for each lab, and the Q matrix is updated
+   * with the transitions of all the labs. A lab that reaches the goal, or that
+   * exceeds {@link #MAX_EPISODE_STEPS}, completes its episode and is moved to a
+   * random state.
+   *
+   * @param goalDescription the desired goal against the which the Q matrix is
+   *                        calculated (e.g., [2,3])
+   * @param episodesObj     the number of episodes (summed over all the labs)
+   *                        used for calculating the Q matrix
+   * @param labsObj         the number of labs that are simulated in lockstep
+   * @param alphaObj        the learning rate with range [0,1].
+   * @param gammaObj        the discount factor [0,1]
+   * @param epsilonObj      the exploration probability [0,1]
+   * @param rewardObj       the reward assigned when reaching the goal state
+   **/
+  @OPERATION
+  public void calculateQBatched(Object[] goalDescription, Object episodesObj, Object labsObj,
+      Object alphaObj, Object gammaObj, Object epsilonObj, Object rewardObj) {
+    invalidatePolicies();
+    if (!checkSimulatable()) {
+      return;
+    }
+
+    // ensure that the right datatypes are used
+    int episodes = Integer.valueOf(episodesObj.toString());
+    int labs = Integer.valueOf(labsObj.toString());
+    double alpha = Double.valueOf(alphaObj.toString());
+    double gamma = Double.valueOf(gammaObj.toString());
+    double epsilon = Double.valueOf(epsilonObj.toString());
+    int reward = Integer.valueOf(rewardObj.toString());
+
+    int goal = this.goals.indexOf(goalDescription);
+
+    if (loadQTable(goal)) {
+      LOGGER.info("-------------------------------- oh, I already learnt this -----------------------------------------");
+      return;
+    }
+    qTables().create(goal);
+
+    VectorLearningEnvironment environment = new VectorSimulatedLab(labs, random.nextLong());
+    environment.setGoal(goal, reward);
+
+    int[] states = new int[labs];
+    int[] actions = new int[labs];
+    int[] nextStates = new int[labs];
+    double[] rewards = new double[labs];
+    int[] episodeSteps = new int[labs];
+    double[] episodeQDeltas = new double[labs];
+
+    environment.reset(states);
+    int completedEpisodes = 0;
+    long start = System.nanoTime();
+
+    while (completedEpisodes < episodes) {
+      for (int i = 0; i < labs; i++) {
+        int[] possibleActions = environment.getApplicableActionArray(states[i]);
+        boolean explored = random.nextDouble() <= epsilon;
+        if (!explored) {
+          actions[i] = getMaxValueIndex(qTables(), goal, states[i], possibleActions, random);
+        } else {
+          actions[i] = possibleActions[random.nextInt(possibleActions.length)];
+        }
+        metrics.recordStep(explored);
+      }
+
+      environment.step(actions, nextStates, rewards);
+
+      for (int i = 0; i < labs; i++) {
+        double maxqsda = getMaxQSA(qTables(), goal, nextStates[i],
+            environment.getApplicableActionArray(nextStates[i]));
+        double currentQsa = qTables().get(goal, states[i], actions[i]);
+        double newValue = qTables().update(goal, states[i], actions[i], rewards[i] + gamma * maxqsda, alpha);
+        episodeQDeltas[i] += Math.abs(newValue - currentQsa);
+
+        if (rewards[i] == reward || ++episodeSteps[i] >= MAX_EPISODE_STEPS) {
+          completedEpisodes++;
+          metrics.recordEpisode(episodeSteps[i] + (rewards[i] == reward ? 1 : 0), episodeQDeltas[i]);
+          episodeSteps[i] = 0;
+          episodeQDeltas[i] = 0;
+          states[i] = environment.reset(i);
+        } else {
+          states[i] = nextStates[i];
+        }
+      }
+    }
+    metrics.recordTrainingTime(System.nanoTime() - start);
+    LOGGER.info("-------------------------------- done -----------------------------------------");
+    publishMetrics();
+
+    try {
+      writeQTablesToFile();
+    } catch (IOException e) {
+      failed("Unable to write the qTables to " + FILENAME + ": " + e.getMessage());
+    }
+  }
 
   /**
-   * selfmade
+   * Learns the Q matrix of a goal by interacting with a learning environment. Each
+   * episode starts from a random state, and ends when the goal is reached, or
+   * after {@link #MAX_EPISODE_STEPS} steps for goals that cannot be reached.
+   * In the multi-goal mode, the Q matrices of all the created goals of the store
+   * are updated with every transition, and the goal that is pursued rotates
+   * from one episode to the next, starting with the given goal.
+   *
+   * @param environment the environment to interact with
+   * @param store       the store of the Q matrix, which must exist for the goal
+   * @param goal        the goal
+   * @param allGoals    true for updating the Q matrices of all the goals
+   * @param episodes    the number of episodes
+   * @param alpha       the learning rate
+   * @param gamma       the discount factor
+   * @param epsilon     the exploration probability
+   * @param reward      the reward assigned when reaching the goal state
+   * @param random      the source of randomness of the exploration
+   * @return true if all the episodes were learnt, false if the learning stopped
+   *         because the state of the environment could not be read
    */
-  private static String arrayToString(double[] array) {
-    StringBuilder sb = new StringBuilder();
-    for (double value : array) {
-        sb.append(value).append(", ");
+  private boolean learnQTable(LearningEnvironment environment, QTableStore store, int goal,
+      boolean allGoals, int episodes, double alpha, double gamma, double epsilon, int reward,
+      Random random) {
+    ReplayBuffer replay = replayCapacity > 0 ? new ReplayBuffer(replayCapacity, prioritizedReplay) : null;
+    int currentState = environment.readCurrentState();
+    if (currentState < 0) {
+      return false;
     }
-    // Remove the trailing comma and space
-    if (array.length > 0) {
-        sb.setLength(sb.length() - 2);
+    int pursuedGoal = goal;
+    for (int i = 0; i < episodes; i++) {
+      LOGGER.fine("-------------------------------- new Episode -----------------------------------------");
+      long start = System.nanoTime();
+      int length = 0;
+      double qDelta = 0;
+      if (allGoals) {
+        pursuedGoal = (goal + i) % store.getGoalCount();
+      }
+      // intialize S, the random actions only need to be observed once settled
+      for (int j = 0; j < 1000; j++) {
+        int[] possibleActions = environment.getApplicableActionArray(currentState);
+        int randomAction = possibleActions[random.nextInt(possibleActions.length)];
+        environment.performAction(randomAction);
+      }
+      environment.awaitSettled(50);
+      currentState = environment.readCurrentState();
+      if (currentState < 0) {
+        return false;
+      }
+      // the transition whose Q update is deferred in the pipelined mode
+      int deferredState = -1;
+      int deferredAction = -1;
+      int deferredNewState = -1;
+      int deferredReward = 0;
+      for (int step = 0; step < MAX_EPISODE_STEPS; step++) {
+        int[] possibleActions = environment.getApplicableActionArray(currentState);
+        double randomNumber = random.nextDouble();
+        int chosenAction = possibleActions[random.nextInt(possibleActions.length)];
+        if (randomNumber > epsilon) {
+          chosenAction = getMaxValueIndex(store, pursuedGoal, currentState, possibleActions, random);
+        }
+        metrics.recordStep(randomNumber <= epsilon);
+        length++;
+        if (pipelined) {
+          CompletableFuture<Void> performed = environment.performActionAsync(chosenAction);
+          if (deferredAction >= 0) {
+            qDelta += updateQ(environment, store, goal, pursuedGoal, allGoals, deferredState,
+                deferredAction, deferredNewState, deferredReward, alpha, gamma, reward, replay, random);
+            deferredAction = -1;
+          }
+          performed.join();
+        } else {
+          environment.performAction(chosenAction);
+        }
+        environment.awaitSettled(50);
+        int newState = environment.readCurrentState();
+        if (newState < 0) {
+          return false;
+        }
+        if (environment == this.lab) {
+          observeTransition(currentState, chosenAction, newState);
+        }
+        int calculatedReward = checkforReward(pursuedGoal, newState, reward);
+        // the next action is chosen by the Q values of the new state, so the
+        // update cannot be deferred if it changes them
+        if (pipelined && newState != currentState && calculatedReward != reward) {
+          deferredState = currentState;
+          deferredAction = chosenAction;
+          deferredNewState = newState;
+          deferredReward = calculatedReward;
+        } else {
+          qDelta += updateQ(environment, store, goal, pursuedGoal, allGoals, currentState,
+              chosenAction, newState, calculatedReward, alpha, gamma, reward, replay, random);
+        }
+        currentState = newState;
+        if (calculatedReward == reward) {
+          break;
+        }
+      }
+      if (deferredAction >= 0) {
+        qDelta += updateQ(environment, store, goal, pursuedGoal, allGoals, deferredState,
+            deferredAction, deferredNewState, deferredReward, alpha, gamma, reward, replay, random);
+      }
+      metrics.recordEpisode(length, qDelta);
+      metrics.recordTrainingTime(System.nanoTime() - start);
     }
-    return sb.toString();
-}
+    return true;
+  }
 
   /**
-   * self-made
-   * 
-   * @param nextBestActionTag
-   * @param nextBestActionPayloadTags
-   * @param nextBestActionPayload
+   * Learns the factored Q function of a goal in episodes against the lab, in
+   * the same way as {@link #learnQTable}: an episode starts from a random
+   * state, and ends when the goal is reached. The actions are chosen by the
+   * sum of the Q components of the zones. Unlike {@link #learnQTable}, the
+   * transitions are not observed by the transition model of the joint state
+   * space, and are neither replayed nor pipelined (see
+   * {@link #configureFactoring}).
+   *
+   * @param goal     the goal
+   * @param episodes the number of episodes
+   * @param alpha    the learning rate
+   * @param gamma    the discount factor
+   * @param epsilon  the exploration probability
+   * @param reward   the reward assigned when reaching the goal state
+   * @return true if all the episodes were learnt, false if the learning stopped
+   *         because the state of the lab could not be read
    */
-  private void setZ1LightTrue(OpFeedbackParam<String> nextBestActionTag,
-      OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-      OpFeedbackParam<Object[]> nextBestActionPayload) {
-    // sets the semantic annotation of the next best action to be returned
-    nextBestActionTag.set("http://example.org/was#SetZ1Light");
+  private boolean learnFactoredQ(int goal, int episodes, double alpha, double gamma,
+      double epsilon, int reward) {
+    int currentState = this.lab.readCurrentState();
+    if (currentState < 0) {
+      return false;
+    }
+    for (int i = 0; i < episodes; i++) {
+      LOGGER.fine("-------------------------------- new Episode -----------------------------------------");
+      long start = System.nanoTime();
+      int length = 0;
+      double qDelta = 0;
+      // intialize S, the random actions only need to be observed once settled
+      for (int j = 0; j < 1000; j++) {
+        int[] possibleActions = this.lab.getApplicableActionArray(currentState);
+        this.lab.performAction(possibleActions[random.nextInt(possibleActions.length)]);
+      }
+      this.lab.awaitSettled(50);
+      currentState = this.lab.readCurrentState();
+      if (currentState < 0) {
+        return false;
+      }
+      for (int step = 0; step < MAX_EPISODE_STEPS; step++) {
+        int[] possibleActions = this.lab.getApplicableActionArray(currentState);
+        double randomNumber = random.nextDouble();
+        int chosenAction = possibleActions[random.nextInt(possibleActions.length)];
+        if (randomNumber > epsilon) {
+          // as in getMaxValueIndex, the action stays random while nothing is learnt
+          int greedyAction = factoredQ.argmax(goal, currentState, possibleActions);
+          if (factoredQ.get(goal, currentState, greedyAction) != 0.0) {
+            chosenAction = greedyAction;
+          }
+        }
+        metrics.recordStep(randomNumber <= epsilon);
+        length++;
+        this.lab.performAction(chosenAction);
+        this.lab.awaitSettled(50);
+        int newState = this.lab.readCurrentState();
+        if (newState < 0) {
+          return false;
+        }
+        qDelta += factoredQ.update(goal, currentState, chosenAction, newState, reward, alpha, gamma);
+        currentState = newState;
+        if (checkforReward(goal, newState, reward) == reward) {
+          break;
+        }
+      }
+      metrics.recordEpisode(length, qDelta);
+      metrics.recordTrainingTime(System.nanoTime() - start);
+    }
+    return true;
+  }
 
-    // sets the semantic annotation of the payload of the next best action to be
-    // returned
-    Object payloadTags[] = { "Z1Light" };
-    nextBestActionPayloadTags.set(payloadTags);
+  /**
+   * Updates the Q matrix of a goal, or the Q matrices of all the goals, with an
+   * observed transition, and replays earlier transitions if experience replay
+   * is enabled.
+   *
+   * @param environment      the environment of the transition
+   * @param store            the store of the Q matrices
+   * @param goal             the goal that is learnt in the single-goal mode
+   * @param pursuedGoal      the goal that is pursued in the episode
+   * @param allGoals         true for updating the Q matrices of all the goals
+   * @param state            the state before the action
+   * @param action           the performed action
+   * @param newState         the state after the action
+   * @param calculatedReward the reward of the transition for the pursued goal
+   * @param alpha            the learning rate
+   * @param gamma            the discount factor
+   * @param reward           the reward assigned when reaching the goal state
+   * @param replay           the replay buffer, or null
+   * @param random           the source of randomness of the replay
+   * @return the absolute change of the Q value of the pursued goal
+   */
+  private double updateQ(LearningEnvironment environment, QTableStore store, int goal,
+      int pursuedGoal, boolean allGoals, int state, int action, int newState, int calculatedReward,
+      double alpha, double gamma, int reward, ReplayBuffer replay, Random random) {
+    int[] nextActions = environment.getApplicableActionArray(newState);
+    double currentQsa = store.get(pursuedGoal, state, action);
+    if (allGoals) {
+      store.updateAllGoals(state, action, newState, nextActions, this.goals.goalOf(newState),
+          reward, alpha, gamma);
+    } else {
+      double maxqsda = getMaxQSA(store, goal, newState, nextActions);
+      double newValue = currentQsa + alpha * ((calculatedReward + gamma * maxqsda) - currentQsa);
+      // LOGGER.info("newValue: " + newValue);
+      store.set(goal, state, action, newValue);
+    }
+    double qDelta = Math.abs(store.get(pursuedGoal, state, action) - currentQsa);
+    if (replay != null) {
+      replay.add(state, action, calculatedReward, newState);
+      replayTransitions(environment, store, pursuedGoal, allGoals, replay, alpha, gamma, reward,
+          random);
+    }
+    return qDelta;
+  }
 
-    // sets the payload of the next best action to be returned
-    Object payload[] = { true };
-    nextBestActionPayload.set(payload);
+  /**
+   * Reads the current state of the lab, and returns the values of its goal
+   * axes, e.g. the light levels [z1Level, z2Level]
+   *
+   * @param currentStateTag the (returned) values of the goal axes, e.g. [2,3]
+   **/
+  @OPERATION
+  public void getCurrentState(OpFeedbackParam<Integer[]> currentStateTag) {
+    int state = this.lab.readCurrentState();
+    if (state < 0) {
+      failed("The state of the lab could not be read");
+      return;
+    }
+    currentStateTag.set(this.goals.describe(this.goals.goalOf(state)).toArray(new Integer[0]));
   }
 
   /**
-   * self-made
-   * 
-   * @param nextBestActionTag
-   * @param nextBestActionPayloadTags
-   * @param nextBestActionPayload
+   * Reads the current state of the lab, and returns the values of all its
+   * axes, with the status of the devices as booleans
+   *
+   * @param currentStateTag the (returned) values of the axes, e.g.
+   *                        [2,2,true,false,true,true,2]
+   **/
+  @OPERATION
+  public void getCurrentFullState(OpFeedbackParam<Object[]> currentStateTag) {
+    int state = this.lab.readCurrentState();
+    if (state < 0) {
+      failed("The state of the lab could not be read");
+      return;
+    }
+    currentStateTag.set(this.lab.describeState(state));
+  }
+
+  /**
+   * Fails the operation if the lab is learnt as a {@link TDEnvironment}, since
+   * only the lab can be simulated in-process
+   *
+   * @return true if the lab can be simulated
    */
-  private void setZ1LightFalse(OpFeedbackParam<String> nextBestActionTag,
-      OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-      OpFeedbackParam<Object[]> nextBestActionPayload) {
-    // sets the semantic annotation of the next best action to be returned
-    nextBestActionTag.set("http://example.org/was#SetZ1Light");
+  private boolean checkSimulatable() {
+    if (!(this.lab instanceof Lab)) {
+      failed("Only the lab can be simulated, the environment must be learnt with calculateQ");
+      return false;
+    }
+    return true;
+  }
 
-    // sets the semantic annotation of the payload of the next best action to be
-    // returned
-    Object payloadTags[] = { "Z1Light" };
-    nextBestActionPayloadTags.set(payloadTags);
+  /**
+   * Adds an observed transition of the lab to the transition model that is used
+   * by {@link #planQ}, creating the model first if needed. The transitions of
+   * labs whose qTables are stored sparsely are not modelled, since the model
+   * and the planning are dense in the states.
+   */
+  private void observeTransition(int state, int action, int nextState) {
+    if (stateCount > SPARSE_STATE_THRESHOLD) {
+      return;
+    }
+    if (this.transitionModel == null) {
+      this.transitionModel = new TransitionModel(stateCount, actionCount);
+    }
+    this.transitionModel.observe(state, action, nextState);
+  }
 
-    // sets the payload of the next best action to be returned
-    Object payload[] = { false };
-    nextBestActionPayload.set(payload);
+  /**
+   * Returns the store for the qTables of all the goals, creating it when it is
+   * first used, so that it is not allocated in the factored mode (see
+   * {@link #configureFactoring})
+   *
+   * @return the store
+   */
+  private QTableStore qTables() {
+    if (this.qTables == null) {
+      this.qTables = createQTableStore();
+      LOGGER.info("Storing the qTables in a " + qTables.getClass().getSimpleName());
+    }
+    return this.qTables;
   }
 
   /**
-   * self-made
-   * 
-   * @param nextBestActionTag
-   * @param nextBestActionPayloadTags
-   * @param nextBestActionPayload
+   * Creates a store for the qTables of all the goals, which only allocates the
+   * visited states if the state space is too large for dense qTables
+   *
+   * @return the store
    */
-  private void setZ2LightFalse(OpFeedbackParam<String> nextBestActionTag,
-      OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-      OpFeedbackParam<Object[]> nextBestActionPayload) {
-    // sets the semantic annotation of the next best action to be returned
-    nextBestActionTag.set("http://example.org/was#SetZ2Light");
+  private QTableStore createQTableStore() {
+    if (stateCount > SPARSE_STATE_THRESHOLD) {
+      return new SparseQTableStore(goals.size(), stateCount, actionCount, MAX_SPARSE_ROWS);
+    }
+    return new FlatQTableStore(goals.size(), stateCount, actionCount);
+  }
 
-    // sets the semantic annotation of the payload of the next best action to be
-    // returned
-    Object payloadTags[] = { "Z2Light" };
-    nextBestActionPayloadTags.set(payloadTags);
+  /**
+   * Closes the transition log, and unregisters the metrics from JMX
+   */
+  @Override
+  protected void dispose() {
+    closeTransitionLog();
+    Metrics.unregister(metricsName);
+  }
 
-    // sets the payload of the next best action to be returned
-    Object payload[] = { false };
-    nextBestActionPayload.set(payload);
+  /**
+   * Publishes a snapshot of the learning metrics as observable properties of
+   * the artifact. The properties are defined the first time they are published.
+   */
+  private void publishMetrics() {
+    Object[][] properties = {
+      {"trainingSteps", metrics.getSteps()},
+      {"episodes", metrics.getEpisodes()},
+      {"stepsPerSecond", metrics.getStepsPerSecond()},
+      {"meanEpisodeLength", metrics.getMeanEpisodeLength()},
+      {"lastEpisodeQDelta", metrics.getLastEpisodeQDelta()},
+      {"explorationRatio", metrics.getExplorationRatio()},
+      {"qTableCacheHitRate", metrics.getQTableCacheHitRate()},
+      {"startupMillis", metrics.getStartupMillis()}
+    };
+
+    for (Object[] property : properties) {
+      if (metricsPublished) {
+        updateObsProperty((String) property[0], property[1]);
+      } else {
+        defineObsProperty((String) property[0], property[1]);
+      }
+    }
+    metricsPublished = true;
+  }
+
+  private void closeTransitionLog() {
+    if (this.transitionLog == null) {
+      return;
+    }
+
+    ((Lab) this.lab).setTransitionLog(null);
+    try {
+      this.transitionLog.close();
+    } catch (IOException e) {
+      LOGGER.severe("Unable to close the transition log: " + e.getMessage());
+    }
+    this.transitionLog = null;
   }
 
   /**
-   * self-made
-   * 
-   * @param nextBestActionTag
-   * @param nextBestActionPayloadTags
-   * @param nextBestActionPayload
+   * Opens the file of the persisted qTables. If the file does not exist yet,
+   * the qTables that were serialized by earlier versions are imported.
    */
-  private void setZ2LightTrue(OpFeedbackParam<String> nextBestActionTag,
-      OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-      OpFeedbackParam<Object[]> nextBestActionPayload) {
-    // sets the semantic annotation of the next best action to be returned
-    nextBestActionTag.set("http://example.org/was#SetZ2Light");
+  private void openQTableFile() {
+    Path path = Paths.get(FILENAME);
+    Path legacyPath = Paths.get(LEGACY_FILENAME);
+
+    try {
+      if (!Files.exists(path) && Files.exists(legacyPath)) {
+        int count = QTableImporter.importSerialized(legacyPath, qTables(), goals);
+        LOGGER.info("Imported " + count + " qTables from " + LEGACY_FILENAME);
+        QTableFile.write(path, qTables());
+      }
 
-    // sets the semantic annotation of the payload of the next best action to be
-    // returned
-    Object payloadTags[] = { "Z2Light" };
-    nextBestActionPayloadTags.set(payloadTags);
+      if (Files.exists(path)) {
+        QTableFile file = QTableFile.open(path);
+        if (file.isCompatibleWith(goals.size(), stateCount, actionCount)) {
+          this.qTableFile = file;
+        } else {
+          LOGGER.warning("Ignoring " + FILENAME + ": it was written for another lab environment");
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.severe("Unable to read the qTables from " + FILENAME + ": " + e.getMessage());
+    }
+  }
 
-    // sets the payload of the next best action to be returned
-    Object payload[] = { true };
-    nextBestActionPayload.set(payload);
+  /**
+   * Makes sure that the qTable of a goal that an agent asked for is in the
+   * store, and records whether it was already in the store
+   *
+   * @return true if the qTable of the goal is available
+   */
+  private boolean loadQTable(int goal) {
+    if (qTables().contains(goal)) {
+      metrics.recordQTableHit();
+      return true;
+    }
+    metrics.recordQTableMiss();
+    return ensureLoaded(goal);
   }
 
   /**
-   * self-made
-   * 
-   * @param nextBestActionTag
-   * @param nextBestActionPayloadTags
-   * @param nextBestActionPayload
+   * Makes sure that the qTable of a goal is in the store, loading it from the
+   * file of the persisted qTables if needed
+   *
+   * @return true if the qTable of the goal is available
    */
-  private void setZ1BlindsTrue(OpFeedbackParam<String> nextBestActionTag,
-      OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-      OpFeedbackParam<Object[]> nextBestActionPayload) {
-    // sets the semantic annotation of the next best action to be returned
-    nextBestActionTag.set("http://example.org/was#SetZ1Blinds");
+  private boolean ensureLoaded(int goal) {
+    if (qTables().contains(goal)) {
+      return true;
+    }
 
-    // sets the semantic annotation of the payload of the next best action to be
-    // returned
-    Object payloadTags[] = { "Z1Blinds" };
-    nextBestActionPayloadTags.set(payloadTags);
+    if (qTableFile != null && qTableFile.contains(goal)) {
+      try {
+        qTableFile.load(goal, qTables());
+        return true;
+      } catch (IOException e) {
+        LOGGER.severe("Unable to load the qTable of goal " + goals.describe(goal) + ": "
+            + e.getMessage());
+      }
+    }
+    return false;
+  }
 
-    // sets the payload of the next best action to be returned
-    Object payload[] = { true };
-    nextBestActionPayload.set(payload);
+  /**
+   * Returns the compiled greedy policy of a goal, whose qTable must be in the
+   * store, compiling it if the qTable changed since it was last compiled
+   */
+  private CompiledPolicy getPolicy(int goal) {
+    if (policies[goal] == null) {
+      policies[goal] = stateCount > SPARSE_STATE_THRESHOLD
+          ? CompiledPolicy.compileVisited(qTables(), goal, lab)
+          : CompiledPolicy.compile(qTables(), goal, lab);
+    }
+    return policies[goal];
   }
 
   /**
-   * self-made
-   * 
-   * @param nextBestActionTag
-   * @param nextBestActionPayloadTags
-   * @param nextBestActionPayload
+   * Discards the compiled policies, before the qTables are updated
    */
-  private void setZ1BlindsFalse(OpFeedbackParam<String> nextBestActionTag,
-      OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-      OpFeedbackParam<Object[]> nextBestActionPayload) {
-    // sets the semantic annotation of the next best action to be returned
-    nextBestActionTag.set("http://example.org/was#SetZ1Blinds");
+  private void invalidatePolicies() {
+    Arrays.fill(policies, null);
+  }
 
-    // sets the semantic annotation of the payload of the next best action to be
-    // returned
-    Object payloadTags[] = { "Z1Blinds" };
-    nextBestActionPayloadTags.set(payloadTags);
+  /**
+   * Writes the qTables of all goals to the file of the persisted qTables
+   */
+  private void writeQTablesToFile() throws IOException {
+    // the goals that have not been loaded from the file yet are copied from it
+    Path path = Paths.get(FILENAME);
+    QTableFile previous = this.qTableFile;
+    this.qTableFile = null;
+    QTableFile.write(path, qTables(), previous);
+    this.qTableFile = QTableFile.open(path);
+    LOGGER.info("QTables successfully written to file: " + FILENAME);
+  }
 
-    // sets the payload of the next best action to be returned
-    Object payload[] = { false };
-    nextBestActionPayload.set(payload);
+  /**
+   * Replays transitions sampled from a replay buffer for additional Q updates.
+   * The priorities of the transitions follow the errors of the pursued goal.
+   */
+  private void replayTransitions(LearningEnvironment environment, QTableStore store, int goal,
+      boolean allGoals, ReplayBuffer replay, double alpha, double gamma, int reward, Random random) {
+    for (int i = 0; i < replayUpdates; i++) {
+      int sample = replay.sample(random);
+      int state = replay.getState(sample);
+      int action = replay.getAction(sample);
+      int nextState = replay.getNextState(sample);
+      int[] nextActions = environment.getApplicableActionArray(nextState);
+
+      double maxqsda = getMaxQSA(store, goal, nextState, nextActions);
+      double sampleReward = !allGoals ? replay.getReward(sample)
+          : this.goals.goalOf(nextState) == goal ? reward : 0;
+      double target = sampleReward + gamma * maxqsda;
+      double tdError = target - store.get(goal, state, action);
+      if (allGoals) {
+        store.updateAllGoals(state, action, nextState, nextActions, this.goals.goalOf(nextState),
+            reward, alpha, gamma);
+      } else {
+        store.update(goal, state, action, target, alpha);
+      }
+      replay.updatePriority(sample, tdError);
+    }
   }
 
   /**
-   * self-made
-   * 
-   * @param nextBestActionTag
-   * @param nextBestActionPayloadTags
-   * @param nextBestActionPayload
+   * selfmade
    */
-  private void setZ2BlindsFalse(OpFeedbackParam<String> nextBestActionTag,
-      OpFeedbackParam<Object[]> nextBestActionPayloadTags,
+  private int checkforReward(int goal, int state, int reward) {
+    if (this.goals.goalOf(state) == goal) {
+      LOGGER.fine("++++++++++++++++++++++++++successful+++++++++++++++++++++++++++++");
+      return reward;
+    } else {
+      return 0;
+    }
+  }
+
+  /**
+   * selfmade
+   */
+  private double getMaxQSA(QTableStore store, int goal, int currentState, int[] possibleActions) {
+    return Math.max(0.0, store.rowMax(goal, currentState, possibleActions));
+  }
+
+  /**
+   * Returns information about the next best action based on a provided state and
+   * the QTable for
+   * a goal description. The returned information can be used by agents to invoke
+   * an action
+   * using a ThingArtifact.
+   * <p>
+   * The action is selected by the compiled greedy policy of the goal (see
+   * {@link CompiledPolicy}), or by the factored Q function in the factored mode
+   * (see {@link #configureFactoring}), or randomly with the probability
+   * configured by {@link #configureExploration}.
+   * </p>
+   *
+   * @param goalDescription           the desired goal against the which the Q
+   *                                  matrix is calculated (e.g., [2,3])
+   * @param currentStateDescription   the current state e.g.
+   *                                  [2,2,true,false,true,true,2]
+   * @param nextBestActionTag         the (returned) semantic annotation of the
+   *                                  next best action, e.g.
+   *                                  "http://example.org/was#SetZ1Light"
+   * @param nextBestActionPayloadTags the (returned) semantic annotations of the
+   *                                  payload of the next best action, e.g.
+   *                                  [Z1Light]
+   * @param nextBestActionPayload     the (returned) payload of the next best
+   *                                  action, e.g. true
+   **/
+  @OPERATION
+  public void getActionFromState(Object[] goalDescription, Object[] currentStateDescription,
+      OpFeedbackParam<String> nextBestActionTag, OpFeedbackParam<Object[]> nextBestActionPayloadTags,
       OpFeedbackParam<Object[]> nextBestActionPayload) {
-    // sets the semantic annotation of the next best action to be returned
-    nextBestActionTag.set("http://example.org/was#SetZ2Blinds");
 
-    // sets the semantic annotation of the payload of the next best action to be
-    // returned
-    Object payloadTags[] = { "Z2Blinds" };
-    nextBestActionPayloadTags.set(payloadTags);
+    int goal = this.goals.indexOf(goalDescription);
+    boolean factored = this.factoredQ != null;
+    if (factored ? !this.factoredGoals.get(goal) : !loadQTable(goal)) {
+      failed("No Q matrix has been calculated for the goal " + Arrays.toString(goalDescription));
+      return;
+    }
 
-    // sets the payload of the next best action to be returned
-    Object payload[] = { false };
-    nextBestActionPayload.set(payload);
+    int state = this.lab.encodeState(currentStateDescription);
+    if (state < 0) {
+      failed("Invalid state description " + Arrays.toString(currentStateDescription));
+      return;
+    }
+
+    int nextAction;
+    if (inferenceEpsilon > 0 && random.nextDouble() < inferenceEpsilon) {
+      int[] applicableActions = this.lab.getApplicableActionArray(state);
+      nextAction = applicableActions.length == 0 ? -1
+          : applicableActions[random.nextInt(applicableActions.length)];
+    } else if (factored) {
+      nextAction = this.factoredQ.argmax(goal, state, this.lab.getApplicableActionArray(state));
+    } else {
+      nextAction = getPolicy(goal).actionFor(state);
+    }
+    if (nextAction < 0) {
+      failed("No action is applicable in the state " + Arrays.toString(currentStateDescription));
+      return;
+    }
+
+    ActionDescriptor descriptor = this.actionDescriptors[nextAction];
+    if (LOGGER.isLoggable(Level.FINE)) {
+      LOGGER.fine("Performing action " + descriptor);
+    }
+    nextBestActionTag.set(descriptor.getActionTag());
+    nextBestActionPayloadTags.set(descriptor.getPayloadTags());
+    nextBestActionPayload.set(descriptor.getPayload());
   }
 
   /**
    * self-made
-   * 
-   * @param nextBestActionTag
-   * @param nextBestActionPayloadTags
-   * @param nextBestActionPayload
    */
-  private void setZ2BlindsTrue(OpFeedbackParam<String> nextBestActionTag,
-      OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-      OpFeedbackParam<Object[]> nextBestActionPayload) {
-    // sets the semantic annotation of the next best action to be returned
-    nextBestActionTag.set("http://example.org/was#SetZ2Blinds");
 
-    // sets the semantic annotation of the payload of the next best action to be
-    // returned
-    Object payloadTags[] = { "Z2Blinds" };
-    nextBestActionPayloadTags.set(payloadTags);
+  private int getMaxValueIndex(QTableStore store, int goal, int currentState,
+      int[] applicableActions, Random random) {
+    int maxIndex = store.rowArgmax(goal, currentState, applicableActions);
 
-    // sets the payload of the next best action to be returned
-    Object payload[] = { true };
-    nextBestActionPayload.set(payload);
+    double maxValue = store.get(goal, currentState, maxIndex);
+    if (maxValue == 0.0) {
+      int maxIndexHelper = random.nextInt(applicableActions.length);
+      maxIndex = applicableActions[maxIndexHelper];
+    }
+    return maxIndex;
   }
 
+
   /**
-   * Print the Q matrix
-   *
-   * @param qTable the Q matrix
+   * selfmade
    */
-  void printQTable(double[][] qTable) {
-    System.out.println("Q matrix");
-    for (int i = 0; i < qTable.length; i++) {
-      System.out.print("From state " + i + ":  ");
-      for (int j = 0; j < qTable[i].length; j++) {
-        System.out.printf("%6.2f ", (qTable[i][j]));
-      }
-      System.out.println();
+  private static String arrayToString(double[] array) {
+    StringBuilder sb = new StringBuilder();
+    for (double value : array) {
+        sb.append(value).append(", ");
     }
-  }
+    // Remove the trailing comma and space
+    if (array.length > 0) {
+        sb.setLength(sb.length() - 2);
+    }
+    return sb.toString();
+}
 
   /**
-   * Initialize a Q matrix
+   * Print the Q matrix
    *
-   * @return the Q matrix
+   * @param goal the goal of the Q matrix
    */
-  private double[][] initializeQTable() {
-    double[][] qTable = new double[this.stateCount][this.actionCount];
+  void printQTable(int goal) {
+    System.out.println("Q matrix");
     for (int i = 0; i < stateCount; i++) {
+      System.out.print("From state " + i + ":  ");
       for (int j = 0; j < actionCount; j++) {
-        qTable[i][j] = 0.0;
+        System.out.printf("%6.2f ", qTables().get(goal, i, j));
       }
+      System.out.println();
     }
-    return qTable;
   }
 }
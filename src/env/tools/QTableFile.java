@@ -0,0 +1,438 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * A versioned binary file of Q matrices, whose Q matrices are read one goal
+ * at a time.
+ * <p>
+ * The file starts with a header, followed by a directory with one entry per
+ * stored goal, followed by the Q matrices of the goals. Only the rows that may
+ * have non-zero values are stored (see {@link QTableStore#rows(int)}), so the
+ * size of the file grows with the visited states rather than with the state
+ * space:
+ * </p>
+ * <pre>
+ * header:    magic "QTBL" (int), version (int), goalCount (int),
+ *            stateCount (int), actionCount (int), entryCount (int)
+ * directory: entryCount x [goal (int), rowCount (int), offset (long), crc32 (long)]
+ * tables:    entryCount x rowCount x [state (long), actionCount doubles]
+ * </pre>
+ * <p>
+ * Files of version 1, whose directory entries have no row count and whose
+ * tables have all the rows without their states, can still be read. The table
+ * of a goal is only checked against its checksum when it is read. Files are
+ * written to a temporary file first, which is then renamed, so readers never
+ * see a partially written file. Opening a file only reads its header and its
+ * directory, and no file handle or mapping is kept open afterwards, so that a
+ * file can be replaced while it is open, also on Windows.
+ * </p>
+ */
+public final class QTableFile {
+
+  private static final int MAGIC = 0x5154424C; // "QTBL"
+  private static final int VERSION = 2;
+  private static final int DENSE_VERSION = 1;
+  private static final int HEADER_SIZE = 6 * Integer.BYTES;
+  private static final int ENTRY_SIZE = 2 * Integer.BYTES + 2 * Long.BYTES;
+  private static final int DENSE_ENTRY_SIZE = Integer.BYTES + 2 * Long.BYTES;
+  private static final int CHUNK_SIZE = 1 << 16; // the bytes that are written at once
+
+  private final Path path;
+  private final int version;
+  private final int goalCount;
+  private final int stateCount;
+  private final int actionCount;
+  private final int[] rowCounts;
+  private final long[] checksums;
+
+  /**
+   * The offset of the table of each goal in the file, or -1 if the goal is not
+   * stored
+   */
+  private final long[] offsets;
+
+  private QTableFile(Path path, FileChannel channel) throws IOException {
+    this.path = path;
+
+    long fileSize = channel.size();
+    if (fileSize < HEADER_SIZE) {
+      throw new IOException("Not a Q-table file: " + path);
+    }
+    ByteBuffer header = read(channel, 0, HEADER_SIZE);
+    if (header.getInt(0) != MAGIC) {
+      throw new IOException("Not a Q-table file: " + path);
+    }
+    this.version = header.getInt(4);
+    if (version != VERSION && version != DENSE_VERSION) {
+      throw new IOException("Unsupported Q-table file version " + version + ": " + path);
+    }
+
+    this.goalCount = header.getInt(8);
+    this.stateCount = header.getInt(12);
+    this.actionCount = header.getInt(16);
+    int entryCount = header.getInt(20);
+
+    int entrySize = version == VERSION ? ENTRY_SIZE : DENSE_ENTRY_SIZE;
+    if (entryCount < 0 || fileSize < HEADER_SIZE + (long) entryCount * entrySize) {
+      throw new IOException("Truncated Q-table file: " + path);
+    }
+    if ((long) entryCount * entrySize > Integer.MAX_VALUE) {
+      throw new IOException("Corrupt directory in Q-table file: " + path);
+    }
+    ByteBuffer directory = read(channel, HEADER_SIZE, entryCount * entrySize);
+
+    this.rowCounts = new int[goalCount];
+    this.checksums = new long[goalCount];
+    this.offsets = new long[goalCount];
+    Arrays.fill(offsets, -1);
+
+    for (int i = 0; i < entryCount; i++) {
+      int entry = i * entrySize;
+      int goal = directory.getInt(entry);
+      int rowCount;
+      long offset;
+      long checksum;
+      if (version == VERSION) {
+        rowCount = directory.getInt(entry + Integer.BYTES);
+        offset = directory.getLong(entry + 2 * Integer.BYTES);
+        checksum = directory.getLong(entry + 2 * Integer.BYTES + Long.BYTES);
+      } else {
+        rowCount = stateCount;
+        offset = directory.getLong(entry + Integer.BYTES);
+        checksum = directory.getLong(entry + Integer.BYTES + Long.BYTES);
+      }
+
+      long tableBytes = (long) rowCount * rowBytes();
+      if (goal < 0 || goal >= goalCount || rowCount < 0 || offset < 0
+          || offset + tableBytes > fileSize) {
+        throw new IOException("Corrupt directory entry " + i + " in Q-table file: " + path);
+      }
+      if (tableBytes > Integer.MAX_VALUE) {
+        throw new IOException("The Q matrix of goal " + goal + " is too large to be read: " + path);
+      }
+      rowCounts[goal] = rowCount;
+      checksums[goal] = checksum;
+      offsets[goal] = offset;
+    }
+  }
+
+  /**
+   * Opens a Q-table file. Only the header and the directory are read, and the
+   * file is closed again.
+   *
+   * @param path the location of the file
+   * @return the opened file
+   * @throws IOException if the file cannot be read or is not a valid Q-table file
+   */
+  public static QTableFile open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new QTableFile(path, channel);
+    }
+  }
+
+  /**
+   * Writes the Q matrices of a store to a file, replacing the file atomically
+   *
+   * @param path the location of the file
+   * @param store the store of the Q matrices
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(Path path, QTableStore store) throws IOException {
+    write(path, store, null);
+  }
+
+  /**
+   * Writes the Q matrices of a store to a file, replacing the file atomically.
+   * The goals that are not in the store are copied from a previous file, so
+   * that they do not need to be loaded into the store. They are read before
+   * the file is replaced, so the previous file may be the file at the same
+   * location. The Q matrices of the previous file that do not match their
+   * checksum are not copied.
+   *
+   * @param path the location of the file
+   * @param store the store of the Q matrices
+   * @param previous the previous file with the same dimensions as the store,
+   * or null
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(Path path, QTableStore store, QTableFile previous) throws IOException {
+    int goalCount = store.getGoalCount();
+    int stateCount = store.getStateCount();
+    int actionCount = store.getActionCount();
+    if (previous != null && !previous.isCompatibleWith(store)) {
+      throw new IllegalArgumentException("The Q-table file " + previous.path
+        + " does not match the store");
+    }
+
+    // the rows of each goal that is written
+    QTableStore.RowCursor[] rows = new QTableStore.RowCursor[goalCount];
+    int entryCount = 0;
+    for (int goal = 0; goal < goalCount; goal++) {
+      if (store.contains(goal)) {
+        rows[goal] = store.rows(goal);
+      } else if (previous != null && previous.contains(goal)) {
+        try {
+          rows[goal] = previous.rows(goal);
+        } catch (IOException e) {
+          continue;
+        }
+      } else {
+        continue;
+      }
+      entryCount++;
+    }
+
+    // tables start at an 8-byte boundary, so that every double is aligned
+    long dataStart = (HEADER_SIZE + (long) entryCount * ENTRY_SIZE + 7) & ~7L;
+    int rowBytes = Long.BYTES + actionCount * Double.BYTES;
+
+    ByteBuffer directory = ByteBuffer.allocate((int) dataStart);
+    directory.putInt(MAGIC).putInt(VERSION).putInt(goalCount)
+      .putInt(stateCount).putInt(actionCount).putInt(entryCount);
+
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer data = ByteBuffer.allocate(Math.max(CHUNK_SIZE, rowBytes));
+      long offset = dataStart;
+
+      for (int goal = 0; goal < goalCount; goal++) {
+        if (rows[goal] == null) {
+          continue;
+        }
+
+        CRC32 crc = new CRC32();
+        long position = offset;
+        int rowCount = 0;
+        data.clear();
+        while (rows[goal].next()) {
+          if (data.remaining() < rowBytes) {
+            position = flush(channel, data, position, crc);
+          }
+          data.putLong(rows[goal].getState());
+          for (int action = 0; action < actionCount; action++) {
+            data.putDouble(rows[goal].get(action));
+          }
+          rowCount++;
+        }
+        position = flush(channel, data, position, crc);
+
+        directory.putInt(goal).putInt(rowCount).putLong(offset).putLong(crc.getValue());
+        offset = position;
+      }
+
+      directory.clear();
+      writeFully(channel, directory, 0);
+      channel.force(true);
+    } catch (IOException e) {
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+
+    try {
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Returns the location of the file
+   *
+   * @return the location
+   */
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Returns true if the file can be loaded into a store of the given dimensions
+   *
+   * @param store the store
+   * @return true if the dimensions of the file match the store
+   */
+  public boolean isCompatibleWith(QTableStore store) {
+    return isCompatibleWith(store.getGoalCount(), store.getStateCount(), store.getActionCount());
+  }
+
+  /**
+   * Returns true if the file can be loaded into a store of the given dimensions
+   *
+   * @param goalCount the number of goals of the store
+   * @param stateCount the number of states of the store
+   * @param actionCount the number of actions of the store
+   * @return true if the dimensions of the file match
+   */
+  public boolean isCompatibleWith(int goalCount, int stateCount, int actionCount) {
+    return this.goalCount == goalCount && this.stateCount == stateCount
+      && this.actionCount == actionCount;
+  }
+
+  /**
+   * Returns true if the file contains the Q matrix of the given goal
+   *
+   * @param goal the goal
+   * @return true if the Q matrix is contained
+   */
+  public boolean contains(int goal) {
+    return goal >= 0 && goal < goalCount && offsets[goal] >= 0;
+  }
+
+  /**
+   * Returns the number of rows of the Q matrix of the given goal that are
+   * stored in the file
+   *
+   * @param goal the goal
+   * @return the number of rows
+   */
+  public int getRowCount(int goal) {
+    return contains(goal) ? rowCounts[goal] : 0;
+  }
+
+  /**
+   * Returns a cursor over the stored rows of the Q matrix of the given goal,
+   * after reading the Q matrix from the file and verifying its checksum. The
+   * rows of files of version 1 that are all zeros are skipped.
+   *
+   * @param goal the goal
+   * @return the cursor, positioned before the first row
+   * @throws IOException if the Q matrix cannot be read, or does not match its
+   * checksum
+   */
+  public QTableStore.RowCursor rows(int goal) throws IOException {
+    if (!contains(goal)) {
+      throw new NoSuchElementException("No Q matrix for goal " + goal + " in " + path);
+    }
+
+    ByteBuffer table;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      table = read(channel, offsets[goal], rowCounts[goal] * rowBytes());
+    }
+    if (checksum(table) != checksums[goal]) {
+      throw new IOException("Checksum mismatch for goal " + goal + " in Q-table file: " + path);
+    }
+
+    int rowCount = rowCounts[goal];
+    int rowBytes = rowBytes();
+    int valueStart = version == VERSION ? Long.BYTES : 0;
+
+    return new QTableStore.RowCursor() {
+      private int row = -1;
+      private int position;
+
+      @Override
+      public boolean next() {
+        while (++row < rowCount) {
+          position = row * rowBytes;
+          if (version == VERSION || !isZero()) {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      @Override
+      public int getState() {
+        return version == VERSION ? (int) table.getLong(position) : row;
+      }
+
+      @Override
+      public double get(int action) {
+        return table.getDouble(position + valueStart + action * Double.BYTES);
+      }
+
+      private boolean isZero() {
+        for (int action = 0; action < actionCount; action++) {
+          if (get(action) != 0.0) {
+            return false;
+          }
+        }
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Loads the Q matrix of the given goal into a store, after verifying its
+   * checksum
+   *
+   * @param goal the goal
+   * @param store the store with the same dimensions as the file
+   * @throws IOException if the Q matrix cannot be read, or does not match its
+   * checksum
+   */
+  public void load(int goal, QTableStore store) throws IOException {
+    if (!isCompatibleWith(store)) {
+      throw new IllegalArgumentException("The Q-table file " + path + " does not match the store");
+    }
+
+    QTableStore.RowCursor rows = rows(goal);
+    store.create(goal);
+    while (rows.next()) {
+      int state = rows.getState();
+      if (state < 0 || state >= stateCount) {
+        store.remove(goal);
+        throw new IOException("Invalid state " + state + " for goal " + goal + " in Q-table file: "
+          + path);
+      }
+      for (int action = 0; action < actionCount; action++) {
+        double value = rows.get(action);
+        if (value != 0.0) {
+          store.set(goal, state, action, value);
+        }
+      }
+    }
+  }
+
+  private int rowBytes() {
+    return (version == VERSION ? Long.BYTES : 0) + actionCount * Double.BYTES;
+  }
+
+  private static long checksum(ByteBuffer table) {
+    CRC32 crc = new CRC32();
+    crc.update(table.array(), 0, table.limit());
+    return crc.getValue();
+  }
+
+  /* Reads a range of the file into a heap buffer */
+  private ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new IOException("Truncated Q-table file: " + path);
+      }
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  /* Writes the buffered bytes at a position, and adds them to a checksum */
+  private static long flush(FileChannel channel, ByteBuffer data, long position, CRC32 crc)
+      throws IOException {
+    data.flip();
+    crc.update(data.array(), 0, data.limit());
+    int length = data.limit();
+    writeFully(channel, data, position);
+    data.clear();
+    return position + length;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer data, long position)
+      throws IOException {
+    while (data.hasRemaining()) {
+      position += channel.write(data, position);
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package tools;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * Imports Q matrices that were saved with Java serialization (e.g.
+ * qtables_0.5.ser, with_greedy.ser) into a {@link QTableStore}, and converts
+ * them to a {@link QTableFile}.
+ * <p>
+ * A serialized file contains a HashMap&lt;String, double[][]&gt; from the
+ * concatenated values of a goal (e.g. "21" for the goal [2,1]) to the Q matrix
+ * of the goal.
+ * </p>
+ */
+public final class QTableImporter {
+
+  private static final Logger LOGGER = Logger.getLogger(QTableImporter.class.getName());
+
+  private QTableImporter() {
+  }
+
+  /**
+   * Converts serialized Q matrices of the lab to a binary Q-table file.
+   * <p>
+   * Usage: QTableImporter output.qtb input1.ser [input2.ser ...]
+   * </p>
+   * <p>
+   * If several input files contain the same goal, the Q matrix of the last file
+   * is kept.
+   * </p>
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: QTableImporter <output.qtb> <input.ser>...");
+      System.exit(1);
+    }
+
+    GoalSpace goals = new GoalSpace(Lab.LAB_STATE_CODEC, Lab.LAB_GOAL_AXES);
+    QTableStore store = new FlatQTableStore(goals.size(), Lab.LAB_STATE_CODEC.size(),
+      Lab.LAB_ACTION_COUNT);
+
+    for (int i = 1; i < args.length; i++) {
+      int count = importSerialized(Paths.get(args[i]), store, goals);
+      LOGGER.info("Imported " + count + " Q matrices from " + args[i]);
+    }
+
+    QTableFile.write(Paths.get(args[0]), store);
+    LOGGER.info("Q matrices written to " + args[0]);
+  }
+
+  /**
+   * Imports the Q matrices of a serialized file into a store
+   *
+   * @param path the location of the serialized file
+   * @param store the store
+   * @param goals the goal space the goals of the file belong to
+   * @return the number of imported Q matrices
+   * @throws IOException if the file cannot be read, or its content does not
+   * match the dimensions of the store
+   */
+  @SuppressWarnings("unchecked")
+  public static int importSerialized(Path path, QTableStore store, GoalSpace goals)
+      throws IOException {
+    Map<String, double[][]> serializedQTables;
+    try (ObjectInputStream inputStream = new ObjectInputStream(
+        new FileInputStream(path.toFile()))) {
+      serializedQTables = (Map<String, double[][]>) inputStream.readObject();
+    } catch (ClassNotFoundException | ClassCastException e) {
+      throw new IOException("Not a file of serialized Q matrices: " + path, e);
+    }
+
+    int stateCount = store.getStateCount();
+    int actionCount = store.getActionCount();
+    double[] table = new double[stateCount * actionCount];
+    int count = 0;
+
+    for (Map.Entry<String, double[][]> entry : serializedQTables.entrySet()) {
+      int goal = parseGoalKey(entry.getKey(), goals);
+      if (goal < 0) {
+        LOGGER.warning("Skipping unknown goal \"" + entry.getKey() + "\" in " + path);
+        continue;
+      }
+
+      double[][] rows = entry.getValue();
+      if (rows.length != stateCount) {
+        throw new IOException("Expected " + stateCount + " states for goal " + entry.getKey()
+          + " but found " + rows.length + " in " + path);
+      }
+      for (int state = 0; state < stateCount; state++) {
+        if (rows[state].length != actionCount) {
+          throw new IOException("Expected " + actionCount + " actions for goal " + entry.getKey()
+            + " but found " + rows[state].length + " in " + path);
+        }
+        System.arraycopy(rows[state], 0, table, state * actionCount, actionCount);
+      }
+
+      store.loadTable(goal, table);
+      count++;
+    }
+    return count;
+  }
+
+  /* Parses keys such as "21", i.e. one digit per goal axis */
+  private static int parseGoalKey(String key, GoalSpace goals) {
+    Object[] values = new Object[key.length()];
+    for (int i = 0; i < key.length(); i++) {
+      if (!Character.isDigit(key.charAt(i))) {
+        return -1;
+      }
+      values[i] = Character.getNumericValue(key.charAt(i));
+    }
+
+    try {
+      return goals.indexOf(values);
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
+  }
+}
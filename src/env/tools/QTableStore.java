@@ -0,0 +1,192 @@
+package tools;
+
+/**
+ * An interface for storing the Q matrices that are computed for the goals of a
+ * learning environment.
+ * <p>
+ * Each goal has its own Q matrix with one row per state and one column per
+ * action of the environment. Goals, states and actions are addressed by their
+ * dense integer indexes (see {@link GoalSpace} and {@link StateCodec}).
+ * The row operations only consider the given actions, which are typically the
+ * applicable actions of the state (see
+ * {@link LearningEnvironment#getApplicableActionArray(int)}).
+ * </p>
+ */
+public interface QTableStore {
+
+  /**
+   * Returns the number of goals that can be stored
+   *
+   * @return the number of goals
+   */
+  int getGoalCount();
+
+  /**
+   * Returns the number of states (rows) of each Q matrix
+   *
+   * @return the number of states
+   */
+  int getStateCount();
+
+  /**
+   * Returns the number of actions (columns) of each Q matrix
+   *
+   * @return the number of actions
+   */
+  int getActionCount();
+
+  /**
+   * Returns true if a Q matrix has been created for the given goal
+   *
+   * @param goal the goal
+   * @return true if the Q matrix exists
+   */
+  boolean contains(int goal);
+
+  /**
+   * Creates a Q matrix for the given goal where all the values are 0. An existing
+   * Q matrix of the goal is reset.
+   *
+   * @param goal the goal
+   */
+  void create(int goal);
+
+  /**
+   * Removes the Q matrix of the given goal
+   *
+   * @param goal the goal
+   */
+  void remove(int goal);
+
+  /**
+   * Returns the value Q(state, action) for the given goal
+   *
+   * @param goal the goal
+   * @param state the state
+   * @param action the action
+   * @return the Q value
+   */
+  double get(int goal, int state, int action);
+
+  /**
+   * Sets the value Q(state, action) for the given goal
+   *
+   * @param goal the goal
+   * @param state the state
+   * @param action the action
+   * @param value the Q value
+   */
+  void set(int goal, int state, int action, double value);
+
+  /**
+   * Moves the value Q(state, action) of the given goal towards a target value:
+   * Q(state, action) += alpha * (target - Q(state, action))
+   *
+   * @param goal the goal
+   * @param state the state
+   * @param action the action
+   * @param target the target value
+   * @param alpha the learning rate
+   * @return the updated Q value
+   */
+  double update(int goal, int state, int action, double target, double alpha);
+
+  /**
+   * Returns the maximum Q value of a state over the given actions
+   *
+   * @param goal the goal
+   * @param state the state
+   * @param actions the actions to consider
+   * @return the maximum Q value, or 0 if no action is given
+   */
+  double rowMax(int goal, int state, int[] actions);
+
+  /**
+   * Returns the action with the maximum Q value of a state over the given
+   * actions. Ties are broken in favor of the action that comes first.
+   *
+   * @param goal the goal
+   * @param state the state
+   * @param actions the actions to consider
+   * @return the action with the maximum Q value, or -1 if no action is given
+   */
+  int rowArgmax(int goal, int state, int[] actions);
+
+  /**
+   * Updates Q(state, action) in the Q matrices of all the created goals with
+   * one observed transition. Since the reward only depends on the goal of the
+   * next state, the transition is relabelled for each goal: the goal of the
+   * next state receives the reward, and all the other goals receive 0.
+   * For each goal, Q(state, action) is moved towards the target
+   * reward + gamma * max(0, max Q(nextState, a) over the next actions).
+   *
+   * @param state the state in which the action was performed
+   * @param action the action
+   * @param nextState the observed next state
+   * @param nextActions the actions to consider in the next state
+   * @param rewardedGoal the goal of the next state
+   * @param reward the reward assigned when reaching the goal state
+   * @param alpha the learning rate
+   * @param gamma the discount factor
+   */
+  void updateAllGoals(int state, int action, int nextState, int[] nextActions, int rewardedGoal,
+    double reward, double alpha, double gamma);
+
+  /**
+   * Copies the Q matrix of the given goal to an array in row-major order, i.e.
+   * Q(state, action) is copied to destination[state * actionCount + action]
+   *
+   * @param goal the goal
+   * @param destination the array with a length of at least stateCount * actionCount
+   */
+  void copyTable(int goal, double[] destination);
+
+  /**
+   * Creates the Q matrix of the given goal from an array in row-major order
+   * (see {@link #copyTable(int, double[])})
+   *
+   * @param goal the goal
+   * @param source the array with a length of at least stateCount * actionCount
+   */
+  void loadTable(int goal, double[] source);
+
+  /**
+   * Returns a cursor over the rows of the Q matrix of the given goal that may
+   * have non-zero values, so that a Q matrix can be copied without a dense
+   * array. The rows that are not visited are all zeros. The store must not be
+   * changed while the cursor is used.
+   *
+   * @param goal the goal
+   * @return the cursor, positioned before the first row
+   */
+  RowCursor rows(int goal);
+
+  /**
+   * A cursor over the rows of a Q matrix, in no particular order (see
+   * {@link QTableStore#rows(int)})
+   */
+  interface RowCursor {
+
+    /**
+     * Moves to the next row
+     *
+     * @return false if there are no more rows
+     */
+    boolean next();
+
+    /**
+     * Returns the state of the current row
+     *
+     * @return the state
+     */
+    int getState();
+
+    /**
+     * Returns the Q value of an action in the current row
+     *
+     * @param action the action
+     * @return the Q value
+     */
+    double get(int action);
+  }
+}
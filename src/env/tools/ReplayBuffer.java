@@ -0,0 +1,174 @@
+package tools;
+
+import java.util.*;
+
+/**
+ * A fixed-capacity buffer of observed transitions that can be replayed for
+ * additional Q updates (experience replay).
+ * <p>
+ * Transitions are kept in primitive columns (state, action, reward, next state)
+ * of a ring buffer, so adding and sampling transitions does not allocate. Once
+ * the buffer is full, the oldest transition is overwritten.
+ * </p>
+ * <p>
+ * Transitions are either sampled uniformly, or in proportion to their priority,
+ * which is derived from the magnitude of their last temporal-difference error
+ * (see {@link #updatePriority(int, double)}). New transitions get the highest
+ * priority seen so far, so that each transition is likely to be replayed at
+ * least once.
+ * </p>
+ */
+public class ReplayBuffer {
+
+  private static final double MIN_PRIORITY = 1e-3;
+
+  private final int capacity;
+  private final boolean prioritized;
+
+  private final int[] states;
+  private final int[] actions;
+  private final double[] rewards;
+  private final int[] nextStates;
+
+  /* sum tree of the priorities: the leaves start at index capacity */
+  private final double[] priorityTree;
+  private double maxPriority = 1.0;
+
+  private int next;
+  private int size;
+
+  /**
+   * Creates an empty buffer
+   *
+   * @param capacity the maximum number of transitions
+   * @param prioritized true for prioritized sampling, false for uniform sampling
+   */
+  public ReplayBuffer(int capacity, boolean prioritized) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The capacity of a replay buffer must be positive: "
+        + capacity);
+    }
+
+    this.capacity = capacity;
+    this.prioritized = prioritized;
+    this.states = new int[capacity];
+    this.actions = new int[capacity];
+    this.rewards = new double[capacity];
+    this.nextStates = new int[capacity];
+    this.priorityTree = prioritized ? new double[2 * capacity] : null;
+  }
+
+  /**
+   * Adds a transition, overwriting the oldest transition if the buffer is full
+   *
+   * @param state the state in which the action was performed
+   * @param action the performed action
+   * @param reward the reward of the transition
+   * @param nextState the next state
+   */
+  public void add(int state, int action, double reward, int nextState) {
+    states[next] = state;
+    actions[next] = action;
+    rewards[next] = reward;
+    nextStates[next] = nextState;
+
+    if (prioritized) {
+      setPriority(next, maxPriority);
+    }
+
+    next = (next + 1) % capacity;
+    size = Math.min(size + 1, capacity);
+  }
+
+  /**
+   * Returns the number of transitions in the buffer
+   *
+   * @return the number of transitions
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Samples the position of a transition in the buffer
+   *
+   * @param random the source of randomness
+   * @return the position of the sampled transition
+   * @throws IllegalStateException if the buffer is empty
+   */
+  public int sample(Random random) {
+    if (size == 0) {
+      throw new IllegalStateException("Cannot sample from an empty replay buffer");
+    }
+
+    if (!prioritized) {
+      return random.nextInt(size);
+    }
+
+    // descend the sum tree towards the leaf that covers the sampled mass
+    double mass = random.nextDouble() * priorityTree[1];
+    int node = 1;
+    while (node < capacity) {
+      int left = 2 * node;
+      if (mass < priorityTree[left] || priorityTree[left + 1] == 0) {
+        node = left;
+      } else {
+        mass -= priorityTree[left];
+        node = left + 1;
+      }
+    }
+    return node - capacity;
+  }
+
+  /**
+   * Updates the priority of a transition after it has been replayed. Has no
+   * effect on a buffer with uniform sampling.
+   *
+   * @param position the position of the transition
+   * @param tdError the temporal-difference error of the last update of the transition
+   */
+  public void updatePriority(int position, double tdError) {
+    if (prioritized) {
+      double priority = Math.max(Math.abs(tdError), MIN_PRIORITY);
+      maxPriority = Math.max(maxPriority, priority);
+      setPriority(position, priority);
+    }
+  }
+
+  /**
+   * Returns the state in which the action of a transition was performed
+   */
+  public int getState(int position) {
+    return states[position];
+  }
+
+  /**
+   * Returns the action of a transition
+   */
+  public int getAction(int position) {
+    return actions[position];
+  }
+
+  /**
+   * Returns the reward of a transition
+   */
+  public double getReward(int position) {
+    return rewards[position];
+  }
+
+  /**
+   * Returns the next state of a transition
+   */
+  public int getNextState(int position) {
+    return nextStates[position];
+  }
+
+  private void setPriority(int position, double priority) {
+    int node = position + capacity;
+    double change = priority - priorityTree[node];
+    while (node >= 1) {
+      priorityTree[node] += change;
+      node /= 2;
+    }
+  }
+}
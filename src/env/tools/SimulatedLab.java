@@ -0,0 +1,302 @@
+package tools;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.*;
+
+/**
+* A class that extends {@link Lab} for representing a simulated lab that runs
+* in-process, without any HTTP interaction.
+*
+* <p> A SimulatedLab reproduces the logic of the "Update action" and the
+* "Update environment" nodes of the Node-RED flow of the simulated lab
+* (see simulator/simulator_flow.json). Instead of updating the environment
+* every second, the simulation uses a virtual clock that advances by one
+* environment tick every time the lab is asked to settle, so that learning
+* can run as fast as the CPU allows.
+* </p>
+*/
+public class SimulatedLab extends Lab {
+
+  /**
+  * The lux contributed by the lights of a zone to the zone itself
+  */
+  static final double OWN_LIGHT_LUX = 300;
+
+  /**
+  * The lux contributed by the lights of a zone to the neighbouring zone
+  */
+  static final double NEIGHBOUR_LIGHT_LUX = 50;
+
+  /**
+  * The share of the sunshine that enters a zone through its own blinds
+  */
+  static final double OWN_BLINDS_SHARE = 0.5;
+
+  /**
+  * The share of the sunshine that enters a zone through the blinds of the
+  * neighbouring zone
+  */
+  static final double NEIGHBOUR_BLINDS_SHARE = 0.25;
+
+  /**
+  * The energy cost of switching on the lights of a zone
+  */
+  static final double LIGHT_SWITCH_COST = 100;
+
+  /**
+  * The energy cost of raising the blinds of a zone
+  */
+  static final double BLINDS_SWITCH_COST = 5;
+
+  /**
+  * Illuminance values in lux that fall into each light level (see
+  * {@link Lab#discretizeLightLevel(double)})
+  */
+  private static final double[] LIGHT_LEVEL_LUX = {25, 125, 300, 500};
+
+  /**
+  * Sunshine values in lux that fall into each sunshine level (see
+  * {@link Lab#discretizeSunshine(double)})
+  */
+  private static final double[] SUNSHINE_LEVEL_LUX = {25, 125, 450, 800};
+
+  private static final Logger LOGGER = Logger.getLogger(SimulatedLab.class.getName());
+
+  private final Random random;
+
+  private boolean z1Light;
+  private boolean z2Light;
+  private boolean z1Blinds;
+  private boolean z2Blinds;
+
+  private double totalEnergyCost;
+
+  /**
+  * A {@link SimulatedLab} instance is constructed with a random seed
+  */
+  public SimulatedLab() {
+    this(new Random());
+  }
+
+  /**
+  * A {@link SimulatedLab} instance is constructed with a fixed seed, so that
+  * the sunshine of the simulation can be reproduced
+  *
+  * @param seed the seed of the sunshine of the simulation
+  */
+  public SimulatedLab(long seed) {
+    this(new Random(seed));
+  }
+
+  private SimulatedLab(Random random) {
+    super();
+    this.random = random;
+    this.z1Lux = 0;
+    this.z2Lux = 0;
+    this.sunshineLux = 0;
+    this.energyCost = 0;
+    this.hour = 0;
+
+    createActionSpace();
+    LOGGER.info("The simulated lab has an action space of m=" + actionSpace.size());
+
+    // The Node-RED flow updates the environment right after it is deployed
+    tick();
+    readCurrentState();
+  }
+
+  /**
+  * @see {@link LearningEnvironment#readCurrentState()}
+  */
+  @Override
+  public int readCurrentState() {
+    currentState = encodeObservation(discretizeLightLevel(z1Lux), discretizeLightLevel(z2Lux),
+      z1Light, z2Light, z1Blinds, z2Blinds, discretizeSunshine(sunshineLux));
+
+    return recordState(this.currentState);
+  }
+
+  /**
+  * Reads the simulated state synchronously
+  *
+  * @see {@link LearningEnvironment#readCurrentStateAsync()}
+  */
+  @Override
+  public CompletableFuture<Integer> readCurrentStateAsync() {
+    return CompletableFuture.completedFuture(readCurrentState());
+  }
+
+  /**
+  * Applies an action synchronously
+  *
+  * @see {@link LearningEnvironment#performActionAsync(int)}
+  */
+  @Override
+  public CompletableFuture<Void> performActionAsync(int action) {
+    performAction(action);
+    return CompletableFuture.completedFuture(null);
+  }
+
+  /**
+  * Applies an action as done by the "Update action" node of the Node-RED flow
+  *
+  * @see {@link LearningEnvironment#performAction(int)}
+  */
+  @Override
+  public void performAction(int action) {
+    Action a = actionSpace.get(action);
+    recordAction(action);
+    boolean value = (Boolean) a.getPayload()[0];
+
+    switch (a.getActionTag()) {
+      case "http://example.org/was#SetZ1Light":
+        if (!z1Light && value) {
+          energyCost = LIGHT_SWITCH_COST;
+        }
+        z1Light = value;
+        break;
+      case "http://example.org/was#SetZ2Light":
+        if (!z2Light && value) {
+          energyCost = LIGHT_SWITCH_COST;
+        }
+        z2Light = value;
+        break;
+      case "http://example.org/was#SetZ1Blinds":
+        if (!z1Blinds && value) {
+          energyCost = BLINDS_SWITCH_COST;
+        }
+        z1Blinds = value;
+        break;
+      case "http://example.org/was#SetZ2Blinds":
+        if (!z2Blinds && value) {
+          energyCost = BLINDS_SWITCH_COST;
+        }
+        z2Blinds = value;
+        break;
+      default:
+        LOGGER.severe("Unknown action: " + a);
+        break;
+    }
+  }
+
+  /**
+  * Advances the virtual clock to the next environment tick, instead of
+  * waiting in real time
+  *
+  * @see {@link LearningEnvironment#awaitSettled(long)}
+  */
+  @Override
+  public void awaitSettled(long millis) {
+    tick();
+  }
+
+  /**
+  * Advances the virtual clock to the next environment tick
+  *
+  * @see {@link Lab#awaitNextTick(long)}
+  */
+  @Override
+  public boolean awaitNextTick(long timeoutMillis) {
+    tick();
+    return true;
+  }
+
+  /**
+  * Moves the simulation to a given state of the state space. The devices are
+  * set as described by the state, and the illuminance values are set to values
+  * that fall into the described levels. The sunshine keeps its natural range if
+  * that range falls into the described sunshine level.
+  *
+  * @param state the state
+  */
+  public void moveTo(int state) {
+    z1Light = stateCodec.valueAt(state, 2) == 1;
+    z2Light = stateCodec.valueAt(state, 3) == 1;
+    z1Blinds = stateCodec.valueAt(state, 4) == 1;
+    z2Blinds = stateCodec.valueAt(state, 5) == 1;
+
+    z1Lux = LIGHT_LEVEL_LUX[stateCodec.valueAt(state, 0)];
+    z2Lux = LIGHT_LEVEL_LUX[stateCodec.valueAt(state, 1)];
+
+    int sunshineLevel = stateCodec.valueAt(state, 6);
+    double sun = sampleSunshine(random);
+    sunshineLux = discretizeSunshine(sun) == sunshineLevel ? sun : SUNSHINE_LEVEL_LUX[sunshineLevel];
+  }
+
+  /**
+  * Returns the energy consumed by the lights since the simulation started
+  */
+  public double getTotalEnergyCost() {
+    return totalEnergyCost;
+  }
+
+  /**
+  * Computes the illuminance of a zone as done by the "Update environment" node
+  * of the Node-RED flow
+  *
+  * @param ownLight the status of the lights of the zone
+  * @param neighbourLight the status of the lights of the neighbouring zone
+  * @param ownBlinds the status of the blinds of the zone
+  * @param neighbourBlinds the status of the blinds of the neighbouring zone
+  * @param sunshine the sunshine out of the lab in lux
+  * @return the illuminance of the zone in lux
+  */
+  static double zoneLux(boolean ownLight, boolean neighbourLight, boolean ownBlinds,
+    boolean neighbourBlinds, double sunshine) {
+      double lux = 0;
+      lux += ownLight ? OWN_LIGHT_LUX : 0;
+      lux += neighbourLight ? NEIGHBOUR_LIGHT_LUX : 0;
+      lux += ownBlinds ? sunshine * OWN_BLINDS_SHARE : 0;
+      lux += neighbourBlinds ? sunshine * NEIGHBOUR_BLINDS_SHARE : 0;
+      return lux;
+    }
+
+  /**
+  * Samples the sunshine out of the lab as done by the "Update environment" node
+  * of the Node-RED flow
+  */
+  static double sampleSunshine(Random random) {
+    return 600 + 50 * random.nextDouble();
+  }
+
+  /**
+  * Updates the environment as done by the "Update environment" node of the
+  * Node-RED flow
+  */
+  private void tick() {
+    // the light levels are computed with the sunshine of the previous tick
+    double sun = sunshineLux;
+
+    if (hour >= 24) {
+      hour = 0;
+    }
+    hour += HOURS_PER_TICK;
+
+    sunshineLux = sampleSunshine(random);
+
+    z1Lux = zoneLux(z1Light, z2Light, z1Blinds, z2Blinds, sun);
+    z2Lux = zoneLux(z2Light, z1Light, z2Blinds, z1Blinds, sun);
+
+    totalEnergyCost += z1Light ? 1 : 0;
+    totalEnergyCost += z2Light ? 1 : 0;
+  }
+
+  /**
+  * Creates the action space of the simulated lab, in the same order as the
+  * action space that {@link Lab} derives from the Thing Description
+  */
+  private void createActionSpace() {
+    this.affordanceTypes = LAB_AFFORDANCE_TYPES;
+
+    for (String affType : affordanceTypes) {
+      String propName = affType.substring(affType.indexOf("#Set") + "#Set".length());
+
+      for (boolean propValue : Arrays.asList(false, true)) {
+        Action action = new Action(affType, new Object[]{propName}, new Object[]{propValue}, null);
+        actionSpace.put(actionSpace.size(), action);
+      }
+    }
+    setApplicableActions();
+  }
+}
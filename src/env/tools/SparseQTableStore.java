@@ -0,0 +1,475 @@
+package tools;
+
+import java.util.*;
+
+/**
+ * A {@link QTableStore} that only allocates the rows of the states that have
+ * non-zero Q values, for state spaces where most of the states are never
+ * visited.
+ * <p>
+ * A row is addressed by a long key, goal * stateCount + state, in an
+ * open-addressing hash map with linear probing that maps the key to the index
+ * of the row. The values of the rows are kept in slabs of primitive values, so
+ * that a lookup does not allocate. A missing row reads as all zeros, and a row
+ * is only allocated when a non-zero value is written to it.
+ * </p>
+ * <p>
+ * The number of rows can be bounded, in which case the least recently used row
+ * is evicted when a row must be allocated, i.e. its Q values are reset to 0.
+ * Since reads update the recency of the rows, a bounded store must not be read
+ * concurrently.
+ * </p>
+ */
+public class SparseQTableStore implements QTableStore {
+
+  private static final long EMPTY = -1L;
+  private static final int SLAB_SHIFT = 8;
+  private static final int SLAB_ROWS = 1 << SLAB_SHIFT; // the rows of each slab
+  private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L; // Fibonacci hashing
+
+  private final int goalCount;
+  private final int stateCount;
+  private final int actionCount;
+  private final int maxRows;
+  private final boolean[] created;
+
+  // the hash map from keys to rows
+  private long[] keys;
+  private int[] rowsOfKeys;
+  private int shift;
+  private int size;
+
+  // the rows, their keys, and the rows that can be reused
+  private double[][] slabs = new double[0][];
+  private long[] keysOfRows = new long[0];
+  private int allocatedRows;
+  private int[] freeRows = new int[0];
+  private int freeRowCount;
+
+  // the rows from the most recently used (head) to the least recently used (tail)
+  private int[] previous = new int[0];
+  private int[] next = new int[0];
+  private int head = -1;
+  private int tail = -1;
+  private long evictedRows;
+
+  /**
+   * Creates a store for the Q matrices of the given number of goals, with an
+   * unbounded number of rows
+   *
+   * @param goalCount the number of goals
+   * @param stateCount the number of states of the learning environment
+   * @param actionCount the number of actions of the learning environment
+   */
+  public SparseQTableStore(int goalCount, int stateCount, int actionCount) {
+    this(goalCount, stateCount, actionCount, 0);
+  }
+
+  /**
+   * Creates a store for the Q matrices of the given number of goals
+   *
+   * @param goalCount the number of goals
+   * @param stateCount the number of states of the learning environment
+   * @param actionCount the number of actions of the learning environment
+   * @param maxRows the maximum number of rows over all the goals, after which
+   * the least recently used rows are evicted, or 0 for no maximum
+   */
+  public SparseQTableStore(int goalCount, int stateCount, int actionCount, int maxRows) {
+    if (maxRows < 0) {
+      throw new IllegalArgumentException("The maximum number of rows must not be negative: " + maxRows);
+    }
+
+    this.goalCount = goalCount;
+    this.stateCount = stateCount;
+    this.actionCount = actionCount;
+    this.maxRows = maxRows;
+    this.created = new boolean[goalCount];
+    this.keys = new long[16];
+    this.rowsOfKeys = new int[16];
+    this.shift = 64 - 4;
+    Arrays.fill(keys, EMPTY);
+  }
+
+  @Override
+  public int getGoalCount() {
+    return goalCount;
+  }
+
+  @Override
+  public int getStateCount() {
+    return stateCount;
+  }
+
+  @Override
+  public int getActionCount() {
+    return actionCount;
+  }
+
+  /**
+   * Returns the number of rows that are allocated over all the goals
+   *
+   * @return the number of rows
+   */
+  public int getRowCount() {
+    return size;
+  }
+
+  /**
+   * Returns the number of rows that have been evicted since the store was
+   * created
+   *
+   * @return the number of evicted rows
+   */
+  public long getEvictedRowCount() {
+    return evictedRows;
+  }
+
+  @Override
+  public boolean contains(int goal) {
+    return created[goal];
+  }
+
+  @Override
+  public void create(int goal) {
+    removeRows(goal);
+    created[goal] = true;
+  }
+
+  @Override
+  public void remove(int goal) {
+    removeRows(goal);
+    created[goal] = false;
+  }
+
+  @Override
+  public double get(int goal, int state, int action) {
+    int row = use(key(goal, state));
+    return row < 0 ? 0.0 : slabs[row >>> SLAB_SHIFT][offset(row) + action];
+  }
+
+  @Override
+  public void set(int goal, int state, int action, double value) {
+    long key = key(goal, state);
+    int row = use(key);
+    if (row < 0) {
+      if (value == 0.0) {
+        return;
+      }
+      row = allocate(key);
+    }
+    slabs[row >>> SLAB_SHIFT][offset(row) + action] = value;
+  }
+
+  @Override
+  public double update(int goal, int state, int action, double target, double alpha) {
+    long key = key(goal, state);
+    int row = use(key);
+    if (row < 0) {
+      double value = alpha * target;
+      if (value == 0.0) {
+        return 0.0;
+      }
+      row = allocate(key);
+      slabs[row >>> SLAB_SHIFT][offset(row) + action] = value;
+      return value;
+    }
+
+    double[] slab = slabs[row >>> SLAB_SHIFT];
+    int i = offset(row) + action;
+    slab[i] += alpha * (target - slab[i]);
+    return slab[i];
+  }
+
+  @Override
+  public double rowMax(int goal, int state, int[] actions) {
+    if (actions.length == 0) {
+      return 0.0;
+    }
+
+    int row = use(key(goal, state));
+    if (row < 0) {
+      return 0.0;
+    }
+
+    double[] slab = slabs[row >>> SLAB_SHIFT];
+    int offset = offset(row);
+    double max = slab[offset + actions[0]];
+    for (int i = 1; i < actions.length; i++) {
+      double value = slab[offset + actions[i]];
+      if (value > max) {
+        max = value;
+      }
+    }
+    return max;
+  }
+
+  @Override
+  public int rowArgmax(int goal, int state, int[] actions) {
+    if (actions.length == 0) {
+      return -1;
+    }
+
+    int row = use(key(goal, state));
+    if (row < 0) {
+      return actions[0];
+    }
+
+    double[] slab = slabs[row >>> SLAB_SHIFT];
+    int offset = offset(row);
+    int argmax = actions[0];
+    double max = slab[offset + argmax];
+    for (int i = 1; i < actions.length; i++) {
+      double value = slab[offset + actions[i]];
+      if (value > max) {
+        max = value;
+        argmax = actions[i];
+      }
+    }
+    return argmax;
+  }
+
+  /**
+   * Updates the goals one after the other. Since a missing row reads as zeros,
+   * only the goals whose Q value becomes non-zero allocate a row.
+   */
+  @Override
+  public void updateAllGoals(int state, int action, int nextState, int[] nextActions,
+      int rewardedGoal, double reward, double alpha, double gamma) {
+    for (int goal = 0; goal < goalCount; goal++) {
+      if (!created[goal]) {
+        continue;
+      }
+
+      double max = Math.max(0.0, rowMax(goal, nextState, nextActions));
+      double target = (goal == rewardedGoal ? reward : 0.0) + gamma * max;
+      update(goal, state, action, target, alpha);
+    }
+  }
+
+  @Override
+  public void copyTable(int goal, double[] destination) {
+    Arrays.fill(destination, 0, tableSize(), 0.0);
+    for (int row = 0; row < allocatedRows; row++) {
+      long key = keysOfRows[row];
+      if (key != EMPTY && key / stateCount == goal) {
+        int state = (int) (key % stateCount);
+        System.arraycopy(slabs[row >>> SLAB_SHIFT], offset(row), destination, state * actionCount,
+          actionCount);
+      }
+    }
+  }
+
+  /**
+   * Only allocates the rows of the array that have non-zero values
+   */
+  @Override
+  public void loadTable(int goal, double[] source) {
+    removeRows(goal);
+    created[goal] = true;
+    for (int state = 0, from = 0; state < stateCount; state++, from += actionCount) {
+      for (int action = 0; action < actionCount; action++) {
+        if (source[from + action] != 0.0) {
+          int row = allocate(key(goal, state));
+          System.arraycopy(source, from, slabs[row >>> SLAB_SHIFT], offset(row), actionCount);
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Visits the allocated rows of the goal, without changing their recency
+   */
+  @Override
+  public RowCursor rows(int goal) {
+    return new RowCursor() {
+      private int row = -1;
+
+      @Override
+      public boolean next() {
+        while (++row < allocatedRows) {
+          long key = keysOfRows[row];
+          if (key != EMPTY && key / stateCount == goal) {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      @Override
+      public int getState() {
+        return (int) (keysOfRows[row] % stateCount);
+      }
+
+      @Override
+      public double get(int action) {
+        return slabs[row >>> SLAB_SHIFT][offset(row) + action];
+      }
+    };
+  }
+
+  private int tableSize() {
+    long tableSize = (long) stateCount * actionCount;
+    if (tableSize > Integer.MAX_VALUE) {
+      throw new IllegalStateException("The Q matrices are too large to be copied to an array: "
+        + stateCount + "x" + actionCount);
+    }
+    return (int) tableSize;
+  }
+
+  private long key(int goal, int state) {
+    return (long) goal * stateCount + state;
+  }
+
+  private int offset(int row) {
+    return (row & (SLAB_ROWS - 1)) * actionCount;
+  }
+
+  private int slotOf(long key) {
+    return (int) ((key * HASH_MULTIPLIER) >>> shift);
+  }
+
+  /* Returns the row of a key, or -1 if the row is missing. The row becomes the
+   * most recently used row. */
+  private int use(long key) {
+    int mask = keys.length - 1;
+    for (int slot = slotOf(key); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        int row = rowsOfKeys[slot];
+        if (maxRows > 0 && row != head) {
+          unlink(row);
+          linkFirst(row);
+        }
+        return row;
+      }
+    }
+    return -1;
+  }
+
+  /* Allocates a row of zeros for a key that is missing, evicting the least
+   * recently used row if the store is full */
+  private int allocate(long key) {
+    if (maxRows > 0 && size == maxRows) {
+      removeRow(tail);
+      evictedRows++;
+    }
+
+    int row;
+    if (freeRowCount > 0) {
+      row = freeRows[--freeRowCount];
+      Arrays.fill(slabs[row >>> SLAB_SHIFT], offset(row), offset(row) + actionCount, 0.0);
+    } else {
+      row = allocatedRows++;
+      if (row == keysOfRows.length) {
+        int capacity = Math.max(SLAB_ROWS, row * 2);
+        keysOfRows = Arrays.copyOf(keysOfRows, capacity);
+        previous = Arrays.copyOf(previous, capacity);
+        next = Arrays.copyOf(next, capacity);
+      }
+      if (row >>> SLAB_SHIFT == slabs.length) {
+        slabs = Arrays.copyOf(slabs, slabs.length + 1);
+        slabs[slabs.length - 1] = new double[SLAB_ROWS * actionCount];
+      }
+    }
+
+    if ((size + 1) * 2 > keys.length) {
+      rehash(keys.length * 2);
+    }
+    insert(key, row);
+    keysOfRows[row] = key;
+    size++;
+    if (maxRows > 0) {
+      linkFirst(row);
+    }
+    return row;
+  }
+
+  private void removeRows(int goal) {
+    for (int row = 0; row < allocatedRows; row++) {
+      long key = keysOfRows[row];
+      if (key != EMPTY && key / stateCount == goal) {
+        removeRow(row);
+      }
+    }
+  }
+
+  /* Removes a row from the map, and keeps it to be reused */
+  private void removeRow(int row) {
+    long key = keysOfRows[row];
+    int mask = keys.length - 1;
+    int slot = slotOf(key);
+    while (keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+
+    // shift back the keys of the probe sequence, so that no tombstone is needed
+    for (int other = (slot + 1) & mask; keys[other] != EMPTY; other = (other + 1) & mask) {
+      int home = slotOf(keys[other]);
+      boolean reachable = slot <= other ? slot < home && home <= other : slot < home || home <= other;
+      if (!reachable) {
+        keys[slot] = keys[other];
+        rowsOfKeys[slot] = rowsOfKeys[other];
+        slot = other;
+      }
+    }
+    keys[slot] = EMPTY;
+
+    keysOfRows[row] = EMPTY;
+    size--;
+    if (maxRows > 0) {
+      unlink(row);
+    }
+    if (freeRowCount == freeRows.length) {
+      freeRows = Arrays.copyOf(freeRows, Math.max(16, freeRowCount * 2));
+    }
+    freeRows[freeRowCount++] = row;
+  }
+
+  private void insert(long key, int row) {
+    int mask = keys.length - 1;
+    int slot = slotOf(key);
+    while (keys[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    rowsOfKeys[slot] = row;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    int[] oldRows = rowsOfKeys;
+    keys = new long[capacity];
+    rowsOfKeys = new int[capacity];
+    shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    Arrays.fill(keys, EMPTY);
+    for (int slot = 0; slot < oldKeys.length; slot++) {
+      if (oldKeys[slot] != EMPTY) {
+        insert(oldKeys[slot], oldRows[slot]);
+      }
+    }
+  }
+
+  private void linkFirst(int row) {
+    previous[row] = -1;
+    next[row] = head;
+    if (head >= 0) {
+      previous[head] = row;
+    } else {
+      tail = row;
+    }
+    head = row;
+  }
+
+  private void unlink(int row) {
+    if (previous[row] >= 0) {
+      next[previous[row]] = next[row];
+    } else {
+      head = next[row];
+    }
+    if (next[row] >= 0) {
+      previous[next[row]] = previous[row];
+    } else {
+      tail = previous[row];
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package tools;
+
+import java.util.*;
+
+/**
+ * Encodes the states of a learning environment as dense integer indexes, and
+ * decodes the indexes back to the values of the state axes.
+ * <p>
+ * A state is described by one value per axis, where the values of an axis have
+ * a range [0, R), and R is the radix of the axis. The index of a state is
+ * computed with mixed-radix arithmetic, where the first axis is the most
+ * significant one. This is the same order as the one of the cartesian product
+ * of the state axes, e.g., with the radices [4,4,2,2,2,2,4] the state
+ * [0,0,0,0,0,0,1] has the index 1 and the state [0,0,0,0,0,1,0] has the index 4.
+ * </p>
+ * <p>
+ * Encoding and decoding do not allocate, and take constant time.
+ * </p>
+ */
+public final class StateCodec {
+
+  private final int[] radices;
+  private final int[] strides;
+  private final int size;
+
+  /**
+   * Creates a codec for a state space with the given axes
+   *
+   * @param radices the number of possible values of each axis
+   */
+  public StateCodec(int... radices) {
+    if (radices.length == 0) {
+      throw new IllegalArgumentException("A state space needs at least one axis.");
+    }
+
+    this.radices = radices.clone();
+    this.strides = new int[radices.length];
+
+    long stride = 1;
+    for (int axis = radices.length - 1; axis >= 0; axis--) {
+      if (radices[axis] < 1) {
+        throw new IllegalArgumentException("Illegal radix for axis " + axis + ": " + radices[axis]);
+      }
+      this.strides[axis] = (int) stride;
+      stride *= radices[axis];
+      if (stride > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("The state space is too large to be indexed: "
+          + Arrays.toString(radices));
+      }
+    }
+    this.size = (int) stride;
+  }
+
+  /**
+   * Returns the number of states
+   *
+   * @return the number of states
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of axes of a state
+   *
+   * @return the number of axes
+   */
+  public int getAxisCount() {
+    return radices.length;
+  }
+
+  /**
+   * Returns the number of possible values of an axis
+   *
+   * @param axis the axis
+   * @return the radix of the axis
+   */
+  public int getRadix(int axis) {
+    return radices[axis];
+  }
+
+  /**
+   * Returns the index of the state described by the given axis values
+   *
+   * @param values the values of the axes
+   * @return the index of the state, or -1 if a value is out of range
+   */
+  public int encode(int[] values) {
+    checkAxisCount(values.length);
+
+    int state = 0;
+    for (int axis = 0; axis < radices.length; axis++) {
+      int value = values[axis];
+      if (value < 0 || value >= radices[axis]) {
+        return -1;
+      }
+      state += value * strides[axis];
+    }
+    return state;
+  }
+
+  /**
+   * Returns the index of the state described by the given axis values
+   *
+   * @param values the values of the axes
+   * @return the index of the state, or -1 if a value is missing or out of range
+   */
+  public int encode(List<Integer> values) {
+    checkAxisCount(values.size());
+
+    int state = 0;
+    for (int axis = 0; axis < radices.length; axis++) {
+      Integer value = values.get(axis);
+      if (value == null || value < 0 || value >= radices[axis]) {
+        return -1;
+      }
+      state += value * strides[axis];
+    }
+    return state;
+  }
+
+  /**
+   * Returns the value of an axis in a given state
+   *
+   * @param state the index of the state
+   * @param axis the axis
+   * @return the value of the axis
+   */
+  public int valueAt(int state, int axis) {
+    return (state / strides[axis]) % radices[axis];
+  }
+
+  /**
+   * Returns the index of the state that differs from a given state only in the
+   * value of one axis
+   *
+   * @param state the index of the state
+   * @param axis the axis
+   * @param value the new value of the axis
+   * @return the index of the resulting state
+   */
+  public int withValue(int state, int axis, int value) {
+    return state + (value - valueAt(state, axis)) * strides[axis];
+  }
+
+  /**
+   * Writes the values of the axes of a given state to an array
+   *
+   * @param state the index of the state
+   * @param values the array the values are written to
+   */
+  public void decode(int state, int[] values) {
+    checkAxisCount(values.length);
+
+    for (int axis = 0; axis < radices.length; axis++) {
+      values[axis] = valueAt(state, axis);
+    }
+  }
+
+  /**
+   * Returns the values of the axes of a given state, e.g., for logging
+   *
+   * @param state the index of the state
+   * @return the values of the axes
+   */
+  public List<Integer> decode(int state) {
+    List<Integer> values = new ArrayList<>(radices.length);
+    for (int axis = 0; axis < radices.length; axis++) {
+      values.add(valueAt(state, axis));
+    }
+    return values;
+  }
+
+  private void checkAxisCount(int count) {
+    if (count != radices.length) {
+      throw new IllegalArgumentException("Expected " + radices.length + " axis values, but got "
+        + count);
+    }
+  }
+}
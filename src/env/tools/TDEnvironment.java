@@ -0,0 +1,592 @@
+package tools;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.logging.Logger;
+
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+
+import ch.unisg.ics.interactions.wot.td.ThingDescription;
+import ch.unisg.ics.interactions.wot.td.affordances.ActionAffordance;
+import ch.unisg.ics.interactions.wot.td.affordances.Form;
+import ch.unisg.ics.interactions.wot.td.affordances.PropertyAffordance;
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
+import ch.unisg.ics.interactions.wot.td.schemas.BooleanSchema;
+import ch.unisg.ics.interactions.wot.td.schemas.DataSchema;
+import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
+import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
+import metrics.HttpMetrics;
+import wot.TDCache;
+import wot.TDHttpClient;
+
+/**
+ * A {@link LearningEnvironment} whose state space and action space are built
+ * from the W3C Web of Things Thing Description of an environment, so that
+ * environments with any number of zones and devices can be learnt, unlike with
+ * {@link Lab}.
+ * <p>
+ * The state is read from the status property of the environment, whose payload
+ * is an object. Each axis of the state is a property of the status: a numeric
+ * property is mapped to levels with a {@link Discretizer}, and a boolean
+ * property, e.g. the status of a light, has the values false and true. The
+ * properties are identified by their semantic type, e.g.
+ * "http://example.org/was#Z1Level", or by their name, e.g. "Z1Level", if they
+ * have no semantic type, in the same way as the parsed payload of the status
+ * is keyed. Each action affordance whose input is an object with a single
+ * boolean property, e.g. {"Z1Light": true}, sets a device of the environment,
+ * and it is matched to the boolean axis of the device by the semantic type or
+ * by the name of the property. For every
+ * device, there is an action that sets it to false and an action that sets it
+ * to true, which are applicable when the device has the other value.
+ * </p>
+ * <p>
+ * An environment is configured with the following properties:
+ * </p>
+ * <ul>
+ * <li> status: the semantic type of the status property (default
+ * "https://example.org/was#Status")
+ * <li> axis.N.property: the semantic type or the name of the status property
+ * of the axis N, starting from 0, e.g. "http://example.org/was#Z1Level"
+ * <li> axis.N.thresholds: the thresholds of the discretizer of the axis N, if
+ * the property is numeric, e.g. "50,200,400"
+ * <li> goalAxes: the axes that goal descriptions refer to, e.g. "0,1"
+ * <li> zone.N.axes: the level axis of the zone N, starting from 0, followed by
+ * the axes of its devices, e.g. "0,2,4" (see {@link ZonedEnvironment})
+ * <li> zone.N.neighbours: the zones whose devices affect the level of the zone
+ * N, e.g. "1" (default all the other zones)
+ * <li> sharedAxes: the axes that affect the levels of all the zones, e.g. "6"
+ * </ul>
+ * <p>
+ * The boolean properties of the status that are not configured become axes as
+ * well, after the configured axes and in the lexical order of their names.
+ * </p>
+ */
+public class TDEnvironment extends LearningEnvironment implements ZonedEnvironment {
+
+  private static final String DEFAULT_STATUS_TYPE = "https://example.org/was#Status";
+
+  private static final Logger LOGGER = Logger.getLogger(TDEnvironment.class.getName());
+
+  private static final HttpMetrics HTTP_METRICS = HttpMetrics.getInstance();
+
+  private final ThingDescription td;
+  private final String statusType;
+  private final PropertyAffordance status;
+  private final Form statusForm;
+
+  /**
+   * The key of the status property of each axis, i.e. its semantic type, or its
+   * name if it has none, the name of the property, the keys that its value may
+   * be parsed under, and its discretizer, or null if the property is boolean
+   */
+  private final String[] axisProperties;
+  private final String[] axisNames;
+  private final String[][] axisValueKeys;
+  private final Discretizer[] discretizers;
+
+  /**
+   * The axes of each zone, starting with its level axis, the neighbours of
+   * each zone, and the axes that are shared by the zones
+   */
+  private final int[][] zoneAxes;
+  private final int[][] zoneNeighbours;
+  private final int[] sharedAxes;
+
+  /**
+   * The axes that actions set, and the applicable actions of each combination
+   * of their values, indexed by the values of the axes as bits
+   */
+  private int[] deviceAxes = new int[0];
+  private int[][] applicableActionsOfDevices;
+  private List<List<Integer>> applicableActionListsOfDevices;
+
+  /**
+   * The current state of the environment, as last observed, or -1 if it has
+   * not been observed
+   */
+  private int currentState = -1;
+
+  /**
+   * Creates an environment from the W3C Web of Things Thing Description at a
+   * URL, and from a configuration file (see {@link TDEnvironment})
+   *
+   * @param url the location of the W3C Web of Things Thing Description
+   * @param configuration the configuration file, in the format of
+   * {@link Properties}
+   * @return the environment
+   * @throws IOException if the Thing Description or the configuration cannot
+   * be read
+   */
+  public static TDEnvironment load(String url, Path configuration) throws IOException {
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(configuration, StandardCharsets.UTF_8)) {
+      properties.load(reader);
+    }
+    return new TDEnvironment(TDCache.getInstance().get(url), properties);
+  }
+
+  /**
+   * Creates an environment from a W3C Web of Things Thing Description
+   *
+   * @param td the W3C Web of Things Thing Description of the environment
+   * @param configuration the configuration (see {@link TDEnvironment})
+   * @throws IllegalArgumentException if the Thing Description does not match
+   * the configuration
+   */
+  public TDEnvironment(ThingDescription td, Properties configuration) {
+    this.td = td;
+    this.statusType = configuration.getProperty("status", DEFAULT_STATUS_TYPE);
+
+    Optional<PropertyAffordance> p = td.getFirstPropertyBySemanticType(statusType);
+    Optional<Form> f = p.isPresent() ? p.get().getFirstFormForOperationType(TD.readProperty)
+      : Optional.empty();
+    if (!f.isPresent() || !(p.get().getDataSchema() instanceof ObjectSchema)) {
+      throw new IllegalArgumentException("No readable status property of type " + statusType);
+    }
+    this.status = p.get();
+    this.statusForm = f.get();
+    Map<String, DataSchema> statusProperties = ((ObjectSchema) status.getDataSchema()).getProperties();
+
+    // the configured axes, followed by the other boolean properties
+    List<String> properties = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    List<Discretizer> discretizers = new ArrayList<>();
+    for (int axis = 0; configuration.containsKey("axis." + axis + ".property"); axis++) {
+      String property = configuration.getProperty("axis." + axis + ".property");
+      String thresholds = configuration.getProperty("axis." + axis + ".thresholds");
+      String name = nameOf(statusProperties, property);
+      if (name == null) {
+        throw new IllegalArgumentException("The status has no property " + property);
+      }
+      if (thresholds == null && !(statusProperties.get(name) instanceof BooleanSchema)) {
+        throw new IllegalArgumentException("The property " + property
+          + " is not boolean, and needs thresholds");
+      }
+      properties.add(property);
+      names.add(name);
+      discretizers.add(thresholds == null ? null : Discretizer.parse(thresholds));
+    }
+
+    List<String> devices = new ArrayList<>();
+    for (Map.Entry<String, DataSchema> property : statusProperties.entrySet()) {
+      if (property.getValue() instanceof BooleanSchema && !names.contains(property.getKey())) {
+        devices.add(property.getKey());
+      }
+    }
+    Collections.sort(devices);
+    for (String device : devices) {
+      properties.add(keyOf(device, statusProperties.get(device)));
+      names.add(device);
+      discretizers.add(null);
+    }
+
+    this.axisProperties = properties.toArray(new String[0]);
+    this.axisNames = names.toArray(new String[0]);
+    this.axisValueKeys = new String[axisProperties.length][];
+    for (int axis = 0; axis < axisProperties.length; axis++) {
+      // the key of the axis, the other semantic types of the property, and its name
+      Set<String> keys = new LinkedHashSet<>();
+      keys.add(axisProperties[axis]);
+      keys.addAll(semanticTypesOf(statusProperties.get(axisNames[axis])));
+      keys.add(axisNames[axis]);
+      axisValueKeys[axis] = keys.toArray(new String[0]);
+    }
+    this.discretizers = discretizers.toArray(new Discretizer[0]);
+    this.goalAxes = parseAxes(configuration.getProperty("goalAxes", ""));
+
+    List<int[]> zones = new ArrayList<>();
+    for (int zone = 0; configuration.containsKey("zone." + zone + ".axes"); zone++) {
+      int[] axes = parseAxes(configuration.getProperty("zone." + zone + ".axes"));
+      if (axes.length == 0) {
+        throw new IllegalArgumentException("The zone " + zone + " has no level axis");
+      }
+      zones.add(axes);
+    }
+    this.zoneAxes = zones.toArray(new int[0][]);
+    this.zoneNeighbours = new int[zoneAxes.length][];
+    for (int zone = 0; zone < zoneAxes.length; zone++) {
+      String neighbours = configuration.getProperty("zone." + zone + ".neighbours");
+      if (neighbours != null) {
+        zoneNeighbours[zone] = parseAxes(neighbours);
+      } else {
+        zoneNeighbours[zone] = new int[zoneAxes.length - 1];
+        for (int other = 0, i = 0; other < zoneAxes.length; other++) {
+          if (other != zone) {
+            zoneNeighbours[zone][i++] = other;
+          }
+        }
+      }
+      for (int neighbour : zoneNeighbours[zone]) {
+        if (neighbour < 0 || neighbour >= zoneAxes.length) {
+          throw new IllegalArgumentException("Illegal neighbour of zone " + zone + ": " + neighbour);
+        }
+      }
+    }
+    this.sharedAxes = parseAxes(configuration.getProperty("sharedAxes", ""));
+
+    createStateSpace();
+    LOGGER.info("The environment has a state space of n=" + getStateCount() + " with the axes "
+      + properties);
+
+    createActionSpace();
+    LOGGER.info("The environment has an action space of m=" + getActionCount());
+    for (Action action : actionSpace.values()) {
+      LOGGER.fine(action::toString);
+    }
+  }
+
+  /**
+   * Returns the status property of each axis of the state
+   *
+   * @return the semantic types of the properties, or the names of the
+   * properties that have no semantic type
+   */
+  public List<String> getAxisProperties() {
+    return Collections.unmodifiableList(Arrays.asList(axisProperties));
+  }
+
+  /**
+   * @see {@link ZonedEnvironment#getZoneCount()}
+   */
+  @Override
+  public int getZoneCount() {
+    return zoneAxes.length;
+  }
+
+  /**
+   * @see {@link ZonedEnvironment#getLevelAxis(int)}
+   */
+  @Override
+  public int getLevelAxis(int zone) {
+    return zoneAxes[zone][0];
+  }
+
+  /**
+   * @see {@link ZonedEnvironment#getDeviceAxes(int)}
+   */
+  @Override
+  public int[] getDeviceAxes(int zone) {
+    return Arrays.copyOfRange(zoneAxes[zone], 1, zoneAxes[zone].length);
+  }
+
+  /**
+   * @see {@link ZonedEnvironment#getNeighbours(int)}
+   */
+  @Override
+  public int[] getNeighbours(int zone) {
+    return zoneNeighbours[zone].clone();
+  }
+
+  /**
+   * @see {@link ZonedEnvironment#getSharedAxes()}
+   */
+  @Override
+  public int[] getSharedAxes() {
+    return sharedAxes.clone();
+  }
+
+  /**
+   * @see {@link LearningEnvironment#getCompatibleStates(List)}
+   */
+  @Override
+  public List<Integer> getCompatibleStates(List<Object> stateDescription) {
+    return Collections.unmodifiableList(Ints.asList(getCompatibleStateArray(stateDescription)));
+  }
+
+  /**
+   * @see {@link LearningEnvironment#getCompatibleStateArray(List)}
+   */
+  @Override
+  public int[] getCompatibleStateArray(List<Object> stateDescription) {
+    return getIndexedCompatibleStates(stateDescription);
+  }
+
+  /**
+   * @see {@link LearningEnvironment#getApplicableActions(int)}
+   */
+  @Override
+  public List<Integer> getApplicableActions(int state) {
+    return applicableActionListsOfDevices.get(devicesOf(state));
+  }
+
+  /**
+   * Looks up the applicable actions by the values of the devices of the
+   * state, so that the table grows with the number of devices rather than
+   * with the state space.
+   *
+   * @see {@link LearningEnvironment#getApplicableActionArray(int)}
+   */
+  @Override
+  public int[] getApplicableActionArray(int state) {
+    return applicableActionsOfDevices[devicesOf(state)];
+  }
+
+  /**
+   * Reads the status of the environment, and updates the current state from
+   * it. If the status cannot be read, the previously observed state is
+   * returned.
+   *
+   * @see {@link LearningEnvironment#readCurrentState()}
+   */
+  @Override
+  public int readCurrentState() {
+    TDHttpRequest request = new TDHttpRequest(statusForm, TD.readProperty);
+
+    try {
+      long start = System.nanoTime();
+      TDHttpResponse response = TDHttpClient.getInstance().execute(statusForm, TD.readProperty, request);
+      HTTP_METRICS.recordRequest(statusType, System.nanoTime() - start);
+      updateCurrentState(response.getPayloadAsObject((ObjectSchema) status.getDataSchema()));
+    } catch (IOException e) {
+      HTTP_METRICS.recordFailure(statusType);
+      LOGGER.severe(e.getMessage());
+    }
+    return currentState;
+  }
+
+  /**
+   * @see {@link LearningEnvironment#performAction(int)}
+   */
+  @Override
+  public void performAction(int action) {
+    Action a = actionSpace.get(action);
+
+    try {
+      long start = System.nanoTime();
+      TDHttpClient.getInstance().execute(a.getForm(), TD.invokeAction, a.getRequest());
+      HTTP_METRICS.recordRequest(a.getActionTag(), System.nanoTime() - start);
+    } catch (IOException e) {
+      HTTP_METRICS.recordFailure(a.getActionTag());
+      LOGGER.severe(e.getMessage());
+    }
+  }
+
+  /**
+   * Updates the current state from the status of the environment. The state
+   * is not updated if a property of an axis is missing.
+   *
+   * @param status the payload of the status property
+   * @return the current state
+   */
+  int updateCurrentState(Map<String, Object> status) {
+    int state = 0;
+    for (int axis = 0; axis < axisProperties.length; axis++) {
+      Object value = null;
+      for (int i = 0; value == null && i < axisValueKeys[axis].length; i++) {
+        value = status.get(axisValueKeys[axis][i]);
+      }
+      int axisValue;
+      if (discretizers[axis] != null && value instanceof Number) {
+        axisValue = discretizers[axis].discretize(((Number) value).doubleValue());
+      } else if (discretizers[axis] == null && value instanceof Boolean) {
+        axisValue = (Boolean) value ? 1 : 0;
+      } else {
+        LOGGER.warning("The status has no valid value for " + axisProperties[axis] + ": " + value);
+        return currentState;
+      }
+      state = stateCodec.withValue(state, axis, axisValue);
+    }
+    this.currentState = state;
+    return state;
+  }
+
+  /**
+   * Creates the state space from the axes
+   */
+  private void createStateSpace() {
+    int[] radices = new int[axisProperties.length];
+    List<Set<Integer>> axes = new ArrayList<>();
+    List<Map<Integer, ?>> values = new ArrayList<>();
+
+    for (int axis = 0; axis < radices.length; axis++) {
+      Map<Integer, Object> axisValues = new HashMap<>();
+      if (discretizers[axis] == null) {
+        axisValues.put(0, false);
+        axisValues.put(1, true);
+      } else {
+        for (int level = 0; level < discretizers[axis].getLevelCount(); level++) {
+          axisValues.put(level, level);
+        }
+      }
+      radices[axis] = axisValues.size();
+      axes.add(ContiguousSet.create(Range.closedOpen(0, radices[axis]), DiscreteDomain.integers()));
+      values.add(Collections.unmodifiableMap(axisValues));
+    }
+
+    List<int[]> configuredAxes = new ArrayList<>(Arrays.asList(zoneAxes));
+    configuredAxes.add(goalAxes);
+    configuredAxes.add(sharedAxes);
+    for (int[] configured : configuredAxes) {
+      for (int axis : configured) {
+        if (axis < 0 || axis >= radices.length) {
+          throw new IllegalArgumentException("Illegal axis: " + axis);
+        }
+      }
+    }
+
+    this.stateCodec = new StateCodec(radices);
+    this.stateSpace = Sets.cartesianProduct(axes);
+    this.axisValues = Collections.unmodifiableList(values);
+  }
+
+  /**
+   * Creates the action space from the action affordances that set the
+   * boolean axes, ordered by axis and then by value
+   */
+  private void createActionSpace() {
+    SortedMap<Integer, ActionAffordance> affordances = new TreeMap<>();
+
+    for (ActionAffordance affordance : td.getActions()) {
+      Optional<DataSchema> ds = affordance.getInputSchema();
+      if (!ds.isPresent() || !(ds.get() instanceof ObjectSchema)
+          || !affordance.getFirstFormForOperationType(TD.invokeAction).isPresent()) {
+        continue;
+      }
+
+      Map<String, DataSchema> props = ((ObjectSchema) ds.get()).getProperties();
+      if (props.size() == 1 && props.values().iterator().next() instanceof BooleanSchema) {
+        Map.Entry<String, DataSchema> property = props.entrySet().iterator().next();
+        int axis = axisOfDevice(property.getKey(), property.getValue());
+        if (axis >= 0) {
+          affordances.putIfAbsent(axis, affordance);
+        }
+      }
+    }
+
+    List<String> types = new ArrayList<>();
+    for (Map.Entry<Integer, ActionAffordance> entry : affordances.entrySet()) {
+      ActionAffordance affordance = entry.getValue();
+      String affType = affordance.getSemanticTypes().isEmpty() ? axisProperties[entry.getKey()]
+        : affordance.getSemanticTypes().get(0);
+      Form form = affordance.getFirstFormForOperationType(TD.invokeAction).get();
+      ObjectSchema schema = (ObjectSchema) affordance.getInputSchema().get();
+      String propName = schema.getProperties().keySet().iterator().next();
+      types.add(affType);
+
+      for (boolean propValue : Arrays.asList(false, true)) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put(propName, propValue);
+        TDHttpRequest request = new TDHttpRequest(form, TD.invokeAction);
+        request.setObjectPayload(schema, payload);
+        Action action = new Action(affType, new Object[]{propName}, new Object[]{propValue}, request, form);
+        action.setApplicableOn(entry.getKey(), propValue ? 0 : 1);
+        actionSpace.put(actionSpace.size(), action);
+      }
+    }
+    this.affordanceTypes = types;
+    this.deviceAxes = Ints.toArray(affordances.keySet());
+    indexDevices();
+  }
+
+  /**
+   * Returns the boolean axis of the property that an action sets, i.e. the
+   * axis of the status property with the same semantic type or the same name,
+   * e.g. the axis of "http://example.org/was#Z1Light" for "Z1Light", or -1 if
+   * there is none
+   */
+  private int axisOfDevice(String property, DataSchema schema) {
+    Set<String> types = semanticTypesOf(schema);
+    for (int axis = 0; axis < axisProperties.length; axis++) {
+      String axisProperty = axisProperties[axis];
+      if (discretizers[axis] == null && (types.contains(axisProperty)
+          || axisNames[axis].equals(property) || axisProperty.equals(property)
+          || axisProperty.endsWith("#" + property) || axisProperty.endsWith("/" + property))) {
+        return axis;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the name of the status property with a semantic type, or with a
+   * name, or null if there is none
+   */
+  private static String nameOf(Map<String, DataSchema> statusProperties, String property) {
+    for (Map.Entry<String, DataSchema> entry : statusProperties.entrySet()) {
+      if (semanticTypesOf(entry.getValue()).contains(property)) {
+        return entry.getKey();
+      }
+    }
+    return statusProperties.containsKey(property) ? property : null;
+  }
+
+  /**
+   * Returns the key of a status property, i.e. its first semantic type in
+   * lexical order, or its name if it has none
+   */
+  private static String keyOf(String name, DataSchema schema) {
+    Set<String> types = semanticTypesOf(schema);
+    return types.isEmpty() ? name : new TreeSet<>(types).first();
+  }
+
+  private static Set<String> semanticTypesOf(DataSchema schema) {
+    Set<String> types = schema.getSemanticTypes();
+    return types == null ? Collections.<String>emptySet() : types;
+  }
+
+  /**
+   * Builds the table of the applicable actions of each combination of the
+   * values of the devices
+   */
+  private void indexDevices() {
+    if (deviceAxes.length >= Integer.SIZE - 1) {
+      throw new IllegalArgumentException("Too many devices: " + deviceAxes.length);
+    }
+
+    int combinations = 1 << deviceAxes.length;
+    this.applicableActionsOfDevices = new int[combinations][];
+    List<List<Integer>> lists = new ArrayList<>(combinations);
+
+    for (int devices = 0; devices < combinations; devices++) {
+      int[] row = new int[actionSpace.size()];
+      int size = 0;
+      for (int action = 0; action < actionSpace.size(); action++) {
+        Action a = actionSpace.get(action);
+        int bit = Arrays.binarySearch(deviceAxes, a.getApplicableOnStateAxis());
+        if (((devices >>> bit) & 1) == a.getApplicableOnStateValue()) {
+          row[size++] = action;
+        }
+      }
+      applicableActionsOfDevices[devices] = Arrays.copyOf(row, size);
+      lists.add(Collections.unmodifiableList(Ints.asList(applicableActionsOfDevices[devices])));
+    }
+    this.applicableActionListsOfDevices = Collections.unmodifiableList(lists);
+  }
+
+  /**
+   * Returns the values of the devices of a state as bits
+   */
+  private int devicesOf(int state) {
+    int devices = 0;
+    for (int bit = 0; bit < deviceAxes.length; bit++) {
+      devices |= stateCodec.valueAt(state, deviceAxes[bit]) << bit;
+    }
+    return devices;
+  }
+
+  private static int[] parseAxes(String axes) {
+    if (axes.trim().isEmpty()) {
+      return new int[0];
+    }
+
+    String[] values = axes.split(",");
+    int[] parsed = new int[values.length];
+    for (int i = 0; i < values.length; i++) {
+      try {
+        parsed[i] = Integer.parseInt(values[i].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Illegal axis: " + values[i]);
+      }
+    }
+    return parsed;
+  }
+}
@@ -0,0 +1,269 @@
+package tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only binary log of the transitions observed in a learning
+ * environment, written and read through a memory mapping.
+ * <p>
+ * The log starts with a header, followed by fixed-size records:
+ * </p>
+ * <pre>
+ * header: magic "TLOG" (int), version (int), recordSize (int), reserved (int),
+ *         recordCount (long), reserved (long)
+ * record: timestamp (long), state (int), action (int), nextState (int),
+ *         padding (int), z1Lux (double), z2Lux (double), sunshineLux (double),
+ *         energyCost (double)
+ * </pre>
+ * <p>
+ * The record count is updated after each record is written, so a log that was
+ * not closed properly still contains every complete record. Records are read
+ * back with a {@link Reader} cursor, without creating an object per record.
+ * </p>
+ */
+public final class TransitionLog {
+
+  private static final int MAGIC = 0x544C4F47; // "TLOG"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+  private static final int RECORD_SIZE = 56;
+  private static final int COUNT_OFFSET = 16;
+  private static final long INITIAL_CAPACITY = 4096L * RECORD_SIZE;
+
+  private TransitionLog() {
+  }
+
+  /**
+   * Appends transitions to a log file
+   */
+  public static final class Writer implements Closeable {
+
+    private final Path path;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long count;
+
+    private Writer(Path path, FileChannel channel) throws IOException {
+      this.path = path;
+      this.channel = channel;
+
+      if (channel.size() == 0) {
+        map(HEADER_SIZE + INITIAL_CAPACITY);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, RECORD_SIZE);
+        buffer.putLong(COUNT_OFFSET, 0);
+      } else {
+        map(channel.size());
+        checkHeader(buffer, path);
+        this.count = buffer.getLong(COUNT_OFFSET);
+      }
+    }
+
+    /**
+     * Opens a log file for appending, creating it if it does not exist
+     *
+     * @param path the location of the log
+     * @return the writer
+     * @throws IOException if the file cannot be opened or is not a transition log
+     */
+    public static Writer open(Path path) throws IOException {
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+      try {
+        return new Writer(path, channel);
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    /**
+     * Appends a transition to the log
+     *
+     * @param timestamp the time of the observation of the next state, in milliseconds
+     * @param state the state in which the action was performed
+     * @param action the performed action
+     * @param nextState the observed next state
+     * @param z1Lux the observed illuminance of Zone 1 in lux
+     * @param z2Lux the observed illuminance of Zone 2 in lux
+     * @param sunshineLux the observed sunshine in lux
+     * @param energyCost the observed energy cost
+     * @throws IOException if the log cannot be extended
+     */
+    public synchronized void append(long timestamp, int state, int action, int nextState,
+        double z1Lux, double z2Lux, double sunshineLux, double energyCost) throws IOException {
+      long offset = HEADER_SIZE + count * RECORD_SIZE;
+      if (offset + RECORD_SIZE > buffer.capacity()) {
+        map(Math.min(Integer.MAX_VALUE, HEADER_SIZE + 2 * (offset - HEADER_SIZE + RECORD_SIZE)));
+        if (offset + RECORD_SIZE > buffer.capacity()) {
+          throw new IOException("The transition log is full: " + path);
+        }
+      }
+
+      int i = (int) offset;
+      buffer.putLong(i, timestamp);
+      buffer.putInt(i + 8, state);
+      buffer.putInt(i + 12, action);
+      buffer.putInt(i + 16, nextState);
+      buffer.putDouble(i + 24, z1Lux);
+      buffer.putDouble(i + 32, z2Lux);
+      buffer.putDouble(i + 40, sunshineLux);
+      buffer.putDouble(i + 48, energyCost);
+
+      count++;
+      buffer.putLong(COUNT_OFFSET, count);
+    }
+
+    /**
+     * Returns the number of transitions in the log
+     *
+     * @return the number of transitions
+     */
+    public synchronized long getCount() {
+      return count;
+    }
+
+    /**
+     * Flushes the log to the storage device and closes it
+     */
+    @Override
+    public synchronized void close() throws IOException {
+      buffer.force();
+      channel.close();
+    }
+
+    private void map(long size) throws IOException {
+      this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+  /**
+   * Reads the transitions of a log file with a cursor. The accessors return the
+   * fields of the record the cursor is on.
+   * <pre>
+   * try (TransitionLog.Reader reader = TransitionLog.Reader.open(path)) {
+   *   while (reader.next()) {
+   *     update(reader.getState(), reader.getAction(), reader.getNextState());
+   *   }
+   * }
+   * </pre>
+   */
+  public static final class Reader implements Closeable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long count;
+    private long index = -1;
+    private int offset;
+
+    private Reader(Path path, FileChannel channel) throws IOException {
+      this.channel = channel;
+      this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      checkHeader(buffer, path);
+      this.count = buffer.getLong(COUNT_OFFSET);
+      if (HEADER_SIZE + count * RECORD_SIZE > buffer.capacity()) {
+        throw new IOException("Truncated transition log: " + path);
+      }
+    }
+
+    /**
+     * Opens a log file for reading
+     *
+     * @param path the location of the log
+     * @return the reader, positioned before the first transition
+     * @throws IOException if the file cannot be opened or is not a transition log
+     */
+    public static Reader open(Path path) throws IOException {
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+      try {
+        return new Reader(path, channel);
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    /**
+     * Returns the number of transitions in the log
+     *
+     * @return the number of transitions
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * Moves the cursor to the next transition
+     *
+     * @return false if there are no more transitions
+     */
+    public boolean next() {
+      if (index + 1 >= count) {
+        return false;
+      }
+      index++;
+      offset = (int) (HEADER_SIZE + index * RECORD_SIZE);
+      return true;
+    }
+
+    /**
+     * Moves the cursor before the first transition
+     */
+    public void rewind() {
+      index = -1;
+    }
+
+    public long getTimestamp() {
+      return buffer.getLong(offset);
+    }
+
+    public int getState() {
+      return buffer.getInt(offset + 8);
+    }
+
+    public int getAction() {
+      return buffer.getInt(offset + 12);
+    }
+
+    public int getNextState() {
+      return buffer.getInt(offset + 16);
+    }
+
+    public double getZ1Lux() {
+      return buffer.getDouble(offset + 24);
+    }
+
+    public double getZ2Lux() {
+      return buffer.getDouble(offset + 32);
+    }
+
+    public double getSunshineLux() {
+      return buffer.getDouble(offset + 40);
+    }
+
+    public double getEnergyCost() {
+      return buffer.getDouble(offset + 48);
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  private static void checkHeader(MappedByteBuffer buffer, Path path) throws IOException {
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a transition log: " + path);
+    }
+    if (buffer.getInt(4) != VERSION || buffer.getInt(8) != RECORD_SIZE) {
+      throw new IOException("Unsupported transition log version " + buffer.getInt(4) + ": " + path);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package tools;
+
+import java.util.*;
+
+/**
+ * A model of the transitions of a learning environment, which counts how often
+ * each next state has been observed after performing an action in a state.
+ * <p>
+ * The observed frequencies are used as the transition probabilities
+ * P(nextState | state, action), e.g., for computing Q matrices with
+ * {@link ValueIteration} without interacting with the environment.
+ * </p>
+ * <p>
+ * A TransitionModel is not thread-safe: transitions must not be observed while
+ * the model is being read.
+ * </p>
+ */
+public class TransitionModel {
+
+  private final int stateCount;
+  private final int actionCount;
+
+  /* per (state, action) pair: the observed next states and their counts */
+  private final int[][] successors;
+  private final int[][] counts;
+  private final int[] successorCounts;
+  private final int[] totals;
+
+  private long observations;
+
+  /**
+   * Creates an empty model for an environment of the given size
+   *
+   * @param stateCount the number of states
+   * @param actionCount the number of actions
+   * @throws IllegalArgumentException if there are more pairs of states and
+   * actions than an array can index
+   */
+  public TransitionModel(int stateCount, int actionCount) {
+    long pairCount = (long) stateCount * actionCount;
+    if (pairCount > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The environment is too large for a transition model: "
+        + stateCount + " states x " + actionCount + " actions");
+    }
+
+    this.stateCount = stateCount;
+    this.actionCount = actionCount;
+
+    int pairs = (int) pairCount;
+    this.successors = new int[pairs][];
+    this.counts = new int[pairs][];
+    this.successorCounts = new int[pairs];
+    this.totals = new int[pairs];
+  }
+
+  /**
+   * Creates a model by sampling the transitions of a simulated lab, starting
+   * from every state with every applicable action
+   *
+   * @param lab the simulated lab
+   * @param samples the number of samples for each pair of state and applicable action
+   * @return the model
+   */
+  public static TransitionModel sample(SimulatedLab lab, int samples) {
+    TransitionModel model = new TransitionModel(lab.getStateCount(), lab.getActionCount());
+
+    for (int state = 0; state < lab.getStateCount(); state++) {
+      for (int action : lab.getApplicableActionArray(state)) {
+        for (int i = 0; i < samples; i++) {
+          lab.moveTo(state);
+          lab.performAction(action);
+          lab.awaitSettled(0);
+          model.observe(state, action, lab.readCurrentState());
+        }
+      }
+    }
+    return model;
+  }
+
+  /**
+   * Records an observed transition
+   *
+   * @param state the state in which the action was performed
+   * @param action the performed action
+   * @param nextState the observed next state
+   */
+  public void observe(int state, int action, int nextState) {
+    int pair = state * actionCount + action;
+    int size = successorCounts[pair];
+
+    for (int i = 0; i < size; i++) {
+      if (successors[pair][i] == nextState) {
+        counts[pair][i]++;
+        totals[pair]++;
+        observations++;
+        return;
+      }
+    }
+
+    if (successors[pair] == null) {
+      successors[pair] = new int[2];
+      counts[pair] = new int[2];
+    } else if (size == successors[pair].length) {
+      successors[pair] = Arrays.copyOf(successors[pair], size * 2);
+      counts[pair] = Arrays.copyOf(counts[pair], size * 2);
+    }
+    successors[pair][size] = nextState;
+    counts[pair][size] = 1;
+    successorCounts[pair]++;
+    totals[pair]++;
+    observations++;
+  }
+
+  /**
+   * Returns the number of states
+   *
+   * @return the number of states
+   */
+  public int getStateCount() {
+    return stateCount;
+  }
+
+  /**
+   * Returns the number of actions
+   *
+   * @return the number of actions
+   */
+  public int getActionCount() {
+    return actionCount;
+  }
+
+  /**
+   * Returns the number of transitions observed so far
+   *
+   * @return the number of observed transitions
+   */
+  public long getObservationCount() {
+    return observations;
+  }
+
+  /**
+   * Returns the number of distinct next states observed for a state and an action
+   */
+  int getSuccessorCount(int state, int action) {
+    return successorCounts[state * actionCount + action];
+  }
+
+  /**
+   * Returns the i-th distinct next state observed for a state and an action
+   */
+  int getSuccessor(int state, int action, int i) {
+    return successors[state * actionCount + action][i];
+  }
+
+  /**
+   * Returns the probability of the i-th distinct next state observed for a state
+   * and an action
+   */
+  double getProbability(int state, int action, int i) {
+    int pair = state * actionCount + action;
+    return (double) counts[pair][i] / totals[pair];
+  }
+}
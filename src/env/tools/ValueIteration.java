@@ -0,0 +1,73 @@
+package tools;
+
+import java.util.*;
+
+/**
+ * Computes the Q matrix of a goal from a {@link TransitionModel} with
+ * synchronous value iteration, without interacting with the environment.
+ * <p>
+ * The reward of a transition is the goal reward if the goal is reached in the
+ * next state, and 0 otherwise, as in {@link QLearner#calculateQ}. Pairs of states
+ * and actions that have never been observed keep a Q value of 0.
+ * </p>
+ */
+public final class ValueIteration {
+
+  private ValueIteration() {
+  }
+
+  /**
+   * Computes the Q matrix of a goal
+   *
+   * @param model the transition model of the environment
+   * @param environment the environment, for the applicable actions of each state
+   * @param goals the goal space of the environment
+   * @param goal the goal
+   * @param reward the reward assigned when reaching the goal state
+   * @param gamma the discount factor [0,1)
+   * @param tolerance the largest change of a state value at which the iteration stops
+   * @param maxIterations the maximum number of iterations
+   * @return the Q matrix in row-major order (see {@link QTableStore#loadTable(int, double[])})
+   */
+  public static double[] solve(TransitionModel model, LearningEnvironment environment,
+      GoalSpace goals, int goal, double reward, double gamma, double tolerance,
+      int maxIterations) {
+    int stateCount = model.getStateCount();
+    int actionCount = model.getActionCount();
+
+    double[] q = new double[stateCount * actionCount];
+    double[] values = new double[stateCount];
+    double[] nextValues = new double[stateCount];
+
+    for (int iteration = 0; iteration < maxIterations; iteration++) {
+      double delta = 0;
+
+      for (int state = 0; state < stateCount; state++) {
+        double max = 0;
+
+        for (int action : environment.getApplicableActionArray(state)) {
+          double value = 0;
+          for (int i = 0; i < model.getSuccessorCount(state, action); i++) {
+            int next = model.getSuccessor(state, action, i);
+            double r = goals.goalOf(next) == goal ? reward : 0;
+            value += model.getProbability(state, action, i) * (r + gamma * values[next]);
+          }
+          q[state * actionCount + action] = value;
+          max = Math.max(max, value);
+        }
+
+        nextValues[state] = max;
+        delta = Math.max(delta, Math.abs(max - values[state]));
+      }
+
+      double[] swap = values;
+      values = nextValues;
+      nextValues = swap;
+
+      if (delta < tolerance) {
+        break;
+      }
+    }
+    return q;
+  }
+}
@@ -0,0 +1,140 @@
+package tools;
+
+/**
+ * An abstract class for representing a batch of independent instances of a
+ * learning environment that are stepped in lockstep, which can be used for Q
+ * learning at scale.
+ * <p>
+ * The instances share the state space and the action space, and are addressed
+ * by their position in the batch, in the range [0, N), where N is the size of
+ * the batch. All the per-instance data is exchanged through primitive arrays
+ * with one entry per instance, so that stepping the batch does not allocate.
+ * </p>
+ */
+public abstract class VectorLearningEnvironment {
+
+  /**
+   * The number of instances in the batch
+   */
+  protected final int size;
+
+  /**
+   * Encodes the states of the instances (see {@link LearningEnvironment#getStateCodec()})
+   */
+  protected StateCodec stateCodec;
+
+  /**
+   * The goals that can be rewarded in the environment
+   */
+  protected GoalSpace goalSpace;
+
+  /**
+   * The goal that is rewarded in every instance
+   */
+  protected int goal = -1;
+
+  /**
+   * The reward assigned when an instance reaches the goal
+   */
+  protected double goalReward;
+
+  protected VectorLearningEnvironment(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("A batch needs at least one instance: " + size);
+    }
+    this.size = size;
+  }
+
+  /**
+   * Returns the number of instances in the batch
+   *
+   * @return the number of instances
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the size of the state space
+   *
+   * @return the size
+   */
+  public int getStateCount() {
+    return stateCodec.size();
+  }
+
+  /**
+   * Returns the codec of the states of the state space
+   *
+   * @return the state codec
+   */
+  public StateCodec getStateCodec() {
+    return stateCodec;
+  }
+
+  /**
+   * Returns the goal space of the environment
+   *
+   * @return the goal space
+   */
+  public GoalSpace getGoalSpace() {
+    return goalSpace;
+  }
+
+  /**
+   * Sets the goal that is rewarded in every instance
+   *
+   * @param goal the goal (see {@link GoalSpace})
+   * @param reward the reward assigned when an instance reaches the goal
+   */
+  public void setGoal(int goal, double reward) {
+    this.goal = goal;
+    this.goalReward = reward;
+  }
+
+  /**
+   * Returns the size of the action space
+   *
+   * @return the size
+   */
+  public abstract int getActionCount();
+
+  /**
+   * Returns the actions that are applicable in a given state, without allocating
+   * (see {@link LearningEnvironment#getApplicableActionArray(int)})
+   *
+   * @param state the state
+   * @return the applicable actions
+   */
+  public abstract int[] getApplicableActionArray(int state);
+
+  /**
+   * Moves every instance to a random state
+   *
+   * @param states the array the new states of the instances are written to
+   */
+  public void reset(int[] states) {
+    for (int i = 0; i < size; i++) {
+      states[i] = reset(i);
+    }
+  }
+
+  /**
+   * Moves an instance to a random state
+   *
+   * @param instance the instance
+   * @return the new state of the instance
+   */
+  public abstract int reset(int instance);
+
+  /**
+   * Performs one action in every instance, and lets every instance settle.
+   *
+   * @param actions the action to perform in each instance
+   * @param nextStates the array the resulting states are written to
+   * @param rewards the array the rewards of the resulting states are written to,
+   *                i.e. the goal reward for the instances that reached the goal
+   *                and 0 for the others
+   */
+  public abstract void step(int[] actions, int[] nextStates, double[] rewards);
+}
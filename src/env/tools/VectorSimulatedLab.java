@@ -0,0 +1,153 @@
+package tools;
+
+import java.util.*;
+
+/**
+* A class that extends {@link VectorLearningEnvironment} for simulating a batch
+* of independent labs in lockstep.
+*
+* <p> Each instance follows the same dynamics as a {@link SimulatedLab}, where
+* every step advances the instance by one environment tick. The instances are
+* kept in structure-of-arrays form: the devices of an instance are packed in the
+* bits of one int, and the illuminance values are kept in primitive arrays.
+* </p>
+* <p> A VectorSimulatedLab is not thread-safe.
+* </p>
+*/
+public class VectorSimulatedLab extends VectorLearningEnvironment {
+
+  private static final int Z1_LIGHT = 1;
+  private static final int Z2_LIGHT = 1 << 1;
+  private static final int Z1_BLINDS = 1 << 2;
+  private static final int Z2_BLINDS = 1 << 3;
+  private static final int ALL_DEVICES = Z1_LIGHT | Z2_LIGHT | Z1_BLINDS | Z2_BLINDS;
+
+  private final Random random;
+
+  /** The applicable actions of each state, shared with a {@link SimulatedLab} */
+  private final SimulatedLab template;
+
+  /** The device bit that each action sets or clears */
+  private final int[] actionDevice;
+
+  /** True if the action switches its device on */
+  private final boolean[] actionValue;
+
+  private final int[] devices;
+  private final double[] sunshineLux;
+  private final double[] z1Lux;
+  private final double[] z2Lux;
+
+  private final int[] axisValues;
+
+  /**
+  * A {@link VectorSimulatedLab} instance is constructed with the number of labs
+  * of the batch, and a fixed seed for the sunshine of the simulation
+  *
+  * @param size the number of labs
+  * @param seed the seed of the simulation
+  */
+  public VectorSimulatedLab(int size, long seed) {
+    super(size);
+    this.random = new Random(seed);
+    this.template = new SimulatedLab(seed);
+    this.stateCodec = template.getStateCodec();
+    this.goalSpace = new GoalSpace(stateCodec, template.getGoalAxes());
+
+    int actionCount = template.getActionCount();
+    this.actionDevice = new int[actionCount];
+    this.actionValue = new boolean[actionCount];
+    for (int action = 0; action < actionCount; action++) {
+      Action a = template.getAction(action);
+      actionDevice[action] = deviceOf(a.getActionTag());
+      actionValue[action] = (Boolean) a.getPayload()[0];
+    }
+
+    this.devices = new int[size];
+    this.sunshineLux = new double[size];
+    this.z1Lux = new double[size];
+    this.z2Lux = new double[size];
+    this.axisValues = new int[stateCodec.getAxisCount()];
+
+    for (int i = 0; i < size; i++) {
+      // the Node-RED flow updates the environment right after it is deployed
+      tick(i);
+    }
+  }
+
+  @Override
+  public int getActionCount() {
+    return actionDevice.length;
+  }
+
+  @Override
+  public int[] getApplicableActionArray(int state) {
+    return template.getApplicableActionArray(state);
+  }
+
+  @Override
+  public int reset(int instance) {
+    devices[instance] = random.nextInt(ALL_DEVICES + 1);
+    tick(instance);
+    return stateOf(instance);
+  }
+
+  @Override
+  public void step(int[] actions, int[] nextStates, double[] rewards) {
+    for (int i = 0; i < size; i++) {
+      int device = actionDevice[actions[i]];
+      devices[i] = actionValue[actions[i]] ? devices[i] | device : devices[i] & ~device;
+    }
+
+    for (int i = 0; i < size; i++) {
+      tick(i);
+      int state = stateOf(i);
+      nextStates[i] = state;
+      rewards[i] = goal >= 0 && goalSpace.goalOf(state) == goal ? goalReward : 0;
+    }
+  }
+
+  /**
+  * Updates an instance as done by {@link SimulatedLab} on every tick
+  */
+  private void tick(int i) {
+    double sun = sunshineLux[i];
+    int d = devices[i];
+
+    boolean z1Light = (d & Z1_LIGHT) != 0;
+    boolean z2Light = (d & Z2_LIGHT) != 0;
+    boolean z1Blinds = (d & Z1_BLINDS) != 0;
+    boolean z2Blinds = (d & Z2_BLINDS) != 0;
+
+    sunshineLux[i] = SimulatedLab.sampleSunshine(random);
+    z1Lux[i] = SimulatedLab.zoneLux(z1Light, z2Light, z1Blinds, z2Blinds, sun);
+    z2Lux[i] = SimulatedLab.zoneLux(z2Light, z1Light, z2Blinds, z1Blinds, sun);
+  }
+
+  private int stateOf(int i) {
+    int d = devices[i];
+    axisValues[0] = Lab.discretizeLightLevel(z1Lux[i]);
+    axisValues[1] = Lab.discretizeLightLevel(z2Lux[i]);
+    axisValues[2] = (d & Z1_LIGHT) != 0 ? 1 : 0;
+    axisValues[3] = (d & Z2_LIGHT) != 0 ? 1 : 0;
+    axisValues[4] = (d & Z1_BLINDS) != 0 ? 1 : 0;
+    axisValues[5] = (d & Z2_BLINDS) != 0 ? 1 : 0;
+    axisValues[6] = Lab.discretizeSunshine(sunshineLux[i]);
+    return stateCodec.encode(axisValues);
+  }
+
+  private static int deviceOf(String actionTag) {
+    switch (actionTag) {
+      case "http://example.org/was#SetZ1Light":
+        return Z1_LIGHT;
+      case "http://example.org/was#SetZ2Light":
+        return Z2_LIGHT;
+      case "http://example.org/was#SetZ1Blinds":
+        return Z1_BLINDS;
+      case "http://example.org/was#SetZ2Blinds":
+        return Z2_BLINDS;
+      default:
+        throw new IllegalArgumentException("Unknown action: " + actionTag);
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package tools;
+
+/**
+ * An interface for learning environments whose state is made of zones, e.g.
+ * the zones of a lab, so that they can be learnt per zone (see
+ * {@link FactoredQ}).
+ * <p>
+ * Each zone has a level axis, e.g. its light level, which is also a goal
+ * axis, and device axes, e.g. the status of its lights and blinds, which are
+ * set by the actions of the zone. The level of a zone depends on its own
+ * devices, a little on the devices of its neighbours, and on the shared axes,
+ * e.g. the sunshine out of the lab.
+ * </p>
+ */
+public interface ZonedEnvironment {
+
+  /**
+   * Returns the number of zones
+   *
+   * @return the number of zones, or 0 if the environment is not divided into
+   * zones
+   */
+  int getZoneCount();
+
+  /**
+   * Returns the level axis of a zone, e.g. the axis of z1Level for Zone 1
+   *
+   * @param zone the zone
+   * @return the axis
+   */
+  int getLevelAxis(int zone);
+
+  /**
+   * Returns the device axes of a zone, e.g. the axes of z1Light and z1Blinds
+   * for Zone 1. The devices of the zones are expected in the same order.
+   *
+   * @param zone the zone
+   * @return the axes
+   */
+  int[] getDeviceAxes(int zone);
+
+  /**
+   * Returns the zones whose devices affect the level of a zone
+   *
+   * @param zone the zone
+   * @return the neighbouring zones
+   */
+  int[] getNeighbours(int zone);
+
+  /**
+   * Returns the axes that affect the levels of all the zones, e.g. the axis of
+   * the sunshine
+   *
+   * @return the axes
+   */
+  int[] getSharedAxes();
+}
@@ -0,0 +1,367 @@
+package wot;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.ParseException;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+
+import ch.unisg.ics.interactions.wot.td.ThingDescription;
+import ch.unisg.ics.interactions.wot.td.ThingDescription.TDFormat;
+import ch.unisg.ics.interactions.wot.td.io.TDGraphReader;
+
+/**
+ * A cache of W3C WoT Thing Descriptions (TDs), keyed by URL, so that a TD is
+ * fetched and parsed once per process instead of once per artifact, and so
+ * that agents can start without network access.
+ * <p>
+ * Each TD is kept in memory as parsed, and on disk as fetched, together with
+ * its ETag, Last-Modified and Link headers. A cached TD is used without a
+ * request while it is younger than the TTL. Afterwards, it is revalidated with
+ * a conditional request, and if the request fails, the stale TD is used
+ * without a request until the next retry. Only the requests for the same URL
+ * wait for each other. There is one instance per JVM (see
+ * {@link #getInstance()}), which is configured with the following system
+ * properties:
+ * </p>
+ * <ul>
+ * <li> wot.td.cacheDir: the directory of the on-disk store, or "" to only cache
+ * in memory (default "td-cache")
+ * <li> wot.td.ttlMillis: how long a TD is used without revalidation (default
+ * 3600000)
+ * <li> wot.td.retryMillis: how long a stale TD is used without revalidation
+ * after a revalidation failed (default 60000, at most the TTL)
+ * </ul>
+ */
+public final class TDCache {
+
+  private static final Logger LOGGER = Logger.getLogger(TDCache.class.getName());
+
+  private static final long DEFAULT_RETRY_MILLIS = 60000;
+
+  private static final TDCache INSTANCE = new TDCache(
+    System.getProperty("wot.td.cacheDir", "td-cache"),
+    Long.getLong("wot.td.ttlMillis", 3600000),
+    Long.getLong("wot.td.retryMillis", DEFAULT_RETRY_MILLIS));
+
+  private final Path directory;
+  private final long ttlMillis;
+  private final long retryMillis;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final Map<String, Object> locks = new ConcurrentHashMap<>(); // one lock per URL
+
+  /**
+   * Creates a cache that retries failed revalidations after a minute
+   *
+   * @param directory the directory of the on-disk store, or "" to only cache in
+   * memory
+   * @param ttlMillis how long a TD is used without revalidation
+   */
+  public TDCache(String directory, long ttlMillis) {
+    this(directory, ttlMillis, DEFAULT_RETRY_MILLIS);
+  }
+
+  /**
+   * Creates a cache
+   *
+   * @param directory the directory of the on-disk store, or "" to only cache in
+   * memory
+   * @param ttlMillis how long a TD is used without revalidation
+   * @param retryMillis how long a stale TD is used without revalidation after a
+   * revalidation failed, at most the TTL
+   */
+  public TDCache(String directory, long ttlMillis, long retryMillis) {
+    this.directory = directory.isEmpty() ? null : Paths.get(directory);
+    this.ttlMillis = ttlMillis;
+    this.retryMillis = Math.min(retryMillis, ttlMillis);
+  }
+
+  /**
+   * Returns the cache that is shared in the JVM
+   *
+   * @return the cache
+   */
+  public static TDCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the TD at a URL, fetching and parsing it only if it is not cached
+   * or if it has changed since the cached TD expired
+   *
+   * @param url the URL of the TD
+   * @return the parsed TD
+   * @throws IOException if the TD is neither cached nor can be fetched
+   */
+  public ThingDescription get(String url) throws IOException {
+    Entry entry = lookup(url);
+    synchronized (entry) {
+      if (entry.td == null) {
+        entry.td = TDGraphReader.readFromString(TDFormat.RDF_TURTLE, entry.body);
+      }
+      return entry.td;
+    }
+  }
+
+  /**
+   * Returns the values of the Link headers that the TD at a URL was served with,
+   * e.g. for discovering a WebSub hub
+   *
+   * @param url the URL of the TD
+   * @return the values of the Link headers
+   * @throws IOException if the TD is neither cached nor can be fetched
+   */
+  public List<String> getLinks(String url) throws IOException {
+    return lookup(url).links;
+  }
+
+  /**
+   * Removes the TD at a URL from the cache, in memory and on disk
+   *
+   * @param url the URL of the TD
+   */
+  public void invalidate(String url) {
+    entries.remove(url);
+    if (directory != null) {
+      try {
+        Files.deleteIfExists(bodyPath(url));
+        Files.deleteIfExists(metadataPath(url));
+      } catch (IOException e) {
+        LOGGER.warning("Unable to remove the cached TD of " + url + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /* Returns the entry of a URL, which is loaded from disk or (re)validated if
+   * needed. Only the lookups of the same URL are serialized, so that a slow
+   * request does not block the lookups of other URLs. */
+  private Entry lookup(String url) throws IOException {
+    Entry entry = entries.get(url);
+    if (entry != null && entry.isFresh(ttlMillis)) {
+      return entry;
+    }
+
+    synchronized (locks.computeIfAbsent(url, u -> new Object())) {
+      entry = entries.get(url);
+      if (entry == null) {
+        entry = load(url);
+      }
+      if (entry == null || !entry.isFresh(ttlMillis)) {
+        entry = fetch(url, entry);
+      }
+      entries.put(url, entry);
+      return entry;
+    }
+  }
+
+  /* Fetches a TD, or revalidates a cached TD. If the request fails, the cached
+   * TD is used even if it is stale, and it is not revalidated again before the
+   * retry delay has passed. */
+  private Entry fetch(String url, Entry cached) throws IOException {
+    Map<String, String> headers = new HashMap<>();
+    headers.put("Accept", "text/turtle");
+    if (cached != null && cached.etag != null) {
+      headers.put("If-None-Match", cached.etag);
+    }
+    if (cached != null && cached.lastModified != null) {
+      headers.put("If-Modified-Since", cached.lastModified);
+    }
+
+    try {
+      ClassicHttpResponse response = TDHttpClient.getInstance().get(url, headers);
+
+      if (response.getCode() == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+        Entry entry = new Entry(cached.body, cached.etag, cached.lastModified,
+          System.currentTimeMillis(), cached.links);
+        entry.td = cached.td;
+        store(url, entry, false);
+        return entry;
+      }
+
+      if (response.getCode() != HttpStatus.SC_OK || response.getEntity() == null) {
+        throw new IOException("Unable to read the TD at " + url + ": HTTP " + response.getCode());
+      }
+
+      List<String> links = new ArrayList<>();
+      for (Header link : response.getHeaders("Link")) {
+        links.add(link.getValue());
+      }
+
+      Entry entry = new Entry(read(response.getEntity()), headerValue(response, "ETag"),
+        headerValue(response, "Last-Modified"), System.currentTimeMillis(), links);
+      store(url, entry, true);
+      return entry;
+    } catch (IOException e) {
+      if (cached == null) {
+        throw e;
+      }
+      LOGGER.warning("Using the cached TD of " + url + ", which could not be revalidated: "
+        + e.getMessage());
+      Entry entry = new Entry(cached.body, cached.etag, cached.lastModified, cached.fetchedMillis,
+        cached.links, System.currentTimeMillis() + retryMillis);
+      entry.td = cached.td;
+      return entry;
+    }
+  }
+
+  /* Loads an entry from the on-disk store */
+  private Entry load(String url) {
+    if (directory == null || !Files.exists(metadataPath(url)) || !Files.exists(bodyPath(url))) {
+      return null;
+    }
+
+    try (Reader reader = Files.newBufferedReader(metadataPath(url), StandardCharsets.UTF_8)) {
+      Properties metadata = new Properties();
+      metadata.load(reader);
+      if (!url.equals(metadata.getProperty("url"))) {
+        return null;
+      }
+
+      List<String> links = new ArrayList<>();
+      for (int i = 0; metadata.containsKey("link." + i); i++) {
+        links.add(metadata.getProperty("link." + i));
+      }
+
+      String body = new String(Files.readAllBytes(bodyPath(url)), StandardCharsets.UTF_8);
+      return new Entry(body, metadata.getProperty("etag"), metadata.getProperty("lastModified"),
+        Long.parseLong(metadata.getProperty("fetchedMillis", "0")), links);
+    } catch (IOException | NumberFormatException e) {
+      LOGGER.warning("Ignoring the cached TD of " + url + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /* Writes an entry to the on-disk store. The body is only written if it
+   * changed. */
+  private void store(String url, Entry entry, boolean withBody) {
+    if (directory == null) {
+      return;
+    }
+
+    Properties metadata = new Properties();
+    metadata.setProperty("url", url);
+    metadata.setProperty("fetchedMillis", Long.toString(entry.fetchedMillis));
+    if (entry.etag != null) {
+      metadata.setProperty("etag", entry.etag);
+    }
+    if (entry.lastModified != null) {
+      metadata.setProperty("lastModified", entry.lastModified);
+    }
+    for (int i = 0; i < entry.links.size(); i++) {
+      metadata.setProperty("link." + i, entry.links.get(i));
+    }
+
+    try {
+      Files.createDirectories(directory);
+      if (withBody) {
+        Path tmp = bodyPath(url).resolveSibling(bodyPath(url).getFileName() + ".tmp");
+        Files.write(tmp, entry.body.getBytes(StandardCharsets.UTF_8));
+        move(tmp, bodyPath(url));
+      }
+
+      Path tmp = metadataPath(url).resolveSibling(metadataPath(url).getFileName() + ".tmp");
+      try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        metadata.store(writer, null);
+      }
+      move(tmp, metadataPath(url));
+    } catch (IOException e) {
+      LOGGER.warning("Unable to cache the TD of " + url + " on disk: " + e.getMessage());
+    }
+  }
+
+  private static void move(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private Path bodyPath(String url) {
+    return directory.resolve(fileNameOf(url) + ".ttl");
+  }
+
+  private Path metadataPath(String url) {
+    return directory.resolve(fileNameOf(url) + ".properties");
+  }
+
+  /* URLs are mapped to file names by their SHA-256 digest */
+  private static String fileNameOf(String url) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+      StringBuilder name = new StringBuilder();
+      for (byte b : digest) {
+        name.append(String.format("%02x", b));
+      }
+      return name.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String read(HttpEntity entity) throws IOException {
+    try {
+      return EntityUtils.toString(entity, StandardCharsets.UTF_8);
+    } catch (ParseException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static String headerValue(ClassicHttpResponse response, String name) {
+    Header header = response.getFirstHeader(name);
+    return header == null ? null : header.getValue();
+  }
+
+  /* A fetched TD, and the TD as parsed once it is requested */
+  private static final class Entry {
+
+    private final String body;
+    private final String etag;
+    private final String lastModified;
+    private final long fetchedMillis;
+    private final List<String> links;
+    private final long retryAtMillis; // when a failed revalidation may be retried, or 0
+    private ThingDescription td;
+
+    private Entry(String body, String etag, String lastModified, long fetchedMillis,
+        List<String> links) {
+      this(body, etag, lastModified, fetchedMillis, links, 0);
+    }
+
+    private Entry(String body, String etag, String lastModified, long fetchedMillis,
+        List<String> links, long retryAtMillis) {
+      this.body = body;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.fetchedMillis = fetchedMillis;
+      this.links = Collections.unmodifiableList(links);
+      this.retryAtMillis = retryAtMillis;
+    }
+
+    private boolean isFresh(long ttlMillis) {
+      long now = System.currentTimeMillis();
+      return now - fetchedMillis < ttlMillis || now < retryAtMillis;
+    }
+  }
+}
@@ -0,0 +1,399 @@
+package wot;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequests;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpRequest;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import ch.unisg.ics.interactions.wot.td.affordances.Form;
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
+import ch.unisg.ics.interactions.wot.td.security.APIKeySecurityScheme;
+import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
+import metrics.Metrics;
+
+/**
+ * An HTTP client for the requests of TD affordances that keeps connections
+ * alive in a shared pool, instead of opening a new connection per request as
+ * {@link TDHttpRequest#execute()} does.
+ * <p>
+ * A request is issued based on the form of its affordance and the payload of a
+ * {@link TDHttpRequest}. The response is read completely before the connection
+ * is returned to the pool. Requests can also be issued asynchronously (see
+ * {@link #executeAsync(Form, String, TDHttpRequest)}), on a second pool that is
+ * served by a few I/O threads and created when it is first used. There is one
+ * instance per JVM (see {@link #getInstance()}), which is shared by all the labs
+ * and ThingArtifacts, and which is configured with the following system
+ * properties (that apply to each pool):
+ * </p>
+ * <ul>
+ * <li> wot.http.maxConnections: the maximum number of connections (default 200)
+ * <li> wot.http.maxConnectionsPerRoute: the maximum number of connections per
+ * host (default 20)
+ * <li> wot.http.keepAliveMillis: how long idle connections are kept alive, if
+ * the server does not say otherwise (default 30000)
+ * <li> wot.http.connectTimeoutMillis: the timeout for opening a connection
+ * (default 2000)
+ * <li> wot.http.responseTimeoutMillis: the timeout for receiving a response
+ * (default 10000)
+ * <li> wot.http.ioThreads: the number of I/O threads of the asynchronous pool
+ * (default 1)
+ * </ul>
+ * <p>
+ * The utilisation of the pools is registered as the MBean
+ * "metrics:type=TDHttpClient,name=default".
+ * </p>
+ */
+public final class TDHttpClient implements TDHttpClientMXBean {
+
+  private static final Logger LOGGER = Logger.getLogger(TDHttpClient.class.getName());
+
+  private static final TDHttpClient INSTANCE = new TDHttpClient(
+    Integer.getInteger("wot.http.maxConnections", 200),
+    Integer.getInteger("wot.http.maxConnectionsPerRoute", 20),
+    Long.getLong("wot.http.keepAliveMillis", 30000),
+    Long.getLong("wot.http.connectTimeoutMillis", 2000),
+    Long.getLong("wot.http.responseTimeoutMillis", 10000));
+
+  static {
+    Metrics.register(INSTANCE, "TDHttpClient", "default");
+  }
+
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient client;
+  private final int maxConnections;
+  private final int maxConnectionsPerRoute;
+  private final long keepAliveMillis;
+  private final RequestConfig config;
+
+  private PoolingAsyncClientConnectionManager asyncConnectionManager;
+  private CloseableHttpAsyncClient asyncClient;
+
+  /**
+   * Creates a client with its own connection pool
+   *
+   * @param maxConnections the maximum number of connections
+   * @param maxConnectionsPerRoute the maximum number of connections per host
+   * @param keepAliveMillis how long idle connections are kept alive, if the
+   * server does not say otherwise
+   * @param connectTimeoutMillis the timeout for opening a connection
+   * @param responseTimeoutMillis the timeout for receiving a response
+   */
+  public TDHttpClient(int maxConnections, int maxConnectionsPerRoute, long keepAliveMillis,
+      long connectTimeoutMillis, long responseTimeoutMillis) {
+    this.maxConnections = maxConnections;
+    this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    this.keepAliveMillis = keepAliveMillis;
+    this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+      .setMaxConnTotal(maxConnections)
+      .setMaxConnPerRoute(maxConnectionsPerRoute)
+      .build();
+
+    this.config = RequestConfig.custom()
+      .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMillis))
+      .setResponseTimeout(Timeout.ofMilliseconds(responseTimeoutMillis))
+      .setConnectionRequestTimeout(Timeout.ofMilliseconds(responseTimeoutMillis))
+      .setConnectionKeepAlive(TimeValue.ofMilliseconds(keepAliveMillis))
+      .build();
+
+    this.client = HttpClients.custom()
+      .setConnectionManager(connectionManager)
+      .setDefaultRequestConfig(config)
+      .evictIdleConnections(TimeValue.ofMilliseconds(keepAliveMillis))
+      .build();
+  }
+
+  /**
+   * Returns the client that is shared in the JVM
+   *
+   * @return the client
+   */
+  public static TDHttpClient getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Issues the request of an affordance
+   *
+   * @param form the form of the affordance that the request was created for
+   * @param operationType the operation type of the request, e.g. {@link TD#readProperty}
+   * @param request the request, which provides the payload
+   * @return the response
+   * @throws IOException if the request fails without a response
+   */
+  public TDHttpResponse execute(Form form, String operationType, TDHttpRequest request)
+      throws IOException {
+    return execute(form, operationType, request, Collections.emptyMap());
+  }
+
+  /**
+   * Issues the request of an affordance with additional headers. Headers that
+   * are added to the {@link TDHttpRequest} itself are not sent, since they
+   * cannot be read from it.
+   *
+   * @param form the form of the affordance that the request was created for
+   * @param operationType the operation type of the request, e.g. {@link TD#readProperty}
+   * @param request the request, which provides the payload
+   * @param headers the additional headers, e.g. for authentication
+   * @return the response
+   * @throws IOException if the request fails without a response
+   */
+  public TDHttpResponse execute(Form form, String operationType, TDHttpRequest request,
+      Map<String, String> headers) throws IOException {
+    Optional<String> method = form.getMethodName(operationType);
+    if (!method.isPresent()) {
+      throw new IOException("No method for " + operationType + " on " + form.getTarget());
+    }
+
+    BasicClassicHttpRequest httpRequest = new BasicClassicHttpRequest(method.get(), form.getTarget());
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      httpRequest.addHeader(header.getKey(), header.getValue());
+    }
+
+    Optional<String> payload = payloadOf(request);
+    if (payload.isPresent()) {
+      httpRequest.setEntity(new StringEntity(payload.get(), ContentType.create(form.getContentType())));
+    }
+
+    return client.execute(httpRequest, response -> new TDHttpResponse(detach(response)));
+  }
+
+  /**
+   * Issues the request of an affordance without blocking the calling thread
+   *
+   * @param form the form of the affordance that the request was created for
+   * @param operationType the operation type of the request, e.g. {@link TD#invokeAction}
+   * @param request the request, which provides the payload
+   * @return the response, which completes exceptionally if the request fails
+   * without a response
+   */
+  public CompletableFuture<TDHttpResponse> executeAsync(Form form, String operationType,
+      TDHttpRequest request) {
+    return executeAsync(form, operationType, request, Collections.emptyMap());
+  }
+
+  /**
+   * Issues the request of an affordance with additional headers without
+   * blocking the calling thread. The response is completed on an I/O thread of
+   * the client, so dependent stages should not block.
+   *
+   * @param form the form of the affordance that the request was created for
+   * @param operationType the operation type of the request, e.g. {@link TD#invokeAction}
+   * @param request the request, which provides the payload
+   * @param headers the additional headers, e.g. for authentication
+   * @return the response, which completes exceptionally if the request fails
+   * without a response
+   */
+  public CompletableFuture<TDHttpResponse> executeAsync(Form form, String operationType,
+      TDHttpRequest request, Map<String, String> headers) {
+    CompletableFuture<TDHttpResponse> future = new CompletableFuture<>();
+
+    Optional<String> method = form.getMethodName(operationType);
+    if (!method.isPresent()) {
+      future.completeExceptionally(new IOException("No method for " + operationType + " on "
+        + form.getTarget()));
+      return future;
+    }
+
+    SimpleHttpRequest httpRequest = SimpleHttpRequests.create(method.get(), form.getTarget());
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      httpRequest.addHeader(header.getKey(), header.getValue());
+    }
+
+    Optional<String> payload = payloadOf(request);
+    if (payload.isPresent()) {
+      httpRequest.setBody(payload.get(), ContentType.create(form.getContentType()));
+    }
+
+    getAsyncClient().execute(httpRequest, new FutureCallback<SimpleHttpResponse>() {
+
+      @Override
+      public void completed(SimpleHttpResponse response) {
+        future.complete(new TDHttpResponse(toClassic(response)));
+      }
+
+      @Override
+      public void failed(Exception e) {
+        future.completeExceptionally(e instanceof IOException ? e : new IOException(e));
+      }
+
+      @Override
+      public void cancelled() {
+        future.cancel(false);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Issues a GET request with the given headers, e.g. a conditional request,
+   * and returns the response with its payload
+   *
+   * @param url the URL
+   * @param headers the headers
+   * @return the response, whatever its status code
+   * @throws IOException if the request fails without a response
+   */
+  public ClassicHttpResponse get(String url, Map<String, String> headers) throws IOException {
+    BasicClassicHttpRequest httpRequest = new BasicClassicHttpRequest("GET", url);
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      httpRequest.addHeader(header.getKey(), header.getValue());
+    }
+    return client.execute(httpRequest, TDHttpClient::detach);
+  }
+
+  /**
+   * Returns the headers for authenticating a request with an API key, if the
+   * key is sent in a header
+   *
+   * @param scheme the security scheme of the Thing
+   * @param apiKey the API key
+   * @return the headers
+   */
+  public static Map<String, String> apiKeyHeaders(APIKeySecurityScheme scheme, String apiKey) {
+    if (scheme.getIn() != APIKeySecurityScheme.TokenLocation.HEADER) {
+      LOGGER.warning("Only API keys in headers are supported, ignoring the location "
+        + scheme.getIn());
+      return Collections.emptyMap();
+    }
+    return Collections.singletonMap(scheme.getName().orElse("X-API-Key"), apiKey);
+  }
+
+  @Override
+  public int getLeasedConnections() {
+    return connectionManager.getTotalStats().getLeased();
+  }
+
+  @Override
+  public int getAvailableConnections() {
+    return connectionManager.getTotalStats().getAvailable();
+  }
+
+  @Override
+  public int getPendingRequests() {
+    return connectionManager.getTotalStats().getPending();
+  }
+
+  @Override
+  public int getMaxConnections() {
+    return connectionManager.getTotalStats().getMax();
+  }
+
+  @Override
+  public int getAsyncLeasedConnections() {
+    PoolingAsyncClientConnectionManager manager = asyncConnectionManager();
+    return manager == null ? 0 : manager.getTotalStats().getLeased();
+  }
+
+  @Override
+  public int getAsyncPendingRequests() {
+    PoolingAsyncClientConnectionManager manager = asyncConnectionManager();
+    return manager == null ? 0 : manager.getTotalStats().getPending();
+  }
+
+  @Override
+  public int getMaxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  /**
+   * Returns the share of the connections of the pool that are in use
+   */
+  @Override
+  public double getUtilisation() {
+    PoolStats stats = connectionManager.getTotalStats();
+    return stats.getMax() == 0 ? 0 : (double) stats.getLeased() / stats.getMax();
+  }
+
+  /* The asynchronous client starts its I/O threads, so it is only created when
+   * it is first used */
+  private synchronized CloseableHttpAsyncClient getAsyncClient() {
+    if (asyncClient == null) {
+      asyncConnectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+        .setMaxConnTotal(maxConnections)
+        .setMaxConnPerRoute(maxConnectionsPerRoute)
+        .build();
+
+      asyncClient = HttpAsyncClients.custom()
+        .setConnectionManager(asyncConnectionManager)
+        .setDefaultRequestConfig(config)
+        .setIOReactorConfig(IOReactorConfig.custom()
+          .setIoThreadCount(Integer.getInteger("wot.http.ioThreads", 1))
+          .build())
+        .evictIdleConnections(TimeValue.ofMilliseconds(keepAliveMillis))
+        .build();
+      asyncClient.start();
+    }
+    return asyncClient;
+  }
+
+  private synchronized PoolingAsyncClientConnectionManager asyncConnectionManager() {
+    return asyncConnectionManager;
+  }
+
+  /* The payload of a TDHttpRequest can only be read as a string, which fails
+   * if the request has no payload */
+  private static Optional<String> payloadOf(TDHttpRequest request) {
+    try {
+      return Optional.ofNullable(request.getPayloadAsString());
+    } catch (IllegalArgumentException | IOException e) {
+      return Optional.empty();
+    }
+  }
+
+  /* Copies a response with its payload, so that the connection can be returned
+   * to the pool before the response is used */
+  private static ClassicHttpResponse detach(ClassicHttpResponse response) throws IOException {
+    BasicClassicHttpResponse copy = new BasicClassicHttpResponse(response.getCode(),
+      response.getReasonPhrase());
+    copy.setHeaders(response.getHeaders());
+
+    HttpEntity entity = response.getEntity();
+    if (entity != null) {
+      copy.setEntity(new ByteArrayEntity(EntityUtils.toByteArray(entity),
+        ContentType.parse(entity.getContentType())));
+    }
+    return copy;
+  }
+
+  /* TDHttpResponse wraps a classic response */
+  private static ClassicHttpResponse toClassic(SimpleHttpResponse response) {
+    BasicClassicHttpResponse copy = new BasicClassicHttpResponse(response.getCode(),
+      response.getReasonPhrase());
+    copy.setHeaders(response.getHeaders());
+
+    byte[] body = response.getBodyBytes();
+    if (body != null) {
+      copy.setEntity(new ByteArrayEntity(body, response.getContentType()));
+    }
+    return copy;
+  }
+}
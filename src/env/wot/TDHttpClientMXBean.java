@@ -0,0 +1,23 @@
+package wot;
+
+/**
+ * The JMX view of the connection pool of a {@link TDHttpClient}
+ */
+public interface TDHttpClientMXBean {
+
+  int getLeasedConnections();
+
+  int getAvailableConnections();
+
+  int getPendingRequests();
+
+  int getMaxConnections();
+
+  int getMaxConnectionsPerRoute();
+
+  int getAsyncLeasedConnections();
+
+  int getAsyncPendingRequests();
+
+  double getUtilisation();
+}
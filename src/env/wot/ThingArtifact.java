@@ -5,24 +5,20 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
-import org.apache.hc.client5.http.fluent.Request;
-import org.apache.hc.core5.http.Header;
-
 import cartago.Artifact;
 import cartago.OPERATION;
 import cartago.OpFeedbackParam;
 import ch.unisg.ics.interactions.wot.td.ThingDescription;
-import ch.unisg.ics.interactions.wot.td.ThingDescription.TDFormat;
 import ch.unisg.ics.interactions.wot.td.affordances.ActionAffordance;
 import ch.unisg.ics.interactions.wot.td.affordances.Form;
 import ch.unisg.ics.interactions.wot.td.affordances.PropertyAffordance;
 import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
 import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
-import ch.unisg.ics.interactions.wot.td.io.TDGraphReader;
 import ch.unisg.ics.interactions.wot.td.schemas.ArraySchema;
 import ch.unisg.ics.interactions.wot.td.schemas.DataSchema;
 import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
@@ -30,6 +26,7 @@ import ch.unisg.ics.interactions.wot.td.security.APIKeySecurityScheme;
 import ch.unisg.ics.interactions.wot.td.security.SecurityScheme;
 import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
 import ch.unisg.ics.interactions.wot.td.vocabularies.WoTSec;
+import metrics.HttpMetrics;
 
 /**
  * A CArtAgO artifact that can interpret a W3C WoT Thing Description (TD) and exposes the affordances
@@ -65,7 +62,7 @@ public class ThingArtifact extends Artifact {
    */
   public void init(String url) {
     try {
-      td = TDGraphReader.readFromURL(TDFormat.RDF_TURTLE, url);
+      td = TDCache.getInstance().get(url);
 
       for (SecurityScheme scheme : td.getSecuritySchemes()) {
         defineObsProperty("securityScheme", scheme.getConfiguration());
@@ -144,8 +141,8 @@ public class ThingArtifact extends Artifact {
     }
 
     PropertyAffordance property = getPropertyOrFail(propertyTag);
-    Optional<TDHttpResponse> response = executePropertyRequest(property, TD.writeProperty,
-        payloadTags, payload);
+    Optional<TDHttpResponse> response = executePropertyRequest(propertyTag, property,
+        TD.writeProperty, payloadTags, payload);
 
     if (response.isPresent() && !requestSucceeded(response.get().getStatusCode())) {
       failed("Status code: " + response.get().getStatusCode());
@@ -198,8 +195,8 @@ public class ThingArtifact extends Artifact {
         failed("This type of action does not take any input: " + actionTag);
       }
 
-      Optional<TDHttpResponse> response = executeRequest(TD.invokeAction, form.get(), inputSchema,
-          payloadTags, payload);
+      Optional<TDHttpResponse> response = executeRequest(actionTag, TD.invokeAction, form.get(),
+          inputSchema, payloadTags, payload);
 
       if (response.isPresent() && !requestSucceeded(response.get().getStatusCode())) {
         failed("Status code: " + response.get().getStatusCode());
@@ -289,22 +286,22 @@ public class ThingArtifact extends Artifact {
    * specific to Yggdrasil. */
   private void exposeWebSubIRIs(String url) {
     try {
-      Header[] headers = Request.get(url).execute().returnResponse().getHeaders("Link");
+      List<String> links = TDCache.getInstance().getLinks(url);
 
       // This current implementation is specific to Yggdrasil, not a general implementation
-      if (headers.length != 2) {
+      if (links.size() != 2) {
         return;
       }
 
       Optional<String> hub = Optional.empty();
       Optional<String> topic = Optional.empty();
 
-      for (Header h : headers) {
-        if (h.getValue().endsWith("rel=\"hub\"")) {
-          hub = Optional.of(h.getValue().substring(1, h.getValue().indexOf('>')));
+      for (String link : links) {
+        if (link.endsWith("rel=\"hub\"")) {
+          hub = Optional.of(link.substring(1, link.indexOf('>')));
         }
-        if (h.getValue().endsWith("rel=\"self\"")) {
-          topic = Optional.of(h.getValue().substring(1, h.getValue().indexOf('>')));
+        if (link.endsWith("rel=\"self\"")) {
+          topic = Optional.of(link.substring(1, link.indexOf('>')));
         }
       }
 
@@ -331,8 +328,8 @@ public class ThingArtifact extends Artifact {
   private void readProperty(String semanticType, Optional<OpFeedbackParam<Object[]>> tags,
       OpFeedbackParam<Object[]> output) {
     PropertyAffordance property = getPropertyOrFail(semanticType);
-    Optional<TDHttpResponse> response = executePropertyRequest(property, TD.readProperty,
-        new Object[0], new Object[0]);
+    Optional<TDHttpResponse> response = executePropertyRequest(semanticType, property,
+        TD.readProperty, new Object[0], new Object[0]);
 
     if (!dryRun) {
       if (!response.isPresent()) {
@@ -427,8 +424,8 @@ public class ThingArtifact extends Artifact {
     return out;
   }
 
-  private Optional<TDHttpResponse> executePropertyRequest(PropertyAffordance property,
-    String operationType, Object[] tags, Object[] payload) {
+  private Optional<TDHttpResponse> executePropertyRequest(String affordanceTag,
+    PropertyAffordance property, String operationType, Object[] tags, Object[] payload) {
     Optional<Form> form = property.getFirstFormForOperationType(operationType);
 
     if (!form.isPresent()) {
@@ -438,19 +435,22 @@ public class ThingArtifact extends Artifact {
 
     DataSchema schema = property.getDataSchema();
 
-    return executeRequest(operationType, form.get(), Optional.of(schema), tags, payload);
+    return executeRequest(affordanceTag, operationType, form.get(), Optional.of(schema), tags,
+        payload);
   }
 
-  private Optional<TDHttpResponse> executeRequest(String operationType, Form form,
-      Optional<DataSchema> schema, Object[] tags, Object[] payload) {
+  private Optional<TDHttpResponse> executeRequest(String affordanceTag, String operationType,
+      Form form, Optional<DataSchema> schema, Object[] tags, Object[] payload) {
     if (schema.isPresent() && payload.length > 0) {
       // Request with payload
       if (tags.length > 0) {
-        return executeRequestObjectPayload(operationType, form, schema.get(), tags, payload);
+        return executeRequestObjectPayload(affordanceTag, operationType, form, schema.get(), tags,
+            payload);
       } else if (payload.length == 1 && !(payload[0] instanceof Object[])) {
-        return executeRequestPrimitivePayload(operationType, form, schema.get(), payload[0]);
+        return executeRequestPrimitivePayload(affordanceTag, operationType, form, schema.get(),
+            payload[0]);
       } else if (payload.length >= 1) {
-        return executeRequestArrayPayload(operationType, form, schema.get(), payload);
+        return executeRequestArrayPayload(affordanceTag, operationType, form, schema.get(), payload);
       } else {
         failed("Could not detect the type of payload (primitive, object, or array).");
         return Optional.empty();
@@ -458,20 +458,20 @@ public class ThingArtifact extends Artifact {
     } else {
       // Request without payload
       TDHttpRequest request = new TDHttpRequest(form, operationType);
-      return issueRequest(request);
+      return issueRequest(affordanceTag, operationType, form, request);
     }
   }
 
-  private Optional<TDHttpResponse> executeRequestPrimitivePayload(String operationType, Form form,
-      DataSchema schema, Object payload) {
+  private Optional<TDHttpResponse> executeRequestPrimitivePayload(String affordanceTag,
+      String operationType, Form form, DataSchema schema, Object payload) {
     TDHttpRequest request = new TDHttpRequest(form, operationType);
     request = setPrimitivePayload(request, schema, payload);
 
-    return issueRequest(request);
+    return issueRequest(affordanceTag, operationType, form, request);
   }
 
-  private Optional<TDHttpResponse> executeRequestObjectPayload(String operationType, Form form,
-      DataSchema schema, Object[] tags, Object[] payload) {
+  private Optional<TDHttpResponse> executeRequestObjectPayload(String affordanceTag,
+      String operationType, Form form, DataSchema schema, Object[] tags, Object[] payload) {
     if (schema.getDatatype() != DataSchema.OBJECT) {
       failed("TD mismatch: illegal arguments, this affordance uses a data schema of type "
           + schema.getDatatype());
@@ -480,11 +480,11 @@ public class ThingArtifact extends Artifact {
     TDHttpRequest request = new TDHttpRequest(form, operationType);
     request = setObjectPayload(request, schema, tags, payload);
 
-    return issueRequest(request);
+    return issueRequest(affordanceTag, operationType, form, request);
   }
 
-  private Optional<TDHttpResponse> executeRequestArrayPayload(String operationType, Form form,
-      DataSchema schema, Object[] payload) {
+  private Optional<TDHttpResponse> executeRequestArrayPayload(String affordanceTag,
+      String operationType, Form form, DataSchema schema, Object[] payload) {
     if (schema.getDatatype() != DataSchema.ARRAY) {
       failed("TD mismatch: illegal arguments, this affordance uses a data schema of type "
           + schema.getDatatype());
@@ -493,18 +493,25 @@ public class ThingArtifact extends Artifact {
     TDHttpRequest request = new TDHttpRequest(form, operationType);
     request = setArrayPayload(request, schema, payload);
 
-    return issueRequest(request);
+    return issueRequest(affordanceTag, operationType, form, request);
   }
 
-  private Optional<TDHttpResponse> issueRequest(TDHttpRequest request) {
+  /* Issues a request with the shared connection pool (see TDHttpClient), and records its latency
+   * per affordance (see HttpMetrics) */
+  private Optional<TDHttpResponse> issueRequest(String affordanceTag, String operationType,
+      Form form, TDHttpRequest request) {
     Optional<SecurityScheme> scheme = td.getFirstSecuritySchemeByType(WoTSec.APIKeySecurityScheme);
+    Map<String, String> headers = new LinkedHashMap<>();
 
     if (scheme.isPresent() && apiKey.isPresent()) {
       request.setAPIKey((APIKeySecurityScheme) scheme.get(), apiKey.get());
+      headers.putAll(TDHttpClient.apiKeyHeaders((APIKeySecurityScheme) scheme.get(), apiKey.get()));
     }
 
     // Set a header with the id of the operating agent
-    request.addHeader("X-Agent-WebID", WEBID_PREFIX + getCurrentOpAgentId().getAgentName());
+    String webId = WEBID_PREFIX + getCurrentOpAgentId().getAgentName();
+    request.addHeader("X-Agent-WebID", webId);
+    headers.put("X-Agent-WebID", webId);
     //log("operating agent: " + getCurrentOpAgentId().getAgentName());
 
     if (this.dryRun) {
@@ -513,8 +520,13 @@ public class ThingArtifact extends Artifact {
     } else {
       log(request.toString());
       try {
-        return Optional.of(request.execute());
+        long start = System.nanoTime();
+        TDHttpResponse response = TDHttpClient.getInstance().execute(form, operationType, request,
+            headers);
+        HttpMetrics.getInstance().recordRequest(affordanceTag, System.nanoTime() - start);
+        return Optional.of(response);
       } catch (IOException e) {
+        HttpMetrics.getInstance().recordFailure(affordanceTag);
         failed(e.getMessage());
       }
     }
@@ -0,0 +1,96 @@
+package tools;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the state and action lookups of {@link Lab}, run against a
+ * {@link SimulatedLab} so that no network is involved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LabBenchmark {
+
+  private static final Logger TOOLS_LOGGER = Logger.getLogger("tools");
+
+  private static final int STATES = 1024;
+
+  private SimulatedLab lab;
+  private int[] states;
+  private List<List<Integer>> observations;
+  private int next;
+
+  /**
+   * A substate as passed to getCompatibleStates, e.g. [2,3]
+   */
+  @State(Scope.Thread)
+  public static class Description {
+
+    @Param({"2,3", "2,3,false,true,true,false,2"})
+    public String values;
+
+    private List<Object> substates;
+
+    @Setup
+    public void setUp() {
+      substates = new ArrayList<>();
+      for (String value : values.split(",")) {
+        if (value.equals("true") || value.equals("false")) {
+          substates.add(Boolean.valueOf(value));
+        } else {
+          substates.add(Integer.valueOf(value));
+        }
+      }
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    TOOLS_LOGGER.setLevel(java.util.logging.Level.WARNING);
+
+    lab = new SimulatedLab(42);
+    Random random = new Random(42);
+    states = new int[STATES];
+    observations = new ArrayList<>(STATES);
+    for (int i = 0; i < STATES; i++) {
+      states[i] = random.nextInt(lab.getStateCount());
+      observations.add(lab.getStateCodec().decode(states[i]));
+    }
+  }
+
+  private int nextIndex() {
+    next = (next + 1) & (STATES - 1);
+    return next;
+  }
+
+  /**
+   * Reads the current state of the lab, and resolves it to its index
+   */
+  @Benchmark
+  public int readCurrentState() {
+    return lab.readCurrentState();
+  }
+
+  /**
+   * Resolves an observation to the index of its state
+   */
+  @Benchmark
+  public Integer getStateIndex() {
+    return lab.getStateIndex(observations.get(nextIndex()));
+  }
+
+  @Benchmark
+  public List<Integer> getApplicableActions() {
+    return lab.getApplicableActions(states[nextIndex()]);
+  }
+
+  @Benchmark
+  public void getCompatibleStates(Description description, Blackhole blackhole) {
+    blackhole.consume(lab.getCompatibleStates(description.substates));
+  }
+}
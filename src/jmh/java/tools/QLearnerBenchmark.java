@@ -0,0 +1,71 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cartago.OpFeedbackParam;
+
+/**
+ * Benchmarks of the operations of {@link QLearner} that agents invoke while
+ * acting, against a {@link SimulatedLab}. The Q matrix of the goal is planned
+ * on a model of the simulation and kept in a temporary file, so the Q matrices
+ * of the application are not modified.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QLearnerBenchmark {
+
+  private static final Logger TOOLS_LOGGER = Logger.getLogger("tools");
+
+  private static final Object[] GOAL = {2, 3};
+  private static final Object[] CURRENT_STATE = {2, 2, true, false, true, true, 2};
+
+  private QLearner learner;
+  private OpFeedbackParam<String> actionTag;
+  private OpFeedbackParam<Object[]> payloadTags;
+  private OpFeedbackParam<Object[]> payload;
+
+  @Setup
+  public void setUp() throws IOException {
+    TOOLS_LOGGER.setLevel(java.util.logging.Level.WARNING);
+
+    if (System.getProperty("tools.qtables") == null) {
+      System.setProperty("tools.qtables",
+        Files.createTempDirectory("qlearner-benchmark").resolve("qtables.qtb").toString());
+    }
+    Path path = Paths.get(System.getProperty("tools.qtables"));
+
+    SimulatedLab lab = new SimulatedLab(42);
+    GoalSpace goals = new GoalSpace(lab.getStateCodec(), lab.getGoalAxes());
+    QTableStore store = new FlatQTableStore(goals.size(), lab.getStateCount(), lab.getActionCount());
+    int goal = goals.indexOf(GOAL);
+    store.loadTable(goal, ValueIteration.solve(TransitionModel.sample(lab, 20), lab, goals, goal,
+      100, 0.9, 1e-6, 10000));
+    QTableFile.write(path, store);
+
+    learner = new QLearner();
+    learner.init(null, true);
+
+    actionTag = new OpFeedbackParam<>();
+    payloadTags = new OpFeedbackParam<>();
+    payload = new OpFeedbackParam<>();
+  }
+
+  /**
+   * Selects the next best action for a goal, and returns it to the agent
+   */
+  @Benchmark
+  public void getActionFromState(Blackhole blackhole) {
+    learner.getActionFromState(GOAL, CURRENT_STATE, actionTag, payloadTags, payload);
+    blackhole.consume(actionTag.get());
+    blackhole.consume(payload.get());
+  }
+}
@@ -0,0 +1,70 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of saving and loading the Q matrices of all the goals of the lab
+ * with a {@link QTableFile}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QTableFileBenchmark {
+
+  private Path directory;
+  private Path path;
+  private QTableStore store;
+  private QTableStore loaded;
+
+  @Setup
+  public void setUp() throws IOException {
+    GoalSpace goals = new GoalSpace(Lab.LAB_STATE_CODEC, Lab.LAB_GOAL_AXES);
+    store = new FlatQTableStore(goals.size(), Lab.LAB_STATE_CODEC.size(), Lab.LAB_ACTION_COUNT);
+    loaded = new FlatQTableStore(goals.size(), Lab.LAB_STATE_CODEC.size(), Lab.LAB_ACTION_COUNT);
+
+    Random random = new Random(42);
+    double[] table = new double[Lab.LAB_STATE_CODEC.size() * Lab.LAB_ACTION_COUNT];
+    for (int goal = 0; goal < goals.size(); goal++) {
+      for (int i = 0; i < table.length; i++) {
+        table[i] = 100 * random.nextDouble();
+      }
+      store.loadTable(goal, table);
+    }
+
+    directory = Files.createTempDirectory("qtables-benchmark");
+    path = directory.resolve("qtables.qtb");
+    QTableFile.write(path, store);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(path);
+    Files.deleteIfExists(directory);
+  }
+
+  /**
+   * Writes the Q matrices of all the goals
+   */
+  @Benchmark
+  public void save() throws IOException {
+    QTableFile.write(path, store);
+  }
+
+  /**
+   * Opens the file and loads the Q matrices of all the goals
+   */
+  @Benchmark
+  public QTableStore load() throws IOException {
+    QTableFile file = QTableFile.open(path);
+    for (int goal = 0; goal < loaded.getGoalCount(); goal++) {
+      file.load(goal, loaded);
+    }
+    return loaded;
+  }
+}
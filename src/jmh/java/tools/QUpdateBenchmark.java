@@ -0,0 +1,117 @@
+package tools;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of the Q updates and the greedy action selection of
+ * {@link QLearner}, replaying transitions that were recorded from a
+ * {@link SimulatedLab}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QUpdateBenchmark {
+
+  private static final Logger TOOLS_LOGGER = Logger.getLogger("tools");
+
+  private static final int TRANSITIONS = 4096;
+  private static final double ALPHA = 0.5;
+  private static final double GAMMA = 0.9;
+  private static final int REWARD = 100;
+
+  @Param({"flat", "sparse"})
+  public String storeType;
+
+  private SimulatedLab lab;
+  private GoalSpace goals;
+  private QTableStore store;
+  private int goal;
+
+  private int[] states;
+  private int[] actions;
+  private int[] nextStates;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    TOOLS_LOGGER.setLevel(java.util.logging.Level.WARNING);
+
+    lab = new SimulatedLab(42);
+    goals = new GoalSpace(lab.getStateCodec(), lab.getGoalAxes());
+    store = "sparse".equals(storeType)
+      ? new SparseQTableStore(goals.size(), lab.getStateCount(), lab.getActionCount())
+      : new FlatQTableStore(goals.size(), lab.getStateCount(), lab.getActionCount());
+    for (int g = 0; g < goals.size(); g++) {
+      store.create(g);
+    }
+    goal = goals.indexOf(new Object[]{2, 3});
+
+    Random random = new Random(42);
+    states = new int[TRANSITIONS];
+    actions = new int[TRANSITIONS];
+    nextStates = new int[TRANSITIONS];
+
+    int state = lab.readCurrentState();
+    for (int i = 0; i < TRANSITIONS; i++) {
+      int[] possibleActions = lab.getApplicableActionArray(state);
+      states[i] = state;
+      actions[i] = possibleActions[random.nextInt(possibleActions.length)];
+      lab.performAction(actions[i]);
+      lab.awaitSettled(0);
+      state = lab.readCurrentState();
+      nextStates[i] = state;
+    }
+
+    // fill the store with values, as after some episodes of learning
+    for (int pass = 0; pass < 10; pass++) {
+      for (int i = 0; i < TRANSITIONS; i++) {
+        store.updateAllGoals(states[i], actions[i], nextStates[i],
+          lab.getApplicableActionArray(nextStates[i]), goals.goalOf(nextStates[i]), REWARD, ALPHA, GAMMA);
+      }
+    }
+  }
+
+  private int nextIndex() {
+    next = (next + 1) & (TRANSITIONS - 1);
+    return next;
+  }
+
+  /**
+   * The Q update of a step of calculateQ
+   */
+  @Benchmark
+  public double qUpdate() {
+    int i = nextIndex();
+    int state = states[i];
+    int action = actions[i];
+    int nextState = nextStates[i];
+
+    double maxqsda = Math.max(0.0, store.rowMax(goal, nextState, lab.getApplicableActionArray(nextState)));
+    double reward = goals.goalOf(nextState) == goal ? REWARD : 0;
+    return store.update(goal, state, action, reward + GAMMA * maxqsda, ALPHA);
+  }
+
+  /**
+   * The Q updates of a step of calculateQAllGoals
+   */
+  @Benchmark
+  public void qUpdateAllGoals() {
+    int i = nextIndex();
+    int nextState = nextStates[i];
+    store.updateAllGoals(states[i], actions[i], nextState, lab.getApplicableActionArray(nextState),
+      goals.goalOf(nextState), REWARD, ALPHA, GAMMA);
+  }
+
+  /**
+   * The greedy action selection of getMaxValueIndex
+   */
+  @Benchmark
+  public int maxValueIndex() {
+    int state = states[nextIndex()];
+    return store.rowArgmax(goal, state, lab.getApplicableActionArray(state));
+  }
+}
@@ -0,0 +1,237 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that Q matrices are written to and read from a {@link QTableFile},
+ * including files of version 1 and goals that do not match their checksum.
+ */
+public class QTableFileTest {
+
+  private static final int GOALS = 4;
+  private static final int STATES = 50;
+  private static final int ACTIONS = 3;
+
+  private Path directory;
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("qtables");
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void roundTrip() throws IOException {
+    QTableStore store = randomStore(1, 0, 2);
+    Path path = directory.resolve("q.qtb");
+    QTableFile.write(path, store);
+
+    QTableFile file = QTableFile.open(path);
+    assertTrue("compatible", file.isCompatibleWith(store));
+    assertTrue("goal 0", file.contains(0));
+    assertFalse("goal 1", file.contains(1));
+    assertTrue("goal 2", file.contains(2));
+    assertFalse("goal 3", file.contains(3));
+
+    for (int goal : new int[] {0, 2}) {
+      assertEquals("rows of goal " + goal, countRows(store.rows(goal)), file.getRowCount(goal));
+      assertArrayEquals("rows of goal " + goal, table(store.rows(goal)), table(file.rows(goal)), 0.0);
+
+      QTableStore loaded = new FlatQTableStore(GOALS, STATES, ACTIONS);
+      file.load(goal, loaded);
+      assertArrayEquals("loaded goal " + goal, copy(store, goal), copy(loaded, goal), 0.0);
+    }
+  }
+
+  @Test
+  public void copiesGoalsOfPreviousFile() throws IOException {
+    QTableStore first = randomStore(2, 0, 1);
+    Path path = directory.resolve("q.qtb");
+    QTableFile.write(path, first);
+
+    // the file is replaced while it is open
+    QTableFile previous = QTableFile.open(path);
+    QTableStore second = randomStore(3, 1, 3);
+    QTableFile.write(path, second, previous);
+
+    QTableFile file = QTableFile.open(path);
+    assertArrayEquals("copied goal 0", copy(first, 0), load(file, 0), 0.0);
+    assertArrayEquals("replaced goal 1", copy(second, 1), load(file, 1), 0.0);
+    assertFalse("goal 2", file.contains(2));
+    assertArrayEquals("new goal 3", copy(second, 3), load(file, 3), 0.0);
+  }
+
+  @Test
+  public void readsVersion1() throws IOException {
+    QTableStore store = randomStore(4, 1, 3);
+    Path path = directory.resolve("v1.qtb");
+    writeVersion1(path, store, 1, 3);
+
+    QTableFile file = QTableFile.open(path);
+    assertFalse("goal 0", file.contains(0));
+    for (int goal : new int[] {1, 3}) {
+      assertEquals("rows of goal " + goal, STATES, file.getRowCount(goal));
+      assertArrayEquals("goal " + goal, copy(store, goal), load(file, goal), 0.0);
+
+      // the rows that are all zeros are skipped
+      QTableStore.RowCursor rows = file.rows(goal);
+      while (rows.next()) {
+        boolean zero = true;
+        for (int action = 0; action < ACTIONS; action++) {
+          zero &= rows.get(action) == 0.0;
+        }
+        assertFalse("zero row " + rows.getState() + " of goal " + goal, zero);
+      }
+    }
+
+    // rewriting a file of version 1 keeps its goals
+    Path rewritten = directory.resolve("v2.qtb");
+    QTableFile.write(rewritten, new FlatQTableStore(GOALS, STATES, ACTIONS), file);
+    QTableFile converted = QTableFile.open(rewritten);
+    assertArrayEquals("converted goal 3", copy(store, 3), load(converted, 3), 0.0);
+  }
+
+  @Test
+  public void rejectsCorruptGoals() throws IOException {
+    QTableStore store = randomStore(5, 0, 2);
+    Path path = directory.resolve("q.qtb");
+    QTableFile.write(path, store);
+
+    // the table of the last goal ends the file
+    try (RandomAccessFile corrupt = new RandomAccessFile(path.toFile(), "rw")) {
+      corrupt.seek(corrupt.length() - 1);
+      int value = corrupt.read();
+      corrupt.seek(corrupt.length() - 1);
+      corrupt.write(value ^ 0xFF);
+    }
+
+    QTableFile file = QTableFile.open(path);
+    try {
+      file.rows(2);
+      fail("the corrupt goal was read");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Checksum mismatch"));
+    }
+    try {
+      file.load(2, new FlatQTableStore(GOALS, STATES, ACTIONS));
+      fail("the corrupt goal was loaded");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Checksum mismatch"));
+    }
+    assertArrayEquals("goal 0", copy(store, 0), load(file, 0), 0.0);
+
+    // the corrupt goal is not copied to the next file
+    Path next = directory.resolve("next.qtb");
+    QTableFile.write(next, new FlatQTableStore(GOALS, STATES, ACTIONS), file);
+    QTableFile copied = QTableFile.open(next);
+    assertTrue("goal 0", copied.contains(0));
+    assertFalse("goal 2", copied.contains(2));
+  }
+
+  @Test
+  public void rejectsOtherFiles() throws IOException {
+    Path path = directory.resolve("other.qtb");
+    Files.write(path, "not a Q-table file".getBytes("UTF-8"));
+    try {
+      QTableFile.open(path);
+      fail("the file was opened");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Not a Q-table file"));
+    }
+  }
+
+  /* Creates a store with the given goals, whose rows are zero or random */
+  private static QTableStore randomStore(long seed, int... goals) {
+    Random random = new Random(seed);
+    QTableStore store = new SparseQTableStore(GOALS, STATES, ACTIONS);
+    for (int goal : goals) {
+      store.create(goal);
+      for (int state = 0; state < STATES; state++) {
+        if (random.nextBoolean()) {
+          for (int action = 0; action < ACTIONS; action++) {
+            store.set(goal, state, action, random.nextInt(3) == 0 ? 0.0 : random.nextGaussian());
+          }
+        }
+      }
+    }
+    return store;
+  }
+
+  private static double[] copy(QTableStore store, int goal) {
+    double[] table = new double[STATES * ACTIONS];
+    store.copyTable(goal, table);
+    return table;
+  }
+
+  private static double[] load(QTableFile file, int goal) throws IOException {
+    QTableStore store = new FlatQTableStore(GOALS, STATES, ACTIONS);
+    file.load(goal, store);
+    return copy(store, goal);
+  }
+
+  private static double[] table(QTableStore.RowCursor rows) {
+    double[] table = new double[STATES * ACTIONS];
+    while (rows.next()) {
+      for (int action = 0; action < ACTIONS; action++) {
+        table[rows.getState() * ACTIONS + action] = rows.get(action);
+      }
+    }
+    return table;
+  }
+
+  private static int countRows(QTableStore.RowCursor rows) {
+    int count = 0;
+    while (rows.next()) {
+      count++;
+    }
+    return count;
+  }
+
+  /*
+   * Writes a file of version 1, whose directory entries are [goal (int),
+   * offset (long), crc32 (long)], and whose tables have all the rows
+   */
+  private static void writeVersion1(Path path, QTableStore store, int... goals) throws IOException {
+    int headerSize = 6 * Integer.BYTES;
+    int entrySize = Integer.BYTES + 2 * Long.BYTES;
+    int tableSize = STATES * ACTIONS * Double.BYTES;
+    int dataStart = (headerSize + goals.length * entrySize + 7) & ~7;
+
+    ByteBuffer file = ByteBuffer.allocate(dataStart + goals.length * tableSize);
+    file.putInt(0x5154424C).putInt(1).putInt(GOALS).putInt(STATES).putInt(ACTIONS)
+      .putInt(goals.length);
+    for (int i = 0; i < goals.length; i++) {
+      int offset = dataStart + i * tableSize;
+      ByteBuffer table = ByteBuffer.allocate(tableSize);
+      table.asDoubleBuffer().put(copy(store, goals[i]));
+      CRC32 crc = new CRC32();
+      crc.update(table.array());
+
+      file.putInt(goals[i]).putLong(offset).putLong(crc.getValue());
+      System.arraycopy(table.array(), 0, file.array(), offset, tableSize);
+    }
+    Files.write(path, file.array());
+  }
+}
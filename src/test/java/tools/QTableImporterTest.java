@@ -0,0 +1,126 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that Q matrices saved with Java serialization are imported into the
+ * goals of the lab.
+ */
+public class QTableImporterTest {
+
+  private final GoalSpace goals = new GoalSpace(Lab.LAB_STATE_CODEC, Lab.LAB_GOAL_AXES);
+  private final int stateCount = Lab.LAB_STATE_CODEC.size();
+  private final int actionCount = Lab.LAB_ACTION_COUNT;
+
+  private Path file;
+
+  @Before
+  public void createFile() throws IOException {
+    file = Files.createTempFile("qtables", ".ser");
+  }
+
+  @After
+  public void deleteFile() throws IOException {
+    Files.delete(file);
+  }
+
+  @Test
+  public void importsGoals() throws IOException {
+    double[][] z2z1 = randomTable(1);
+    double[][] z0z3 = randomTable(2);
+    HashMap<String, double[][]> tables = new HashMap<>();
+    tables.put("21", z2z1);
+    tables.put("03", z0z3);
+    tables.put("x1", randomTable(3)); // not a goal of the lab
+    tables.put("91", randomTable(4)); // out of range
+    serialize(tables);
+
+    QTableStore store = new FlatQTableStore(goals.size(), stateCount, actionCount);
+    assertEquals(2, QTableImporter.importSerialized(file, store, goals));
+
+    int goal = goals.indexOf(new Object[] {2, 1});
+    assertTrue("goal [2,1]", store.contains(goal));
+    assertArrayEquals("goal [2,1]", flatten(z2z1), copy(store, goal), 0.0);
+
+    goal = goals.indexOf(new Object[] {0, 3});
+    assertTrue("goal [0,3]", store.contains(goal));
+    assertArrayEquals("goal [0,3]", flatten(z0z3), copy(store, goal), 0.0);
+
+    assertFalse("goal [1,1]", store.contains(goals.indexOf(new Object[] {1, 1})));
+  }
+
+  @Test
+  public void rejectsOtherDimensions() throws IOException {
+    HashMap<String, double[][]> tables = new HashMap<>();
+    tables.put("21", new double[stateCount - 1][actionCount]);
+    serialize(tables);
+
+    QTableStore store = new FlatQTableStore(goals.size(), stateCount, actionCount);
+    try {
+      QTableImporter.importSerialized(file, store, goals);
+      fail("a Q matrix with missing states was imported");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Expected " + stateCount + " states"));
+    }
+  }
+
+  @Test
+  public void rejectsOtherObjects() throws IOException {
+    HashSet<String> notATable = new HashSet<>(Arrays.asList("21"));
+    try (ObjectOutputStream outputStream = new ObjectOutputStream(
+        new FileOutputStream(file.toFile()))) {
+      outputStream.writeObject(notATable);
+    }
+
+    try {
+      QTableImporter.importSerialized(file, new FlatQTableStore(goals.size(), stateCount,
+        actionCount), goals);
+      fail("a set was imported");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Not a file of serialized Q matrices"));
+    }
+  }
+
+  private double[][] randomTable(long seed) {
+    Random random = new Random(seed);
+    double[][] table = new double[stateCount][actionCount];
+    for (double[] row : table) {
+      for (int action = 0; action < actionCount; action++) {
+        row[action] = random.nextInt(4) == 0 ? random.nextGaussian() : 0.0;
+      }
+    }
+    return table;
+  }
+
+  private double[] flatten(double[][] table) {
+    double[] values = new double[stateCount * actionCount];
+    for (int state = 0; state < stateCount; state++) {
+      System.arraycopy(table[state], 0, values, state * actionCount, actionCount);
+    }
+    return values;
+  }
+
+  private double[] copy(QTableStore store, int goal) {
+    double[] values = new double[stateCount * actionCount];
+    store.copyTable(goal, values);
+    return values;
+  }
+
+  private void serialize(HashMap<String, double[][]> tables) throws IOException {
+    try (ObjectOutputStream outputStream = new ObjectOutputStream(
+        new FileOutputStream(file.toFile()))) {
+      outputStream.writeObject(tables);
+    }
+  }
+}
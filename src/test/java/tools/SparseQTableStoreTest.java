@@ -0,0 +1,257 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+/**
+ * Checks a {@link SparseQTableStore} against a {@link FlatQTableStore} with
+ * random operations. The state space is small, so that the keys collide in the
+ * hash map, and rows are removed often by resetting goals and by eviction.
+ */
+public class SparseQTableStoreTest {
+
+  private static final int GOALS = 4;
+  private static final int STATES = 97;
+  private static final int ACTIONS = 5;
+  private static final int OPERATIONS = 200000;
+
+  @Test
+  public void matchesFlatStoreWithoutBound() {
+    check(0, 1);
+  }
+
+  @Test
+  public void matchesFlatStoreWithEviction() {
+    check(37, 2);
+  }
+
+  @Test
+  public void matchesFlatStoreWithSingleRow() {
+    check(1, 3);
+  }
+
+  private static void check(int maxRows, long seed) {
+    Random random = new Random(seed);
+    SparseQTableStore sparse = new SparseQTableStore(GOALS, STATES, ACTIONS, maxRows);
+    Reference reference = new Reference(maxRows);
+
+    for (int goal = 0; goal < GOALS; goal++) {
+      sparse.create(goal);
+      reference.create(goal);
+    }
+
+    for (int i = 0; i < OPERATIONS; i++) {
+      int goal = random.nextInt(GOALS);
+      int state = random.nextInt(STATES);
+      int action = random.nextInt(ACTIONS);
+      int[] actions = randomActions(random);
+      // zeros are frequent, so that writing zeros to missing rows is covered
+      double value = random.nextInt(4) == 0 ? 0.0 : random.nextInt(21) - 10;
+      String operation = "operation " + i;
+
+      switch (random.nextInt(100)) {
+        case 0:
+          sparse.create(goal);
+          reference.create(goal);
+          break;
+        case 1:
+          double[] table = new double[STATES * ACTIONS];
+          for (int j = 0; j < 10; j++) {
+            table[random.nextInt(table.length)] = random.nextInt(21) - 10;
+          }
+          sparse.loadTable(goal, table);
+          reference.loadTable(goal, table);
+          break;
+        case 2:
+          assertTables(operation, sparse, reference);
+          break;
+        default:
+          switch (random.nextInt(6)) {
+            case 0:
+              assertEquals(operation, reference.get(goal, state, action), sparse.get(goal, state, action), 0.0);
+              break;
+            case 1:
+              sparse.set(goal, state, action, value);
+              reference.set(goal, state, action, value);
+              break;
+            case 2:
+              assertEquals(operation, reference.update(goal, state, action, value, 0.5),
+                sparse.update(goal, state, action, value, 0.5), 0.0);
+              break;
+            case 3:
+              assertEquals(operation, reference.rowMax(goal, state, actions),
+                sparse.rowMax(goal, state, actions), 0.0);
+              break;
+            case 4:
+              assertEquals(operation, reference.rowArgmax(goal, state, actions),
+                sparse.rowArgmax(goal, state, actions));
+              break;
+            default:
+              int nextState = random.nextInt(STATES);
+              int rewardedGoal = random.nextInt(GOALS);
+              sparse.updateAllGoals(state, action, nextState, actions, rewardedGoal, 10, 0.5, 0.9);
+              reference.updateAllGoals(state, action, nextState, actions, rewardedGoal, 10, 0.5, 0.9);
+              break;
+          }
+      }
+
+      assertEquals(operation, reference.rows.size(), sparse.getRowCount());
+      assertEquals(operation, reference.evictedRows, sparse.getEvictedRowCount());
+    }
+    assertTables("end", sparse, reference);
+    if (maxRows > 0) {
+      assertTrue("no row was evicted", sparse.getEvictedRowCount() > 0);
+    }
+  }
+
+  private static int[] randomActions(Random random) {
+    int[] actions = new int[1 + random.nextInt(ACTIONS)];
+    for (int i = 0; i < actions.length; i++) {
+      actions[i] = random.nextInt(ACTIONS);
+    }
+    return actions;
+  }
+
+  /* Compares the Q matrices without changing the recency of the rows */
+  private static void assertTables(String message, SparseQTableStore sparse, Reference reference) {
+    double[] expected = new double[STATES * ACTIONS];
+    double[] copied = new double[STATES * ACTIONS];
+    double[] visited = new double[STATES * ACTIONS];
+
+    for (int goal = 0; goal < GOALS; goal++) {
+      reference.flat.copyTable(goal, expected);
+      sparse.copyTable(goal, copied);
+      assertArrayEquals(message + ", goal " + goal, expected, copied, 0.0);
+
+      Arrays.fill(visited, 0.0);
+      QTableStore.RowCursor rows = sparse.rows(goal);
+      while (rows.next()) {
+        assertTrue(message + ", row of a missing key", reference.rows.containsKey(
+          (long) goal * STATES + rows.getState()));
+        for (int action = 0; action < ACTIONS; action++) {
+          visited[rows.getState() * ACTIONS + action] = rows.get(action);
+        }
+      }
+      assertArrayEquals(message + ", rows of goal " + goal, expected, visited, 0.0);
+    }
+  }
+
+  /**
+   * A flat store with the allocation and the eviction of the rows of a sparse
+   * store: a row is allocated when a non-zero value is written to it, reads
+   * and writes make it the most recently used row, and an evicted row is reset
+   * to zeros.
+   */
+  private static final class Reference {
+
+    private final FlatQTableStore flat = new FlatQTableStore(GOALS, STATES, ACTIONS);
+    private final LinkedHashMap<Long, Boolean> rows = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxRows;
+    private long evictedRows;
+
+    Reference(int maxRows) {
+      this.maxRows = maxRows;
+    }
+
+    void create(int goal) {
+      removeRows(goal);
+      flat.create(goal);
+    }
+
+    void loadTable(int goal, double[] source) {
+      create(goal);
+      for (int state = 0; state < STATES; state++) {
+        for (int action = 0; action < ACTIONS; action++) {
+          if (source[state * ACTIONS + action] != 0.0) {
+            allocate(goal, state);
+            for (int a = 0; a < ACTIONS; a++) {
+              flat.set(goal, state, a, source[state * ACTIONS + a]);
+            }
+            break;
+          }
+        }
+      }
+    }
+
+    double get(int goal, int state, int action) {
+      use(goal, state);
+      return flat.get(goal, state, action);
+    }
+
+    void set(int goal, int state, int action, double value) {
+      if (!use(goal, state)) {
+        if (value == 0.0) {
+          return;
+        }
+        allocate(goal, state);
+      }
+      flat.set(goal, state, action, value);
+    }
+
+    double update(int goal, int state, int action, double target, double alpha) {
+      if (!use(goal, state)) {
+        double value = alpha * target;
+        if (value == 0.0) {
+          return 0.0;
+        }
+        allocate(goal, state);
+        flat.set(goal, state, action, value);
+        return value;
+      }
+      return flat.update(goal, state, action, target, alpha);
+    }
+
+    double rowMax(int goal, int state, int[] actions) {
+      use(goal, state);
+      return flat.rowMax(goal, state, actions);
+    }
+
+    int rowArgmax(int goal, int state, int[] actions) {
+      use(goal, state);
+      return flat.rowArgmax(goal, state, actions);
+    }
+
+    void updateAllGoals(int state, int action, int nextState, int[] nextActions, int rewardedGoal,
+        double reward, double alpha, double gamma) {
+      for (int goal = 0; goal < GOALS; goal++) {
+        double max = Math.max(0.0, rowMax(goal, nextState, nextActions));
+        update(goal, state, action, (goal == rewardedGoal ? reward : 0.0) + gamma * max, alpha);
+      }
+    }
+
+    /* Makes the row of a state the most recently used, if it is allocated */
+    private boolean use(int goal, int state) {
+      return rows.get((long) goal * STATES + state) != null;
+    }
+
+    private void allocate(int goal, int state) {
+      if (maxRows > 0 && rows.size() == maxRows) {
+        long eldest = rows.keySet().iterator().next();
+        rows.remove(eldest);
+        reset((int) (eldest / STATES), (int) (eldest % STATES));
+        evictedRows++;
+      }
+      rows.put((long) goal * STATES + state, Boolean.TRUE);
+    }
+
+    private void removeRows(int goal) {
+      Iterator<Long> keys = rows.keySet().iterator();
+      while (keys.hasNext()) {
+        long key = keys.next();
+        if (key / STATES == goal) {
+          keys.remove();
+          reset(goal, (int) (key % STATES));
+        }
+      }
+    }
+
+    private void reset(int goal, int state) {
+      for (int action = 0; action < ACTIONS; action++) {
+        flat.set(goal, state, action, 0.0);
+      }
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Checks that the {@link StateCodec} of the lab indexes the states in the same
+ * order as the cartesian product of the axes that the states were indexed by
+ * before, so that the Q matrices that were serialized before can still be read.
+ */
+public class StateCodecTest {
+
+  @Test
+  public void matchesCartesianProductOfLabAxes() {
+    // the substates of the lab, as they were built before the codec
+    HashMap<Integer, Integer> z1Level = new HashMap<>();
+    HashMap<Integer, Integer> z2Level = new HashMap<>();
+    HashMap<Integer, Boolean> z1Light = new HashMap<>();
+    HashMap<Integer, Boolean> z2Light = new HashMap<>();
+    HashMap<Integer, Boolean> z1Blinds = new HashMap<>();
+    HashMap<Integer, Boolean> z2Blinds = new HashMap<>();
+    HashMap<Integer, Integer> sunshine = new HashMap<>();
+    for (int i = 0; i < 4; i++) {
+      z1Level.put(i, i);
+      z2Level.put(i, i);
+      sunshine.put(i, i);
+    }
+    for (HashMap<Integer, Boolean> device : Arrays.asList(z1Light, z2Light, z1Blinds, z2Blinds)) {
+      device.put(0, false);
+      device.put(1, true);
+    }
+
+    List<List<Integer>> stateList = new ArrayList<>(Sets.cartesianProduct(
+      ImmutableSet.copyOf(z1Level.keySet()),
+      ImmutableSet.copyOf(z2Level.keySet()),
+      ImmutableSet.copyOf(z1Light.keySet()),
+      ImmutableSet.copyOf(z2Light.keySet()),
+      ImmutableSet.copyOf(z1Blinds.keySet()),
+      ImmutableSet.copyOf(z2Blinds.keySet()),
+      ImmutableSet.copyOf(sunshine.keySet())));
+
+    StateCodec codec = Lab.LAB_STATE_CODEC;
+    assertEquals(1024, stateList.size());
+    assertEquals(stateList.size(), codec.size());
+
+    int[] values = new int[codec.getAxisCount()];
+    for (int state = 0; state < stateList.size(); state++) {
+      List<Integer> substates = stateList.get(state);
+      assertEquals("state " + substates, state, codec.encode(substates));
+      assertEquals("state " + state, substates, codec.decode(state));
+
+      for (int axis = 0; axis < values.length; axis++) {
+        values[axis] = substates.get(axis);
+        assertEquals("axis " + axis + " of state " + state, (int) substates.get(axis),
+          codec.valueAt(state, axis));
+      }
+      assertEquals("state " + substates, state, codec.encode(values));
+    }
+  }
+}
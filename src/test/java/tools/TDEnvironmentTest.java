@@ -0,0 +1,131 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.unisg.ics.interactions.wot.td.ThingDescription;
+import ch.unisg.ics.interactions.wot.td.ThingDescription.TDFormat;
+import ch.unisg.ics.interactions.wot.td.io.TDGraphReader;
+
+/**
+ * Checks that a {@link TDEnvironment} that is built from the Thing Description
+ * of the lab and from environment.properties has the same states and actions
+ * as the {@link Lab}.
+ */
+public class TDEnvironmentTest {
+
+  private static final String WAS = "http://example.org/was#";
+
+  private Lab lab;
+  private TDEnvironment environment;
+  private TDEnvironment namedEnvironment; // only reads payloads keyed by property names
+
+  @Before
+  public void createEnvironments() throws IOException {
+    ThingDescription td = TDGraphReader.readFromString(TDFormat.RDF_TURTLE,
+      readResource("/tds/interactions-lab.ttl"));
+    Properties configuration = new Properties();
+    try (Reader reader = Files.newBufferedReader(Paths.get("environment.properties"),
+        StandardCharsets.UTF_8)) {
+      configuration.load(reader);
+    }
+
+    lab = new Lab(td);
+    environment = new TDEnvironment(td, configuration);
+    namedEnvironment = new TDEnvironment(td, configuration);
+  }
+
+  @Test
+  public void hasTheStatesOfTheLab() {
+    assertEquals(lab.getStateCount(), environment.getStateCount());
+    assertArrayEquals(lab.getGoalAxes(), environment.getGoalAxes());
+    for (int state = 0; state < lab.getStateCount(); state++) {
+      Object[] description = lab.describeState(state);
+      assertArrayEquals("state " + state, description, environment.describeState(state));
+      assertEquals("state " + state, state, environment.encodeState(description));
+    }
+  }
+
+  @Test
+  public void hasTheActionsOfTheLab() {
+    ActionDescriptor[] expected = ActionDescriptor.describe(lab);
+    ActionDescriptor[] actions = ActionDescriptor.describe(environment);
+    assertEquals(expected.length, actions.length);
+    for (int action = 0; action < expected.length; action++) {
+      assertEquals("action " + action, expected[action].getActionTag(), actions[action].getActionTag());
+      assertArrayEquals("action " + action, expected[action].getPayloadTags(),
+        actions[action].getPayloadTags());
+      assertArrayEquals("action " + action, expected[action].getPayload(),
+        actions[action].getPayload());
+    }
+
+    for (int state = 0; state < lab.getStateCount(); state++) {
+      assertArrayEquals("state " + state, lab.getApplicableActionArray(state),
+        environment.getApplicableActionArray(state));
+    }
+  }
+
+  @Test
+  public void hasTheZonesOfTheLab() {
+    assertEquals(lab.getZoneCount(), environment.getZoneCount());
+    for (int zone = 0; zone < lab.getZoneCount(); zone++) {
+      assertEquals("zone " + zone, lab.getLevelAxis(zone), environment.getLevelAxis(zone));
+      assertArrayEquals("zone " + zone, lab.getDeviceAxes(zone), environment.getDeviceAxes(zone));
+      assertArrayEquals("zone " + zone, lab.getNeighbours(zone), environment.getNeighbours(zone));
+    }
+    assertArrayEquals(lab.getSharedAxes(), environment.getSharedAxes());
+  }
+
+  @Test
+  public void readsTheStatusLikeTheLab() {
+    Random random = new Random(1);
+    for (int i = 0; i < 1000; i++) {
+      // the payload of the status, keyed by the semantic types of its properties
+      Map<String, Object> status = new HashMap<>();
+      status.put(WAS + "Z1Level", random.nextDouble() * 600);
+      status.put(WAS + "Z2Level", random.nextDouble() * 600);
+      status.put(WAS + "Sunshine", random.nextDouble() * 1000);
+      status.put(WAS + "Z1Light", random.nextBoolean());
+      status.put(WAS + "Z2Light", random.nextBoolean());
+      status.put(WAS + "Z1Blinds", random.nextBoolean());
+      status.put(WAS + "Z2Blinds", random.nextBoolean());
+      status.put(WAS + "EnergyCost", 0.0);
+      status.put(WAS + "Hour", i * 0.1);
+
+      int state = lab.updateCurrentState(status);
+      assertEquals("status " + status, state, environment.updateCurrentState(status));
+
+      // a payload that is keyed by the names of the properties is read as well
+      Map<String, Object> named = new HashMap<>();
+      for (Map.Entry<String, Object> property : status.entrySet()) {
+        named.put(property.getKey().substring(WAS.length()), property.getValue());
+      }
+      assertEquals("status " + named, state, namedEnvironment.updateCurrentState(named));
+    }
+  }
+
+  private static String readResource(String name) throws IOException {
+    try (InputStream in = TDEnvironmentTest.class.getResourceAsStream(name)) {
+      if (in == null) {
+        throw new IOException("Missing test resource " + name);
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int read; (read = in.read(buffer)) > 0; ) {
+        out.write(buffer, 0, read);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+}